@@ -0,0 +1,196 @@
+package br.dev.juniorlatalisa.persistence;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.persistence.PersistenceException;
+
+import br.dev.juniorlatalisa.utils.ReflectUtils;
+
+/**
+ * {@link RowMapper} para POJOs com construtor sem argumentos. As colunas são
+ * associadas aos atributos pelo nome (sem diferenciar maiúsculas e ignorando
+ * "_"), e a associação é resolvida uma única vez por conjunto de colunas: para
+ * cada linha são utilizados apenas os índices das colunas e os
+ * {@link MethodHandle} já resolvidos, sem reflexão.
+ *
+ * @author Junior Latalisa
+ * @param <T> Tipo do POJO.
+ */
+public class BeanRowMapper<T> implements RowMapper<T> {
+
+	private static final ClassValue<BeanRowMapper<?>> MAPPERS = new ClassValue<BeanRowMapper<?>>() {
+		@Override
+		protected BeanRowMapper<?> computeValue(Class<?> type) {
+			return new BeanRowMapper<>(type);
+		}
+	};
+
+	protected BeanRowMapper(Class<T> beanClass) {
+		this.beanClass = beanClass;
+		final Constructor<?> constructor = ReflectUtils.getConstructor(beanClass);
+		if (constructor == null) {
+			throw new PersistenceException(
+					String.format("Construtor sem argumentos não encontrado: %s", beanClass.getName()));
+		}
+		try {
+			this.constructor = MethodHandles.lookup().unreflectConstructor(constructor)
+					.asType(MethodType.methodType(Object.class));
+		} catch (IllegalAccessException e) {
+			throw new PersistenceException(e);
+		}
+		this.properties = resolveProperties(beanClass);
+	}
+
+	private final Class<T> beanClass;
+	private final MethodHandle constructor;
+	private final Map<String, Property> properties;
+	private final Map<String, Column[]> mappings = new ConcurrentHashMap<>();
+
+	private volatile Mapping last = null;
+
+	public Class<T> getBeanClass() {
+		return beanClass;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public T map(ResultSet resultSet) throws SQLException {
+		final Column[] columns = getColumns(resultSet);
+		final Object bean;
+		try {
+			bean = constructor.invokeExact();
+			for (Column column : columns) {
+				final Object value = resultSet.getObject(column.index, column.property.type);
+				if ((value != null) || (!column.property.primitive)) {
+					column.property.setter.invokeExact(bean, value);
+				}
+			}
+		} catch (SQLException | RuntimeException e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new PersistenceException(e);
+		}
+		return (T) bean;
+	}
+
+	protected Column[] getColumns(ResultSet resultSet) throws SQLException {
+		Mapping mapping = last;
+		if ((mapping == null) || (mapping.resultSet != resultSet)) {
+			final ResultSetMetaData metaData = resultSet.getMetaData();
+			final StringBuilder signature = new StringBuilder();
+			for (int i = 1; i <= metaData.getColumnCount(); i++) {
+				signature.append(metaData.getColumnLabel(i)).append(',');
+			}
+			last = mapping = new Mapping(resultSet,
+					mappings.computeIfAbsent(signature.toString(), key -> createColumns(metaData)));
+		}
+		return mapping.columns;
+	}
+
+	protected Column[] createColumns(ResultSetMetaData metaData) {
+		try {
+			final int columnCount = metaData.getColumnCount();
+			final Column[] columns = new Column[columnCount];
+			int size = 0;
+			for (int i = 1; i <= columnCount; i++) {
+				final Property property = properties.get(normalize(metaData.getColumnLabel(i)));
+				if (property != null) {
+					columns[size++] = new Column(i, property);
+				}
+			}
+			final Column[] retorno = new Column[size];
+			System.arraycopy(columns, 0, retorno, 0, size);
+			return retorno;
+		} catch (SQLException e) {
+			throw new PersistenceException(e);
+		}
+	}
+
+	protected static Map<String, Property> resolveProperties(Class<?> beanClass) {
+		final MethodHandles.Lookup lookup = MethodHandles.lookup();
+		final Map<String, Method> methods = ReflectUtils.getMethodMap(beanClass);
+		final Map<String, Property> retorno = new HashMap<>();
+		for (Field field : ReflectUtils.getFieldList(beanClass)) {
+			if (Modifier.isStatic(field.getModifiers()) || Modifier.isFinal(field.getModifiers())) {
+				continue;
+			}
+			final String name = field.getName();
+			final Method method = methods.get("set" + Character.toUpperCase(name.charAt(0)) + name.substring(1));
+			MethodHandle setter;
+			try {
+				if ((method != null) && (method.getParameterCount() == 1)
+						&& (method.getParameterTypes()[0].equals(field.getType()))) {
+					method.setAccessible(true);
+					setter = lookup.unreflect(method);
+				} else {
+					field.setAccessible(true);
+					setter = lookup.unreflectSetter(field);
+				}
+			} catch (IllegalAccessException | RuntimeException e) {
+				continue;
+			}
+			retorno.put(normalize(name), new Property(field.getType(),
+					setter.asType(MethodType.methodType(void.class, Object.class, Object.class))));
+		}
+		return retorno;
+	}
+
+	protected static String normalize(String name) {
+		return name.replace("_", "").toLowerCase();
+	}
+
+	/**
+	 * Retorna a instância compartilhada para a classe informada.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> BeanRowMapper<T> of(Class<T> beanClass) {
+		return (BeanRowMapper<T>) MAPPERS.get(beanClass);
+	}
+
+	protected static class Property {
+
+		protected Property(Class<?> type, MethodHandle setter) {
+			this.primitive = type.isPrimitive();
+			this.type = MethodType.methodType(type).wrap().returnType();
+			this.setter = setter;
+		}
+
+		private final Class<?> type;
+		private final boolean primitive;
+		private final MethodHandle setter;
+	}
+
+	protected static class Column {
+
+		protected Column(int index, Property property) {
+			this.index = index;
+			this.property = property;
+		}
+
+		private final int index;
+		private final Property property;
+	}
+
+	private static class Mapping {
+
+		private Mapping(ResultSet resultSet, Column[] columns) {
+			this.resultSet = resultSet;
+			this.columns = columns;
+		}
+
+		private final ResultSet resultSet;
+		private final Column[] columns;
+	}
+}
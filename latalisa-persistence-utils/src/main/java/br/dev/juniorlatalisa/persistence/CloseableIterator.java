@@ -0,0 +1,62 @@
+package br.dev.juniorlatalisa.persistence;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * {@link Iterator} associado a um recurso do banco de dados (cursor, statement,
+ * EntityManager, etc...). Os recursos são liberados automaticamente quando o
+ * iterator é percorrido até o fim ou quando o método {@link #close()} é
+ * chamado.
+ *
+ * @author Junior Latalisa
+ * @param <T> Tipo dos elementos.
+ */
+public interface CloseableIterator<T> extends Iterator<T>, AutoCloseable {
+
+	@Override
+	void close();
+
+	/**
+	 * Retorna um novo iterator que executa o comando informado depois de fechar o
+	 * iterator original.
+	 */
+	static <T> CloseableIterator<T> onClose(CloseableIterator<T> iterator, Runnable command) {
+		return new CloseableIterator<T>() {
+
+			private boolean closed = false;
+
+			@Override
+			public boolean hasNext() {
+				if (closed) {
+					return false;
+				}
+				if (iterator.hasNext()) {
+					return true;
+				}
+				close();
+				return false;
+			}
+
+			@Override
+			public T next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return iterator.next();
+			}
+
+			@Override
+			public void close() {
+				if (!closed) {
+					closed = true;
+					try {
+						iterator.close();
+					} finally {
+						command.run();
+					}
+				}
+			}
+		};
+	}
+}
@@ -1,5 +1,8 @@
 package br.dev.juniorlatalisa.persistence;
 
+import java.util.Collections;
+import java.util.List;
+
 import javax.naming.NamingException;
 import javax.sql.DataSource;
 
@@ -11,4 +14,35 @@ public interface DataSourceLookup {
 
 	DataSource doLookupDataSource(String contexto) throws NamingException;
 
+	/**
+	 * Réplicas somente leitura do banco de dados do contexto, utilizadas pelas
+	 * consultas fora de transação do {@link JPAQueryMultiDataBase}. O padrão é
+	 * nenhuma réplica (todas as operações no {@link DataSource} principal).
+	 * 
+	 * @see JPAQueryMultiDataBase#getReplicaSelection()
+	 */
+	default List<DataSource> doLookupReplicaDataSources(String contexto) throws NamingException {
+		return Collections.emptyList();
+	}
+
+	/**
+	 * Libera o {@link DataSource} obtido do contexto cujo
+	 * {@link javax.persistence.EntityManagerFactory} foi fechado por
+	 * {@link JPAQueryMultiDataBase#evictFactories()}. O padrão é não fazer nada.
+	 */
+	default void release(DataSource dataSource) {
+	}
+
+	/**
+	 * Envolve o {@link DataSource} (e as réplicas) de cada contexto em um
+	 * {@link PooledDataSource} próprio, criado na primeira consulta do contexto.
+	 * Os pools são encerrados pelo {@link PooledDataSourceLookup#close()}.
+	 * 
+	 * @param lookup  {@link DataSourceLookup} dos {@link DataSource} sem pool.
+	 * @param maxSize Quantidade máxima de conexões de cada {@link DataSource}.
+	 */
+	static PooledDataSourceLookup pooled(DataSourceLookup lookup, int maxSize) {
+		return new PooledDataSourceLookup(lookup, maxSize);
+	}
+
 }
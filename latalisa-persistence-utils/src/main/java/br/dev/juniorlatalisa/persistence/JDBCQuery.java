@@ -5,9 +5,16 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
 
 import javax.persistence.PersistenceException;
+import javax.sql.DataSource;
 
 import br.dev.juniorlatalisa.utils.ObjectUtils;
 
@@ -15,43 +22,256 @@ public abstract class JDBCQuery implements QueryFacade, AutoCloseable {
 
 	protected abstract Connection getConnection();
 
+	private StatementCache statementCache = null;
+
+	/**
+	 * Habilita o cache de {@link PreparedStatement} desta instância, reutilizando
+	 * os statements já preparados para o mesmo SQL.
+	 * 
+	 * @param maxSize Quantidade máxima de statements mantidos abertos, ou 0 para
+	 *                desabilitar o cache.
+	 * @return A própria instância.
+	 * @see StatementCache
+	 */
+	public JDBCQuery setStatementCacheSize(int maxSize) {
+		if (statementCache != null) {
+			statementCache.close();
+		}
+		statementCache = (maxSize > 0) ? new StatementCache(maxSize) : null;
+		return this;
+	}
+
+	/**
+	 * @return O cache de statements ou null caso não esteja habilitado.
+	 * @see #setStatementCacheSize(int)
+	 */
+	public StatementCache getStatementCache() {
+		return statementCache;
+	}
+
 	@Override
 	public void close() {
 		try {
+			if (statementCache != null) {
+				statementCache.close();
+			}
 			getConnection().close();
 		} catch (SQLException e) {
 			throw new PersistenceException(e);
 		}
 	}
 
+	private QueryMetrics queryMetrics = null;
+
+	/**
+	 * Habilita (ou desabilita com null) as métricas das consultas.
+	 * 
+	 * @return A própria instância.
+	 * @see QueryMetrics
+	 */
+	public JDBCQuery setQueryMetrics(QueryMetrics queryMetrics) {
+		this.queryMetrics = queryMetrics;
+		return this;
+	}
+
+	public QueryMetrics getQueryMetrics() {
+		return queryMetrics;
+	}
+
+	/**
+	 * Executa o comando registrando a consulta no {@link #getQueryMetrics()},
+	 * quando habilitado.
+	 */
+	protected <T> T measure(String queryValue, List<Object> params, Supplier<T> command, ToLongFunction<T> rows) {
+		final QueryMetrics metrics = getQueryMetrics();
+		return (metrics == null) ? command.get() : metrics.measure(null, queryValue, params, command, rows);
+	}
+
+	private volatile int defaultFetchSize = FETCH_SIZE_NONE;
+	private volatile Duration defaultTimeout = null;
+
+	/**
+	 * Quantidade padrão de registros buscados por vez pelo driver JDBC.
+	 * 
+	 * @param fetchSize {@link #FETCH_SIZE_NONE} para o padrão do driver JDBC.
+	 * @return A própria instância.
+	 * @see Statement#setFetchSize(int)
+	 */
+	public JDBCQuery setDefaultFetchSize(int fetchSize) {
+		this.defaultFetchSize = fetchSize;
+		return this;
+	}
+
+	public int getDefaultFetchSize() {
+		return defaultFetchSize;
+	}
+
+	/**
+	 * Tempo máximo padrão de execução dos comandos (arredondado para segundos).
+	 * 
+	 * @param timeout null para o padrão do driver JDBC (sem limite).
+	 * @return A própria instância.
+	 * @see Statement#setQueryTimeout(int)
+	 */
+	public JDBCQuery setDefaultTimeout(Duration timeout) {
+		this.defaultTimeout = timeout;
+		return this;
+	}
+
+	public Duration getDefaultTimeout() {
+		return defaultTimeout;
+	}
+
+	private volatile Statement currentStatement = null;
+
 	protected Statement createStatement(int startResult) throws SQLException {
-		return (START_RESULT_NONE == startResult) ? getConnection().createStatement()
-				: getConnection().createStatement(ResultSet.TYPE_SCROLL_SENSITIVE, ResultSet.CONCUR_READ_ONLY);
+		return configure((START_RESULT_NONE == startResult) ? getConnection().createStatement()
+				: getConnection().createStatement(ResultSet.TYPE_SCROLL_SENSITIVE, ResultSet.CONCUR_READ_ONLY));
 	}
 
 	protected PreparedStatement createPreparedStatement(String queryValue, int startResult) throws SQLException {
-		return (START_RESULT_NONE == startResult) ? getConnection().prepareStatement(queryValue)
+		if (statementCache != null) {
+			final PreparedStatement statement = statementCache.acquire(queryValue, getResultSetType(startResult));
+			if (statement != null) {
+				return configure(statement);
+			}
+		}
+		return configure((START_RESULT_NONE == startResult) ? getConnection().prepareStatement(queryValue)
 				: getConnection().prepareStatement(queryValue, ResultSet.TYPE_SCROLL_SENSITIVE,
-						ResultSet.CONCUR_READ_ONLY);
+						ResultSet.CONCUR_READ_ONLY));
+	}
+
+	/**
+	 * Aplica os padrões desta instância ({@link #setDefaultFetchSize(int)} e
+	 * {@link #setDefaultTimeout(Duration)}), inclusive nos statements
+	 * reutilizados do cache.
+	 */
+	private <S extends Statement> S configure(S statement) throws SQLException {
+		try {
+			statement.setFetchSize(Math.max(0, defaultFetchSize));
+			statement.setQueryTimeout(toSeconds(defaultTimeout));
+		} catch (SQLException e) {
+			statement.close();
+			throw e;
+		}
+		currentStatement = statement;
+		return statement;
+	}
+
+	/**
+	 * Tempo máximo de execução do statement, null mantém o padrão desta
+	 * instância.
+	 */
+	protected void setTimeout(Statement statement, Duration timeout) throws SQLException {
+		if (timeout != null) {
+			statement.setQueryTimeout(toSeconds(timeout));
+		}
+	}
+
+	private static int toSeconds(Duration timeout) {
+		if ((timeout == null) || timeout.isZero() || timeout.isNegative()) {
+			return 0;
+		}
+		return (int) Math.min(Integer.MAX_VALUE, Math.max(1, (timeout.toMillis() + 999) / 1000));
+	}
+
+	/**
+	 * Cancela a instrução em execução por esta instância.
+	 * 
+	 * @see Statement#cancel()
+	 */
+	public void cancel() {
+		final Statement statement = currentStatement;
+		if (statement != null) {
+			try {
+				statement.cancel();
+			} catch (SQLException e) {
+				throw new PersistenceException(e);
+			}
+		}
+	}
+
+	/**
+	 * Executa a tarefa de forma assíncrona
+	 * ({@link QueryFuture#getDefaultExecutor()}) com uma conexão própria, fechada
+	 * ao final. O cancelamento do {@link QueryFuture} cancela a instrução em
+	 * execução ({@link #cancel()}).
+	 * 
+	 * @param task Recebe a fachada da conexão da tarefa.
+	 * @see #createAsyncFacade()
+	 */
+	public <T> QueryFuture<T> async(Function<JDBCQuery, T> task) {
+		return QueryFuture.supplyAsync(future -> {
+			try (JDBCQuery query = createAsyncFacade()) {
+				future.onCancel(query::cancel);
+				return task.apply(query);
+			}
+		}, QueryFuture.getDefaultExecutor());
+	}
+
+	/**
+	 * Fachada com uma nova conexão para as tarefas assíncronas, disponível apenas
+	 * para as instâncias criadas por {@link #create(DataSource)}.
+	 */
+	protected JDBCQuery createAsyncFacade() {
+		throw new PersistenceException("Execução assíncrona disponível apenas para JDBCQuery criado com DataSource");
+	}
+
+	/**
+	 * Devolve o statement criado por {@link #createPreparedStatement(String, int)}
+	 * ao cache, ou o fecha quando o cache não estiver habilitado.
+	 */
+	protected void closePreparedStatement(PreparedStatement statement, String queryValue, int startResult)
+			throws SQLException {
+		if ((statementCache == null)
+				|| (!statementCache.release(queryValue, getResultSetType(startResult), statement))) {
+			statement.close();
+		}
+	}
+
+	protected int getResultSetType(int startResult) {
+		return (START_RESULT_NONE == startResult) ? ResultSet.TYPE_FORWARD_ONLY : ResultSet.TYPE_SCROLL_SENSITIVE;
 	}
 
 	protected PreparedStatement setParams(PreparedStatement preparedStatement, List<Object> params)
 			throws SQLException {
-		for (int i = 0; i < params.size(); i++) {
-			preparedStatement.setObject(i, params.get(i));
+		if (!ObjectUtils.isEmpty(params)) {
+			for (int i = 0; i < params.size(); i++) {
+				preparedStatement.setObject(i + 1, params.get(i));
+			}
 		}
 		return preparedStatement;
 	}
 
 	public int execute(String queryValue, List<Object> params) {
-		try (Statement statement = ObjectUtils.isEmpty(params) ? createStatement(START_RESULT_NONE)
-				: createPreparedStatement(queryValue, START_RESULT_NONE)) {
-			return (statement instanceof PreparedStatement) //
-					? setParams((PreparedStatement) statement, params).executeUpdate() //
-					: statement.executeUpdate(queryValue);
-		} catch (SQLException e) {
-			throw new PersistenceException(e);
-		}
+		return execute(queryValue, params, null);
+	}
+
+	/**
+	 * @param timeout Tempo máximo de execução ou null para o padrão desta
+	 *                instância.
+	 * @see #execute(String, List)
+	 */
+	public int execute(String queryValue, List<Object> params, Duration timeout) {
+		return measure(queryValue, params, () -> {
+			try {
+				if (ObjectUtils.isEmpty(params)) {
+					try (Statement statement = createStatement(START_RESULT_NONE)) {
+						setTimeout(statement, timeout);
+						return statement.executeUpdate(queryValue);
+					}
+				}
+				final PreparedStatement statement = createPreparedStatement(queryValue, START_RESULT_NONE);
+				try {
+					setTimeout(statement, timeout);
+					return setParams(statement, params).executeUpdate();
+				} finally {
+					closePreparedStatement(statement, queryValue, START_RESULT_NONE);
+				}
+			} catch (SQLException e) {
+				throw new PersistenceException(e);
+			}
+		}, Integer::longValue);
 	}
 
 	@Override
@@ -59,6 +279,202 @@ public abstract class JDBCQuery implements QueryFacade, AutoCloseable {
 		return execute(queryValue, null);
 	}
 
+	/**
+	 * Executa o comando para cada linha de parâmetros agrupando as execuções em
+	 * lotes de tamanho batchSize. Quando a conexão estiver em auto-commit todos os
+	 * lotes são executados em uma única transação.
+	 * 
+	 * @return Quantidade de registros afetados por cada lote.
+	 * @see PreparedStatement#addBatch()
+	 * @see PreparedStatement#executeBatch()
+	 */
+	public List<int[]> executeBatch(String queryValue, Iterable<List<Object>> rows, int batchSize) {
+		if (batchSize < 1) {
+			throw new PersistenceException("Tamanho do lote inválido: " + batchSize);
+		}
+		final List<int[]> retorno = new ArrayList<>();
+		try {
+			final Connection connection = getConnection();
+			final boolean autoCommit = connection.getAutoCommit();
+			if (autoCommit) {
+				connection.setAutoCommit(false);
+			}
+			PreparedStatement statement = null;
+			try {
+				statement = createPreparedStatement(queryValue, START_RESULT_NONE);
+				int count = 0;
+				for (List<Object> row : rows) {
+					setParams(statement, row).addBatch();
+					if (++count % batchSize == 0) {
+						retorno.add(statement.executeBatch());
+					}
+				}
+				if (count % batchSize != 0) {
+					retorno.add(statement.executeBatch());
+				}
+				if (autoCommit) {
+					connection.commit();
+				}
+			} catch (SQLException | RuntimeException e) {
+				if (autoCommit) {
+					connection.rollback();
+				}
+				throw e;
+			} finally {
+				try {
+					if (statement != null) {
+						closePreparedStatement(statement, queryValue, START_RESULT_NONE);
+					}
+				} finally {
+					if (autoCommit) {
+						connection.setAutoCommit(true);
+					}
+				}
+			}
+		} catch (SQLException e) {
+			throw new PersistenceException(e);
+		}
+		return retorno;
+	}
+
+	/**
+	 * Inclui ou atualiza os registros pela chave informada em um único comando
+	 * nativo do banco de dados ({@link UpsertDialect}), sem consultas prévias,
+	 * executado em lotes conforme {@link #executeBatch(String, Iterable, int)}.
+	 * 
+	 * @param keyColumns Colunas da chave (primária ou única), também presentes em
+	 *                   columns.
+	 * @param columns    Colunas na ordem dos valores de cada registro.
+	 * @return Quantidade de registros afetados por cada lote.
+	 */
+	public List<int[]> upsertAll(String table, List<String> keyColumns, List<String> columns,
+			Iterable<List<Object>> rows, int batchSize) {
+		if (ObjectUtils.isEmpty(keyColumns) || !columns.containsAll(keyColumns)) {
+			throw new PersistenceException("Colunas da chave inválidas: " + keyColumns);
+		}
+		final UpsertDialect dialect;
+		try {
+			dialect = UpsertDialect.of(getConnection());
+		} catch (SQLException e) {
+			throw new PersistenceException(e);
+		}
+		return executeBatch(dialect.createUpsert(table, keyColumns, columns), rows, batchSize);
+	}
+
+	/**
+	 * Executa os comandos do script em lotes ({@link Statement#addBatch(String)})
+	 * de tamanho batchSize, lendo um comando por vez, assim o tamanho do script
+	 * não é limitado pela memória. Cada lote é confirmado conforme o auto-commit
+	 * da conexão. O script é fechado ao final.
+	 * 
+	 * @param progress Notificado após cada lote (ex:
+	 *                 {@link SQLScriptReader#getPosition()}), ou null.
+	 * @return Quantidade de comandos executados.
+	 */
+	public long executeScript(SQLScriptReader script, int batchSize, Consumer<SQLScriptReader> progress) {
+		if (batchSize < 1) {
+			throw new PersistenceException("Tamanho do lote inválido: " + batchSize);
+		}
+		try (script; Statement statement = createStatement(START_RESULT_NONE)) {
+			int count = 0;
+			while (script.hasNext()) {
+				statement.addBatch(script.next());
+				if ((++count == batchSize) || (!script.hasNext())) {
+					statement.executeBatch();
+					count = 0;
+					if (progress != null) {
+						progress.accept(script);
+					}
+				}
+			}
+			return script.getStatementCount();
+		} catch (SQLException e) {
+			throw new PersistenceException("Falha no lote encerrado no comando " + script.getStatementCount(), e);
+		}
+	}
+
+	/**
+	 * Cursor sobre o resultado da consulta. Sem startResult o {@link ResultSet} é
+	 * somente para frente (forward-only), permitindo que o driver busque os
+	 * registros sob demanda em blocos de tamanho fetchSize.
+	 * 
+	 * @param <T>
+	 * @param queryValue
+	 * @param params
+	 * @param rowMapper
+	 * @param startResult
+	 * @param maxResults
+	 * @param fetchSize   {@link #FETCH_SIZE_NONE} para o padrão do driver JDBC.
+	 * @return
+	 * @see Statement#setFetchSize(int)
+	 */
+	public <T> CloseableIterator<T> iterator(String queryValue, List<Object> params, RowMapper<T> rowMapper,
+			int startResult, int maxResults, int fetchSize) {
+		return iterator(queryValue, params, rowMapper, startResult, maxResults, fetchSize, null);
+	}
+
+	/**
+	 * @param timeout Tempo máximo de execução ou null para o padrão desta
+	 *                instância.
+	 * @see #iterator(String, List, RowMapper, int, int, int)
+	 */
+	public <T> CloseableIterator<T> iterator(String queryValue, List<Object> params, RowMapper<T> rowMapper,
+			int startResult, int maxResults, int fetchSize, Duration timeout) {
+		PreparedStatement statement = null;
+		try {
+			statement = createPreparedStatement(queryValue, startResult);
+			if (fetchSize != FETCH_SIZE_NONE) {
+				statement.setFetchSize(fetchSize);
+			}
+			setTimeout(statement, timeout);
+			if (maxResults != MAX_RESULT_NONE) {
+				statement.setMaxRows((startResult == START_RESULT_NONE) ? maxResults : startResult + maxResults);
+			}
+			final ResultSet resultSet = setParams(statement, params).executeQuery();
+			if ((startResult != START_RESULT_NONE) && (startResult > 0)) {
+				resultSet.absolute(startResult);
+			}
+			return new ResultSetIterator<>(statement, resultSet, rowMapper, maxResults) {
+				@Override
+				protected void closeStatement(Statement statement, ResultSet resultSet) throws SQLException {
+					resultSet.close();
+					closePreparedStatement((PreparedStatement) statement, queryValue, startResult);
+				}
+			};
+		} catch (SQLException e) {
+			if (statement != null) {
+				try {
+					closePreparedStatement(statement, queryValue, startResult);
+				} catch (SQLException s) {
+					e.addSuppressed(s);
+				}
+			}
+			throw new PersistenceException(e);
+		}
+	}
+
+	public <T> List<T> list(String queryValue, List<Object> params, RowMapper<T> rowMapper, int startResult,
+			int maxResults, int fetchSize) {
+		return list(queryValue, params, rowMapper, startResult, maxResults, fetchSize, null);
+	}
+
+	/**
+	 * @param timeout Tempo máximo de execução ou null para o padrão desta
+	 *                instância.
+	 * @see #list(String, List, RowMapper, int, int, int)
+	 */
+	public <T> List<T> list(String queryValue, List<Object> params, RowMapper<T> rowMapper, int startResult,
+			int maxResults, int fetchSize, Duration timeout) {
+		return measure(queryValue, params, () -> {
+			final List<T> retorno = new ArrayList<>();
+			try (CloseableIterator<T> iterator = iterator(queryValue, params, rowMapper, startResult, maxResults,
+					fetchSize, timeout)) {
+				iterator.forEachRemaining(retorno::add);
+			}
+			return retorno;
+		}, List::size);
+	}
+
 	public static JDBCQuery create(Connection connection) {
 		return new JDBCQuery() {
 			@Override
@@ -68,4 +484,46 @@ public abstract class JDBCQuery implements QueryFacade, AutoCloseable {
 		};
 	}
 
+	/**
+	 * Obtém a conexão do {@link DataSource} (ex: {@link PooledDataSource}) na
+	 * primeira utilização e a devolve no {@link #close()}.
+	 */
+	public static JDBCQuery create(DataSource dataSource) {
+		return new JDBCQuery() {
+
+			private Connection connection = null;
+
+			@Override
+			protected synchronized Connection getConnection() {
+				if (connection == null) {
+					try {
+						connection = dataSource.getConnection();
+					} catch (SQLException e) {
+						throw new PersistenceException(e);
+					}
+				}
+				return connection;
+			}
+
+			@Override
+			protected JDBCQuery createAsyncFacade() {
+				return JDBCQuery.create(dataSource) //
+						.setQueryMetrics(getQueryMetrics()) //
+						.setDefaultFetchSize(getDefaultFetchSize()) //
+						.setDefaultTimeout(getDefaultTimeout());
+			}
+
+			@Override
+			public synchronized void close() {
+				if (connection != null) {
+					try {
+						super.close();
+					} finally {
+						connection = null;
+					}
+				}
+			}
+		};
+	}
+
 }
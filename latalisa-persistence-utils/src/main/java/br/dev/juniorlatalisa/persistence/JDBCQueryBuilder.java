@@ -1,9 +1,14 @@
 package br.dev.juniorlatalisa.persistence;
 
-import java.util.Iterator;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 
+import br.dev.juniorlatalisa.utils.ObjectUtils;
+
 public class JDBCQueryBuilder implements QueryBuilder {
 
 	public JDBCQueryBuilder(JDBCQuery facade, String queryValue) {
@@ -16,29 +21,160 @@ public class JDBCQueryBuilder implements QueryBuilder {
 
 	private List<Object> params = new LinkedList<>();
 
+	private int maxResults = QueryFacade.MAX_RESULT_NONE;
+	private int startResult = QueryFacade.START_RESULT_NONE;
+	private int fetchSize = QueryFacade.FETCH_SIZE_NONE;
+	private Duration timeout = null;
+	private RowMapper<?> rowMapper = RowMapper.DEFAULT;
+
+	public JDBCQueryBuilder setMaxResults(int maxResults) {
+		this.maxResults = maxResults;
+		return this;
+	}
+
+	public JDBCQueryBuilder setStartResult(int startResult) {
+		this.startResult = startResult;
+		return this;
+	}
+
+	/**
+	 * Quantidade de registros buscados por vez pelo driver JDBC.
+	 *
+	 * @see java.sql.Statement#setFetchSize(int)
+	 */
+	public JDBCQueryBuilder setFetchSize(int fetchSize) {
+		this.fetchSize = fetchSize;
+		return this;
+	}
+
+	/**
+	 * Tempo máximo de execução, null para o padrão do
+	 * {@link JDBCQuery#setDefaultTimeout(Duration)}.
+	 *
+	 * @see java.sql.Statement#setQueryTimeout(int)
+	 */
+	public JDBCQueryBuilder setTimeout(Duration timeout) {
+		this.timeout = timeout;
+		return this;
+	}
+
+	/**
+	 * @see RowMapper#DEFAULT
+	 */
+	public JDBCQueryBuilder setRowMapper(RowMapper<?> rowMapper) {
+		this.rowMapper = (rowMapper == null) ? RowMapper.DEFAULT : rowMapper;
+		return this;
+	}
+
+	/**
+	 * @see RowMapper#bean(Class)
+	 */
+	public JDBCQueryBuilder setResultClass(Class<?> resultClass) {
+		return setRowMapper(RowMapper.bean(resultClass));
+	}
+
+	public JDBCQueryBuilder setParams(List<Object> params) {
+		this.params.clear();
+		if (!ObjectUtils.isEmpty(params)) {
+			this.params.addAll(params);
+		}
+		return this;
+	}
+
+	public JDBCQueryBuilder addParam(Object value) {
+		params.add(value);
+		return this;
+	}
+
 	@Override
 	public JDBCQueryBuilder clearParams() {
 		this.params.clear();
 		return this;
 	}
 
+	public JDBCQueryBuilder clearMaxResults() {
+		return setMaxResults(QueryFacade.MAX_RESULT_NONE);
+	}
+
+	public JDBCQueryBuilder clearStartResult() {
+		return setStartResult(QueryFacade.START_RESULT_NONE);
+	}
+
 	@Override
 	public <T> T find() {
-		return null;
+		List<T> result = facade.list(queryValue, params, getRowMapper(), startResult, 1, fetchSize, timeout);
+		return result.isEmpty() ? null : result.get(0);
 	}
 
 	@Override
 	public int execute() {
-		return facade.execute(queryValue, params);
+		return facade.execute(queryValue, params, timeout);
 	}
 
 	@Override
 	public <T> List<T> list() {
-		return null;
+		return facade.list(queryValue, params, getRowMapper(), startResult, maxResults, fetchSize, timeout);
+	}
+
+	/**
+	 * {@link #list()} assíncrono.
+	 * 
+	 * @see JDBCQuery#async(java.util.function.Function)
+	 */
+	public <T> QueryFuture<List<T>> listAsync() {
+		final List<Object> params = new ArrayList<>(this.params);
+		final RowMapper<T> rowMapper = getRowMapper();
+		final int startResult = this.startResult;
+		final int maxResults = this.maxResults;
+		final int fetchSize = this.fetchSize;
+		final Duration timeout = this.timeout;
+		return facade.async(
+				query -> query.list(queryValue, params, rowMapper, startResult, maxResults, fetchSize, timeout));
+	}
+
+	/**
+	 * {@link #find()} assíncrono.
+	 * 
+	 * @see JDBCQuery#async(java.util.function.Function)
+	 */
+	public <T> QueryFuture<T> findAsync() {
+		final List<Object> params = new ArrayList<>(this.params);
+		final RowMapper<T> rowMapper = getRowMapper();
+		final int startResult = this.startResult;
+		final int fetchSize = this.fetchSize;
+		final Duration timeout = this.timeout;
+		return facade.async(query -> {
+			final List<T> result = query.list(queryValue, params, rowMapper, startResult, 1, fetchSize, timeout);
+			return result.isEmpty() ? null : result.get(0);
+		});
+	}
+
+	/**
+	 * {@link #execute()} assíncrono.
+	 * 
+	 * @see JDBCQuery#async(java.util.function.Function)
+	 */
+	public QueryFuture<Integer> executeAsync() {
+		final List<Object> params = new ArrayList<>(this.params);
+		final Duration timeout = this.timeout;
+		return facade.async(query -> query.execute(queryValue, params, timeout));
 	}
 
 	@Override
-	public <T> Iterator<T> iterator() {
-		return null;
+	public <T> CloseableIterator<T> iterator() {
+		return facade.iterator(queryValue, params, getRowMapper(), startResult, maxResults, fetchSize, timeout);
+	}
+
+	@SuppressWarnings("unchecked")
+	protected <T> RowMapper<T> getRowMapper() {
+		return (RowMapper<T>) rowMapper;
+	}
+
+	public static JDBCQueryBuilder create(JDBCQuery facade, String queryValue) {
+		return new JDBCQueryBuilder(facade, queryValue);
+	}
+
+	public static JDBCQueryBuilder create(JDBCQuery facade, InputStream is, Charset charset) {
+		return new JDBCQueryBuilder(facade, QueryBuilder.load(is, charset));
 	}
 }
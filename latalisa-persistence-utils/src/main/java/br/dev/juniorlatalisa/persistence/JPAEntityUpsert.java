@@ -0,0 +1,136 @@
+package br.dev.juniorlatalisa.persistence;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.PersistenceException;
+
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.type.Type;
+
+/**
+ * Lote de upsert ({@link UpsertDialect}) das entidades de uma classe, com a
+ * tabela, as colunas e a conversão dos valores obtidas dos metadados do
+ * Hibernate.
+ *
+ * @author Junior Latalisa
+ * @see JPAQuery#upsertAll(Iterable, int)
+ */
+class JPAEntityUpsert implements AutoCloseable {
+
+	JPAEntityUpsert(SessionImplementor session, Connection connection, UpsertDialect dialect, Class<?> entityClass,
+			int batchSize) throws SQLException {
+		this.session = session;
+		this.batchSize = batchSize;
+		this.persister = (AbstractEntityPersister) session.getFactory().getMetamodel().entityPersister(entityClass);
+		if (persister.isInherited() || persister.getEntityMetamodel().hasSubclasses()) {
+			throw new PersistenceException("Upsert não suportado para entidades com herança: "
+					+ entityClass.getName());
+		}
+		final List<String> keyColumns = Arrays.asList(persister.getIdentifierColumnNames());
+		final List<String> columns = new ArrayList<>(keyColumns);
+		final List<String> updateColumns = new ArrayList<>();
+		final Map<String, int[]> slots = new HashMap<>();
+		for (int column = 0; column < keyColumns.size(); column++) {
+			slots.put(keyColumns.get(column), new int[] { ID, column });
+		}
+		final boolean[] insertability = persister.getPropertyInsertability();
+		final boolean[] updateability = persister.getPropertyUpdateability();
+		this.version = persister.isVersioned() ? persister.getVersionProperty() : ID;
+		this.incrementVersion = (version != ID)
+				&& Number.class.isAssignableFrom(persister.getPropertyTypes()[version].getReturnedClass());
+		for (int i = 0; i < insertability.length; i++) {
+			final String[] propertyColumns = persister.getPropertyColumnNames(i);
+			if (insertability[i] && (propertyColumns.length > 0)) {
+				columns.addAll(Arrays.asList(propertyColumns));
+				if (updateability[i] && ((i != version) || !incrementVersion)) {
+					updateColumns.addAll(Arrays.asList(propertyColumns));
+				}
+				for (int column = 0; column < propertyColumns.length; column++) {
+					slots.put(propertyColumns[column], new int[] { i, column });
+				}
+			}
+		}
+		final String versionColumn = incrementVersion ? persister.getPropertyColumnNames(version)[0] : null;
+		for (String column : dialect.getParameterColumns(keyColumns, columns, updateColumns, versionColumn)) {
+			parameters.add(slots.get(column));
+		}
+		this.statement = connection.prepareStatement(
+				dialect.createUpsert(persister.getTableName(), keyColumns, columns, updateColumns, versionColumn));
+	}
+
+	/**
+	 * Propriedade do parâmetro que representa a chave primária.
+	 */
+	private static final int ID = -1;
+
+	private final SessionImplementor session;
+	private final int batchSize;
+	private final AbstractEntityPersister persister;
+	private final int version;
+	/**
+	 * Versão numérica incrementada pelo comando, as demais (data e hora) são
+	 * substituídas pelo valor inicial a cada gravação.
+	 */
+	private final boolean incrementVersion;
+	/**
+	 * Propriedade ({@link #ID} para a chave primária) e coluna da propriedade de
+	 * cada parâmetro do comando.
+	 */
+	private final List<int[]> parameters = new ArrayList<>();
+	private final PreparedStatement statement;
+	private int pending = 0;
+
+	/**
+	 * Adiciona a entidade ao lote, executado a cada batchSize entidades. A versão
+	 * ({@link javax.persistence.Version}) e as colunas não atualizáveis do
+	 * registro existente são mantidas, a versão não informada é iniciada na
+	 * inclusão e a versão do registro existente é incrementada na alteração.
+	 */
+	public void add(Object entity) throws SQLException {
+		final Object id = persister.getIdentifier(entity, session);
+		if (id == null) {
+			throw new PersistenceException("Chave primária não informada: " + entity);
+		}
+		final Object[] values = persister.getPropertyValues(entity);
+		final Type[] types = persister.getPropertyTypes();
+		if ((version != ID) && ((values[version] == null) || !incrementVersion)) {
+			values[version] = persister.getVersionType().seed(session);
+		}
+		for (int index = 0; index < parameters.size(); index++) {
+			final int[] slot = parameters.get(index);
+			final boolean key = slot[0] == ID;
+			final Type type = key ? persister.getIdentifierType() : types[slot[0]];
+			final boolean[] settable = new boolean[key ? persister.getIdentifierColumnNames().length
+					: persister.getPropertyColumnNames(slot[0]).length];
+			settable[slot[1]] = true;
+			type.nullSafeSet(statement, key ? id : values[slot[0]], index + 1, settable, session);
+		}
+		statement.addBatch();
+		if (++pending == batchSize) {
+			flush();
+		}
+	}
+
+	/**
+	 * Executa o lote pendente.
+	 */
+	public void flush() throws SQLException {
+		if (pending > 0) {
+			statement.executeBatch();
+			pending = 0;
+		}
+	}
+
+	@Override
+	public void close() throws SQLException {
+		statement.close();
+	}
+}
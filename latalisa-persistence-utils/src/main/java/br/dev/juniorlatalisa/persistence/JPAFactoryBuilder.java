@@ -17,6 +17,8 @@ import javax.persistence.spi.PersistenceUnitInfo;
 import javax.persistence.spi.PersistenceUnitTransactionType;
 import javax.sql.DataSource;
 
+import br.dev.juniorlatalisa.utils.ObjectUtils;
+
 /**
  * Classe focada na utilização de JPA sem o arquivo persistence.xml ou sem o
  * persistenceUnit configurado no persistence.xml existente. Será possivel
@@ -54,6 +56,11 @@ import javax.sql.DataSource;
  */
 public class JPAFactoryBuilder {
 
+	public static final String USE_SECOND_LEVEL_CACHE = "hibernate.cache.use_second_level_cache";
+	public static final String USE_QUERY_CACHE = "hibernate.cache.use_query_cache";
+	public static final String REGION_FACTORY_CLASS = "hibernate.cache.region.factory_class";
+	public static final String CLASS_CACHE_PREFIX = "hibernate.classcache.";
+
 	private Properties properties;
 	private DataSource dataSource;
 	private ClassLoader classLoader;
@@ -61,6 +68,7 @@ public class JPAFactoryBuilder {
 	private List<String> managedClassNames;
 	private String persistenceProviderClassName;
 	private PersistenceUnitTransactionType transactionType;
+	private SharedCacheMode sharedCacheMode;
 
 	/**
 	 * @return {@link DataSource}
@@ -89,6 +97,19 @@ public class JPAFactoryBuilder {
 		return this;
 	}
 
+	/**
+	 * Utiliza um {@link PooledDataSource} sobre as conexões do
+	 * {@link java.sql.DriverManager}. O pool não é fechado junto com o
+	 * {@link EntityManagerFactory}, ver {@link #getDataSource()}.
+	 * 
+	 * @param maxSize Quantidade máxima de conexões.
+	 * @return A própria instância do deste builder.
+	 * @see #setDataSource(DataSource)
+	 */
+	public JPAFactoryBuilder setPooledDataSource(String url, String user, String password, int maxSize) {
+		return setDataSource(PooledDataSource.create(url, user, password).setMaxSize(maxSize));
+	}
+
 	/**
 	 * @see PersistenceUnitInfo#getPersistenceUnitName()
 	 */
@@ -288,6 +309,20 @@ public class JPAFactoryBuilder {
 		return this;
 	}
 
+	/**
+	 * Adiciona a propriedade ao builder com um valor que não é texto, ex: a
+	 * instância de um serviço do provedor.
+	 * 
+	 * @param key   Chave da propriedade.
+	 * @param value Valor da propriedade.
+	 * @return A própria instância do deste builder.
+	 * @see Properties#put(Object, Object)
+	 */
+	public JPAFactoryBuilder setProperty(String key, Object value) {
+		getProperties().put(key, value);
+		return this;
+	}
+
 	/**
 	 * Atribui null ao mapa de propriedades.
 	 * 
@@ -298,6 +333,93 @@ public class JPAFactoryBuilder {
 		return this;
 	}
 
+	/**
+	 * @see PersistenceUnitInfo#getSharedCacheMode()
+	 */
+	public SharedCacheMode getSharedCacheMode() {
+		return sharedCacheMode;
+	}
+
+	/**
+	 * Define quais entidades serão armazenadas no cache de segundo nível. Com
+	 * {@link SharedCacheMode#ENABLE_SELECTIVE} apenas as entidades anotadas com
+	 * {@link javax.persistence.Cacheable} ou configuradas pelo método
+	 * {@link #setEntityCache(Class, String, String)}.
+	 * 
+	 * @param sharedCacheMode {@link SharedCacheMode}
+	 * @return A própria instância do deste builder.
+	 * @see PersistenceUnitInfo#getSharedCacheMode()
+	 */
+	public JPAFactoryBuilder setSharedCacheMode(SharedCacheMode sharedCacheMode) {
+		this.sharedCacheMode = sharedCacheMode;
+		return this;
+	}
+
+	/**
+	 * Habilita ou desabilita o cache de segundo nível (Hibernate).
+	 * 
+	 * @return A própria instância do deste builder.
+	 */
+	public JPAFactoryBuilder setSecondLevelCache(boolean enabled) {
+		return setProperty(USE_SECOND_LEVEL_CACHE, Boolean.toString(enabled));
+	}
+
+	/**
+	 * Habilita ou desabilita o cache de consultas (Hibernate), usado pelas
+	 * consultas com a dica "org.hibernate.cacheable".
+	 * 
+	 * @return A própria instância do deste builder.
+	 */
+	public JPAFactoryBuilder setQueryCache(boolean enabled) {
+		return setProperty(USE_QUERY_CACHE, Boolean.toString(enabled));
+	}
+
+	/**
+	 * Provedor do cache de segundo nível (Hibernate), ex: "jcache" ou o nome de
+	 * uma implementação de org.hibernate.cache.spi.RegionFactory.
+	 * 
+	 * @return A própria instância do deste builder.
+	 * @see #setLocalCache(int, long)
+	 */
+	public JPAFactoryBuilder setRegionFactoryClassName(String regionFactoryClassName) {
+		return setProperty(REGION_FACTORY_CLASS, regionFactoryClassName);
+	}
+
+	/**
+	 * Habilita o cache de segundo nível com o provedor em memória
+	 * {@link LocalRegionFactory}. Quando o {@link SharedCacheMode} não for
+	 * definido será utilizado {@link SharedCacheMode#ENABLE_SELECTIVE}.
+	 * 
+	 * @param maxEntries Quantidade máxima de registros por região.
+	 * @param timeToLive Tempo de vida dos registros em milissegundos ou 0 para
+	 *                   não expirar.
+	 * @return A própria instância do deste builder.
+	 */
+	public JPAFactoryBuilder setLocalCache(int maxEntries, long timeToLive) {
+		if (sharedCacheMode == null) {
+			sharedCacheMode = SharedCacheMode.ENABLE_SELECTIVE;
+		}
+		return setSecondLevelCache(true) //
+				.setRegionFactoryClassName(LocalRegionFactory.class.getName()) //
+				.setProperty(LocalRegionFactory.MAX_ENTRIES, Integer.toString(maxEntries)) //
+				.setProperty(LocalRegionFactory.TIME_TO_LIVE, Long.toString(timeToLive));
+	}
+
+	/**
+	 * Armazena a entidade no cache de segundo nível (Hibernate) sem a necessidade
+	 * da anotação {@link javax.persistence.Cacheable}.
+	 * 
+	 * @param entityClass Classe da entidade (raiz da hierarquia).
+	 * @param usage       Estratégia de concorrência: "read-only",
+	 *                    "nonstrict-read-write", "read-write" ou "transactional".
+	 * @param region      Nome da região ou null para utilizar o nome da classe.
+	 * @return A própria instância do deste builder.
+	 */
+	public JPAFactoryBuilder setEntityCache(Class<?> entityClass, String usage, String region) {
+		return setProperty(CLASS_CACHE_PREFIX + entityClass.getName(),
+				ObjectUtils.isEmpty(region) ? usage : usage + "," + region);
+	}
+
 	/**
 	 * Cria um {@link EntityManagerFactory} conforme os atributos do builder.
 	 * 
@@ -330,6 +452,7 @@ public class JPAFactoryBuilder {
 			private ClassLoader classLoader = JPAFactoryBuilder.this.getClassLoader();
 			private String persistenceUnitName = JPAFactoryBuilder.this.getPersistenceUnitName();
 			private PersistenceUnitTransactionType transactionType = JPAFactoryBuilder.this.getTransactionType();
+			private SharedCacheMode sharedCacheMode = JPAFactoryBuilder.this.getSharedCacheMode();
 			private String persistenceProviderClassName = JPAFactoryBuilder.this.getPersistenceProviderClassName();
 			private List<String> managedClassNames = new ArrayList<String>(
 					JPAFactoryBuilder.this.getManagedClassNames(true));
@@ -386,7 +509,7 @@ public class JPAFactoryBuilder {
 
 			@Override
 			public SharedCacheMode getSharedCacheMode() {
-				return null;// sharedCacheMode;
+				return sharedCacheMode;
 			}
 
 			@Override
@@ -0,0 +1,218 @@
+package br.dev.juniorlatalisa.persistence;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceException;
+import javax.persistence.Query;
+
+/**
+ * Registro das consultas JPQL frequentes: a partir da quantidade mínima de
+ * execuções a consulta é promovida a consulta nomeada
+ * ({@link EntityManagerFactory#addNamedQuery(String, Query)}) e as execuções
+ * seguintes utilizam {@link EntityManager#createNamedQuery(String)}. As
+ * consultas registradas por {@link #register(String...)} são promovidas
+ * imediatamente.
+ * <p>
+ * O Hibernate já guarda o plano das JPQL analisadas no QueryPlanCache
+ * (hibernate.query.plan_cache_max_size), assim a consulta nomeada evita apenas
+ * a busca no cache de planos e a análise das consultas que excederem o seu
+ * tamanho. Os ganhos devem ser medidos (ex: {@link QueryMetrics}) antes da
+ * adoção.
+ * <p>
+ * Um mesmo registro pode ser compartilhado por vários
+ * {@link EntityManagerFactory} (ex: contextos do {@link JPAQueryMultiDataBase}),
+ * a consulta é adicionada a cada um deles na primeira utilização.
+ *
+ * @author Junior Latalisa
+ * @see JPAQuery#setNamedQueryRegistry(JPANamedQueryRegistry)
+ */
+public class JPANamedQueryRegistry {
+
+	private static final Logger LOGGER = Logger.getLogger("JPANamedQueryRegistry");
+
+	public static final String NAME_PREFIX = "latalisa.jpql.";
+
+	private static final AtomicInteger SEQUENCE = new AtomicInteger();
+
+	/**
+	 * @param threshold Quantidade de execuções para a promoção da consulta.
+	 * @param maxSize   Quantidade máxima de consultas acompanhadas, as demais são
+	 *                  executadas sem o registro ({@link #getUntracked()}) e o
+	 *                  limite é registrado no log na primeira ocorrência.
+	 */
+	public JPANamedQueryRegistry(int threshold, int maxSize) {
+		if ((threshold < 1) || (maxSize < 1)) {
+			throw new PersistenceException("Parâmetros do registro inválidos: " + threshold + ", " + maxSize);
+		}
+		this.threshold = threshold;
+		this.maxSize = maxSize;
+	}
+
+	private final int threshold;
+	private final int maxSize;
+
+	private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+	private final AtomicLong promotions = new AtomicLong();
+	private final AtomicLong namedQueryUses = new AtomicLong();
+	private final AtomicLong untracked = new AtomicLong();
+	private final AtomicBoolean full = new AtomicBoolean();
+
+	/**
+	 * Registra as consultas para promoção imediata.
+	 *
+	 * @return A própria instância.
+	 */
+	public JPANamedQueryRegistry register(String... queries) {
+		for (String jpql : queries) {
+			getEntry(jpql, true).promoted = true;
+		}
+		return this;
+	}
+
+	/**
+	 * Adiciona as consultas promovidas ao {@link EntityManagerFactory}, ex: logo
+	 * após a sua criação.
+	 *
+	 * @return A própria instância.
+	 */
+	public JPANamedQueryRegistry addNamedQueries(EntityManagerFactory factory) {
+		final EntityManager entityManager = factory.createEntityManager();
+		try {
+			entries.forEach((jpql, entry) -> {
+				if (entry.promoted) {
+					entry.addNamedQuery(entityManager, jpql);
+				}
+			});
+		} finally {
+			entityManager.close();
+		}
+		return this;
+	}
+
+	/**
+	 * Cria a consulta, utilizando a consulta nomeada quando a JPQL já foi
+	 * promovida.
+	 */
+	public Query createQuery(EntityManager entityManager, String jpql) {
+		final Entry entry = getEntry(jpql, false);
+		if (entry == null) {
+			return entityManager.createQuery(jpql);
+		}
+		if (!entry.promoted) {
+			if (entry.uses.incrementAndGet() < threshold) {
+				return entityManager.createQuery(jpql);
+			}
+			entry.promoted = true;
+		}
+		if (entry.isRegistered(entityManager.getEntityManagerFactory())) {
+			namedQueryUses.incrementAndGet();
+			return entityManager.createNamedQuery(entry.name);
+		}
+		return entry.addNamedQuery(entityManager, jpql);
+	}
+
+	private Entry getEntry(String jpql, boolean create) {
+		final Entry entry = entries.get(jpql);
+		if (entry != null) {
+			return entry;
+		}
+		if ((!create) && (entries.size() >= maxSize)) {
+			untracked.incrementAndGet();
+			if (full.compareAndSet(false, true)) {
+				LOGGER.warning(String.format("Limite de %d consultas acompanhadas atingido, as novas consultas não "
+						+ "serão promovidas", maxSize));
+			}
+			return null;
+		}
+		return entries.computeIfAbsent(jpql, key -> new Entry(NAME_PREFIX + SEQUENCE.incrementAndGet()));
+	}
+
+	/**
+	 * Nome da consulta nomeada da JPQL ou null caso não tenha sido promovida.
+	 */
+	public String getName(String jpql) {
+		final Entry entry = entries.get(jpql);
+		return ((entry == null) || (!entry.promoted)) ? null : entry.name;
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	public int getThreshold() {
+		return threshold;
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Quantidade de consultas adicionadas aos {@link EntityManagerFactory}.
+	 */
+	public long getPromotions() {
+		return promotions.get();
+	}
+
+	/**
+	 * Quantidade de execuções que utilizaram a consulta nomeada no lugar da JPQL.
+	 * Não corresponde a análises evitadas, já evitadas pelo QueryPlanCache do
+	 * Hibernate enquanto o plano estiver no cache.
+	 */
+	public long getNamedQueryUses() {
+		return namedQueryUses.get();
+	}
+
+	/**
+	 * Quantidade de execuções de consultas não acompanhadas por exceder
+	 * {@link #getMaxSize()}.
+	 */
+	public long getUntracked() {
+		return untracked.get();
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"JPANamedQueryRegistry [size=%d, threshold=%d, promotions=%d, namedQueryUses=%d, untracked=%d]",
+				size(), threshold, getPromotions(), getNamedQueryUses(), getUntracked());
+	}
+
+	private final class Entry {
+
+		private Entry(String name) {
+			this.name = name;
+		}
+
+		private final String name;
+		private final AtomicInteger uses = new AtomicInteger();
+		private final Map<EntityManagerFactory, Boolean> factories = Collections
+				.synchronizedMap(new WeakHashMap<>());
+		private volatile boolean promoted = false;
+
+		private boolean isRegistered(EntityManagerFactory factory) {
+			return factories.containsKey(factory);
+		}
+
+		private Query addNamedQuery(EntityManager entityManager, String jpql) {
+			final EntityManagerFactory factory = entityManager.getEntityManagerFactory();
+			final Query query = entityManager.createQuery(jpql);
+			synchronized (factories) {
+				if (factories.putIfAbsent(factory, Boolean.TRUE) == null) {
+					factory.addNamedQuery(name, query);
+					promotions.incrementAndGet();
+				}
+			}
+			return query;
+		}
+	}
+}
@@ -0,0 +1,304 @@
+package br.dev.juniorlatalisa.persistence;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceException;
+
+import org.hibernate.annotations.QueryHints;
+
+import br.dev.juniorlatalisa.model.PrimaryKeyId;
+import br.dev.juniorlatalisa.utils.ThreadUtils;
+
+/**
+ * Leitura paralela de todos os registros de uma entidade: a faixa de ids
+ * (min/max) é dividida em blocos e cada bloco é lido em um
+ * {@link EntityManager} próprio por um pool limitado de threads. O consumidor é
+ * chamado concorrentemente (uma vez por bloco) e, em caso de falha da leitura,
+ * o bloco é lido novamente até o limite de tentativas. A falha do consumidor
+ * não é repetida, evitando entregar o mesmo bloco duas vezes, e a falha de
+ * qualquer bloco interrompe a distribuição dos blocos restantes.
+ *
+ * <pre class="prettyprint linenums">
+ * <code class="language-java"
+ * >JPAParallelScan&lt;Cliente&gt; scan = query.parallelScan(Cliente.class)
+ *      .setChunkSize(5000)
+ *      .setParallelism(8)
+ *      .execute(clientes -&gt; indexar(clientes));
+ * log.info(scan.toString());</code>
+ * </pre>
+ *
+ * @author Junior Latalisa
+ * @param <T> Tipo da entidade.
+ * @see JPAQuery#parallelScan(Class)
+ */
+public class JPAParallelScan<T extends PrimaryKeyId<Long>> {
+
+	private static final Logger LOGGER = Logger.getLogger("JPAParallelScan");
+
+	public JPAParallelScan(EntityManagerFactory factory, Class<T> entityClass) {
+		this(factory::createEntityManager, entityClass);
+	}
+
+	/**
+	 * @param entityManagers Cria os {@link EntityManager} de cada bloco (fechados
+	 *                       após a leitura).
+	 */
+	public JPAParallelScan(Supplier<EntityManager> entityManagers, Class<T> entityClass) {
+		this.entityManagers = entityManagers;
+		this.entityClass = entityClass;
+	}
+
+	private final Supplier<EntityManager> entityManagers;
+	private final Class<T> entityClass;
+
+	private String idAttribute = "id";
+	private long chunkSize = 1000;
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+	private int maxRetries = 2;
+
+	private final AtomicLong chunks = new AtomicLong();
+	private final AtomicLong completedChunks = new AtomicLong();
+	private final AtomicLong failedChunks = new AtomicLong();
+	private final AtomicLong retries = new AtomicLong();
+	private final AtomicLong entities = new AtomicLong();
+	private volatile long startTime = 0;
+	private volatile long endTime = 0;
+
+	/**
+	 * Atributo do id, o padrão é "id" ({@link PrimaryKeyId#getId()}).
+	 */
+	public JPAParallelScan<T> setIdAttribute(String idAttribute) {
+		this.idAttribute = idAttribute;
+		return this;
+	}
+
+	/**
+	 * Tamanho da faixa de ids de cada bloco.
+	 */
+	public JPAParallelScan<T> setChunkSize(long chunkSize) {
+		if (chunkSize < 1) {
+			throw new PersistenceException("Tamanho do bloco inválido: " + chunkSize);
+		}
+		this.chunkSize = chunkSize;
+		return this;
+	}
+
+	/**
+	 * Quantidade de threads (e de conexões simultâneas).
+	 */
+	public JPAParallelScan<T> setParallelism(int parallelism) {
+		if (parallelism < 1) {
+			throw new PersistenceException("Paralelismo inválido: " + parallelism);
+		}
+		this.parallelism = parallelism;
+		return this;
+	}
+
+	/**
+	 * Quantidade de novas tentativas para cada bloco com falha.
+	 */
+	public JPAParallelScan<T> setMaxRetries(int maxRetries) {
+		this.maxRetries = Math.max(0, maxRetries);
+		return this;
+	}
+
+	/**
+	 * Executa a leitura e aguarda a conclusão de todos os blocos. As estatísticas
+	 * da execução anterior são descartadas e cada thread obtém o próximo bloco ao
+	 * concluir o anterior, assim apenas parallelism blocos são mantidos em
+	 * memória. Após a primeira falha nenhum novo bloco é iniciado.
+	 *
+	 * @param consumer Chamado concorrentemente com as entidades de cada bloco.
+	 * @return A própria instância, com as estatísticas da execução.
+	 * @throws PersistenceException Caso algum bloco falhe após todas as
+	 *                              tentativas.
+	 */
+	public JPAParallelScan<T> execute(Consumer<List<T>> consumer) {
+		chunks.set(0);
+		completedChunks.set(0);
+		failedChunks.set(0);
+		retries.set(0);
+		entities.set(0);
+		startTime = System.nanoTime();
+		endTime = 0;
+		try {
+			final Long[] range = findRange();
+			if (range[0] == null) {
+				return this;
+			}
+			final long min = range[0];
+			final long max = range[1];
+			final long total = Long.divideUnsigned(max - min, chunkSize) + 1;
+			chunks.set(total);
+			final AtomicLong cursor = new AtomicLong();
+			final AtomicBoolean failed = new AtomicBoolean();
+			final int workers = (int) Math.min(parallelism, total);
+			final ExecutorService executor = Executors.newFixedThreadPool(workers,
+					ThreadUtils.createThreadFactory("JPAParallelScan-" + entityClass.getSimpleName(),
+							Thread.NORM_PRIORITY));
+			final List<Future<?>> futures = new ArrayList<>();
+			try {
+				for (int i = 0; i < workers; i++) {
+					futures.add(executor.submit(() -> {
+						for (long chunk; !failed.get() && ((chunk = cursor.getAndIncrement()) < total);) {
+							final long first = min + chunk * chunkSize;
+							final long last = (Long.compareUnsigned(max - first, chunkSize - 1) <= 0) ? max
+									: first + chunkSize - 1;
+							try {
+								scan(first, last, consumer);
+							} catch (RuntimeException e) {
+								failed.set(true);
+								throw e;
+							}
+						}
+					}));
+				}
+				PersistenceException falha = null;
+				for (Future<?> future : futures) {
+					try {
+						future.get();
+					} catch (ExecutionException e) {
+						if (falha == null) {
+							falha = new PersistenceException("Falha na leitura paralela de "
+									+ entityClass.getSimpleName(), e.getCause());
+						} else {
+							falha.addSuppressed(e.getCause());
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new PersistenceException(e);
+					}
+				}
+				if (falha != null) {
+					throw falha;
+				}
+			} finally {
+				failed.set(true);
+				executor.shutdownNow();
+			}
+			return this;
+		} finally {
+			endTime = System.nanoTime();
+		}
+	}
+
+	protected Long[] findRange() {
+		final EntityManager entityManager = entityManagers.get();
+		try {
+			final Object[] range = (Object[]) entityManager
+					.createQuery(String.format("select min(e.%s), max(e.%s) from %s e", idAttribute, idAttribute,
+							JPAQuery.getEntityName(entityClass)))
+					.getSingleResult();
+			return new Long[] { (Long) range[0], (Long) range[1] };
+		} finally {
+			entityManager.close();
+		}
+	}
+
+	protected void scan(long first, long last, Consumer<List<T>> consumer) {
+		final String jpql = String.format("select e from %s e where e.%s between :first and :last order by e.%s",
+				JPAQuery.getEntityName(entityClass), idAttribute, idAttribute);
+		for (int attempt = 0;; attempt++) {
+			final EntityManager entityManager = entityManagers.get();
+			try {
+				final List<T> result;
+				try {
+					result = entityManager.createQuery(jpql, entityClass) //
+							.setParameter("first", first) //
+							.setParameter("last", last) //
+							.setHint(QueryHints.READ_ONLY, true) //
+							.getResultList();
+				} catch (RuntimeException e) {
+					if (attempt >= maxRetries) {
+						failedChunks.incrementAndGet();
+						throw e;
+					}
+					retries.incrementAndGet();
+					LOGGER.log(Level.WARNING, String.format("Nova tentativa (%d) do bloco %d-%d de %s", attempt + 1,
+							first, last, entityClass.getSimpleName()), e);
+					continue;
+				}
+				if (!result.isEmpty()) {
+					try {
+						consumer.accept(result);
+					} catch (RuntimeException e) {
+						failedChunks.incrementAndGet();
+						throw e;
+					}
+				}
+				entities.addAndGet(result.size());
+				completedChunks.incrementAndGet();
+				return;
+			} finally {
+				entityManager.close();
+			}
+		}
+	}
+
+	public Class<T> getEntityClass() {
+		return entityClass;
+	}
+
+	public long getChunks() {
+		return chunks.get();
+	}
+
+	public long getCompletedChunks() {
+		return completedChunks.get();
+	}
+
+	public long getFailedChunks() {
+		return failedChunks.get();
+	}
+
+	public long getRetries() {
+		return retries.get();
+	}
+
+	public long getEntities() {
+		return entities.get();
+	}
+
+	/**
+	 * Percentual (0 a 1) dos blocos concluídos.
+	 */
+	public double getProgress() {
+		final long total = getChunks();
+		return (total == 0) ? ((startTime == 0) ? 0 : 1) : (double) getCompletedChunks() / total;
+	}
+
+	public Duration getElapsed() {
+		return (startTime == 0) ? Duration.ZERO
+				: Duration.ofNanos(((endTime == 0) ? System.nanoTime() : endTime) - startTime);
+	}
+
+	/**
+	 * Entidades lidas por segundo.
+	 */
+	public double getThroughput() {
+		final long nanos = getElapsed().toNanos();
+		return (nanos == 0) ? 0 : getEntities() * 1e9 / nanos;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"JPAParallelScan [entity=%s, chunks=%d, completed=%d, failed=%d, retries=%d, entities=%d, elapsed=%s, throughput=%.1f/s]",
+				entityClass.getSimpleName(), getChunks(), getCompletedChunks(), getFailedChunks(), getRetries(),
+				getEntities(), getElapsed(), getThroughput());
+	}
+}
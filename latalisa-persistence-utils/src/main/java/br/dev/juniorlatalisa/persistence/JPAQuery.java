@@ -1,21 +1,69 @@
 package br.dev.juniorlatalisa.persistence;
 
 import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+import java.util.regex.Pattern;
 
+import javax.persistence.Cache;
+import javax.persistence.Entity;
 import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
 import javax.persistence.EntityNotFoundException;
+import javax.persistence.LockModeType;
 import javax.persistence.PersistenceException;
 import javax.persistence.Query;
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.ManagedType;
+import javax.persistence.metamodel.PluralAttribute;
+import javax.persistence.metamodel.SingularAttribute;
+import javax.persistence.metamodel.Type;
+import javax.transaction.Synchronization;
 
+import org.hibernate.FlushMode;
+import org.hibernate.ScrollMode;
+import org.hibernate.Session;
+import org.hibernate.annotations.QueryHints;
+import org.hibernate.engine.spi.EntityEntry;
+import org.hibernate.engine.spi.PersistenceContext;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.query.NativeQuery;
+
+import br.dev.juniorlatalisa.model.PrimaryKeyId;
 import br.dev.juniorlatalisa.utils.ObjectUtils;
+import br.dev.juniorlatalisa.utils.ReflectUtils;
 
 /**
  * @author Junior Latalisa
  */
 public abstract class JPAQuery implements QueryFacade {
 
+	/**
+	 * Constante para sinalizar que o contexto de persistência não deve ser limpo
+	 * durante a leitura de um cursor.
+	 */
+	public static final int CLEAR_INTERVAL_NONE = -1;
+
 	protected abstract EntityManager getEntityManager();
 
 	/**
@@ -26,11 +74,22 @@ public abstract class JPAQuery implements QueryFacade {
 	 * @return
 	 * @see Query#getSingleResult()
 	 */
-	@SuppressWarnings("unchecked")
 	public <T> T single(QueryStrategy queryStrategy, String queryValue, Map<String, Object> params) {
-		Query query = createQuery(queryStrategy, queryValue, params);
-		setParams(queryStrategy, query, params, START_RESULT_NONE, MAX_RESULT_NONE);
-		return (T) query.getSingleResult();
+		return single(queryStrategy, queryValue, params, null);
+	}
+
+	/**
+	 * @param hints Hints da consulta ou null.
+	 * @see #single(QueryStrategy, String, Map)
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T single(QueryStrategy queryStrategy, String queryValue, Map<String, Object> params,
+			Map<String, Object> hints) {
+		return measure(queryValue, params, () -> {
+			Query query = createQuery(queryStrategy, queryValue, params);
+			setParams(queryStrategy, query, params, START_RESULT_NONE, MAX_RESULT_NONE, hints);
+			return (T) query.getSingleResult();
+		}, result -> (result == null) ? 0 : 1);
 	}
 
 	/**
@@ -41,9 +100,22 @@ public abstract class JPAQuery implements QueryFacade {
 	 * @see Query#executeUpdate()
 	 */
 	public int execute(QueryStrategy queryStrategy, String queryValue, Map<String, Object> params) {
-		Query query = createQuery(queryStrategy, queryValue, params);
-		setParams(queryStrategy, query, params);
-		return query.executeUpdate();
+		return execute(queryStrategy, queryValue, params, null);
+	}
+
+	/**
+	 * @param hints Hints do comando (ex: {@link QueryHints#TIMEOUT_JPA}) ou null.
+	 * @see #execute(QueryStrategy, String, Map)
+	 */
+	public int execute(QueryStrategy queryStrategy, String queryValue, Map<String, Object> params,
+			Map<String, Object> hints) {
+		final int retorno = measure(queryValue, params, () -> {
+			Query query = createQuery(queryStrategy, queryValue, params);
+			setParams(queryStrategy, query, params, START_RESULT_NONE, MAX_RESULT_NONE, hints);
+			return query.executeUpdate();
+		}, Integer::longValue);
+		invalidateQueryCache(null);
+		return retorno;
 	}
 
 	@Override
@@ -61,17 +133,579 @@ public abstract class JPAQuery implements QueryFacade {
 	 * @return
 	 * @see Query#getResultList()
 	 */
-	@SuppressWarnings("unchecked")
 	public <T> List<T> list(QueryStrategy queryStrategy, String queryValue, Map<String, Object> params, int startResult,
 			int maxResults) {
+		return list(queryStrategy, queryValue, params, startResult, maxResults, null);
+	}
+
+	/**
+	 * As consultas com {@link #HINT_LOCK_MODE} não utilizam o cache, assim o
+	 * bloqueio é sempre obtido. Os demais hints (ex: timeout,
+	 * {@link #readOnlyHints(boolean)} e {@link #HINT_DETACH}), inclusive os
+	 * padrão, fazem parte da chave do cache. Apenas os resultados sem entidades
+	 * gerenciadas (valores, projeções ou entidades desanexadas pelo
+	 * {@link #HINT_DETACH}) são armazenados, as instâncias desanexadas são
+	 * compartilhadas entre os acertos do cache e devem ser tratadas como somente
+	 * leitura.
+	 * 
+	 * @param hints Hints da consulta (ex: {@link #readOnlyHints(boolean)}) ou
+	 *              null.
+	 * @see #list(QueryStrategy, String, Map, int, int)
+	 * @see Query#setHint(String, Object)
+	 */
+	public <T> List<T> list(QueryStrategy queryStrategy, String queryValue, Map<String, Object> params, int startResult,
+			int maxResults, Map<String, Object> hints) {
+		final JPAQueryCache queryCache = getQueryCache();
+		if ((queryCache == null) || (getHint(hints, HINT_LOCK_MODE) != null)) {
+			return getResultList(queryStrategy, queryValue, params, startResult, maxResults, hints);
+		}
+		final Map<String, Object> keyHints = new HashMap<>(defaultHints);
+		if (hints != null) {
+			keyHints.putAll(hints);
+		}
+		final JPAQueryCache.Key key = JPAQueryCache.createKey(getQueryCacheRegion(), queryStrategy, queryValue,
+				params, startResult, maxResults, keyHints);
+		List<T> result = queryCache.get(key);
+		if (result == null) {
+			final long generation = queryCache.getGeneration();
+			result = getResultList(queryStrategy, queryValue, params, startResult, maxResults, hints);
+			if (isShareable(result)) {
+				final Set<Class<?>> entities = queryCache.getEntities(queryStrategy, queryValue,
+						() -> getQueryEntities(queryStrategy, queryValue));
+				result = queryCache.put(key, result, entities, generation);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Indica se o resultado pode ser compartilhado pelo cache de consultas, ou
+	 * seja, não contém entidades (ou proxies) gerenciadas pelo contexto de
+	 * persistência.
+	 */
+	private boolean isShareable(List<?> result) {
+		final PersistenceContext context = getEntityManager().unwrap(SessionImplementor.class)
+				.getPersistenceContext();
+		for (Object row : result) {
+			for (Object value : (row instanceof Object[]) ? (Object[]) row : new Object[] { row }) {
+				if ((value != null) && ((context.getEntry(value) != null) || context.containsProxy(value))) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Executa a consulta sem utilizar o cache.
+	 * 
+	 * @see #list(QueryStrategy, String, Map, int, int, Map)
+	 */
+	@SuppressWarnings("unchecked")
+	protected <T> List<T> getResultList(QueryStrategy queryStrategy, String queryValue, Map<String, Object> params,
+			int startResult, int maxResults, Map<String, Object> hints) {
+		return measure(queryValue, params, () -> {
+			Query query = createQuery(queryStrategy, queryValue, params);
+			setParams(queryStrategy, query, params, startResult, maxResults, hints);
+//			getEntityManager().clear();
+			final Set<Object> managed = isDetach(hints) ? getManagedEntities() : null;
+			final List<T> retorno = query.getResultList();
+			if (managed != null) {
+				retorno.forEach(result -> detachResult(result, managed));
+			}
+			return retorno;
+		}, List::size);
+	}
+
+	/**
+	 * Executa o comando registrando a consulta no {@link #getQueryMetrics()},
+	 * quando habilitado.
+	 */
+	protected <T> T measure(String queryValue, Map<String, Object> params, Supplier<T> command,
+			ToLongFunction<T> rows) {
+		final QueryMetrics metrics = getQueryMetrics();
+		return (metrics == null) ? command.get()
+				: metrics.measure(getQueryCacheRegion(), queryValue, params, command, rows);
+	}
+
+	/**
+	 * Hint (do {@link JPAQuery}, não repassado à consulta) para retornar as
+	 * entidades desanexadas do contexto de persistência. As entidades já
+	 * gerenciadas antes da consulta (ex: alteradas na transação) permanecem
+	 * anexadas.
+	 */
+	public static final String HINT_DETACH = "latalisa.detach";
+
+	/**
+	 * Hint (do {@link JPAQuery}) com o {@link LockModeType} da consulta.
+	 * 
+	 * @see Query#setLockMode(LockModeType)
+	 */
+	public static final String HINT_LOCK_MODE = "latalisa.lockMode";
+
+	/**
+	 * Hints das consultas somente leitura: as entidades carregadas não guardam a
+	 * cópia do estado original nem são verificadas (dirty checking) no flush, e o
+	 * contexto de persistência não é sincronizado antes da consulta.
+	 * 
+	 * @param detach Retorna as entidades desanexadas do contexto de persistência
+	 *               ({@link #HINT_DETACH}).
+	 * @see QueryHints#READ_ONLY
+	 * @see QueryHints#FLUSH_MODE
+	 */
+	public static Map<String, Object> readOnlyHints(boolean detach) {
+		final Map<String, Object> retorno = new HashMap<>();
+		retorno.put(QueryHints.READ_ONLY, Boolean.TRUE);
+		retorno.put(QueryHints.FLUSH_MODE, FlushMode.MANUAL);
+		if (detach) {
+			retorno.put(HINT_DETACH, Boolean.TRUE);
+		}
+		return retorno;
+	}
+
+	/**
+	 * Hint da consulta ou, quando não informado, o hint padrão desta instância.
+	 */
+	protected Object getHint(Map<String, Object> hints, String name) {
+		return ((hints != null) && hints.containsKey(name)) ? hints.get(name) : defaultHints.get(name);
+	}
+
+	private boolean isDetach(Map<String, Object> hints) {
+		return Boolean.TRUE.equals(getHint(hints, HINT_DETACH));
+	}
+
+	/**
+	 * Indica se a consulta utiliza bloqueio pessimista ({@link #HINT_LOCK_MODE}),
+	 * que exige uma transação ativa.
+	 */
+	protected boolean isPessimisticLock(Map<String, Object> hints) {
+		final Object lockMode = getHint(hints, HINT_LOCK_MODE);
+		return (lockMode instanceof LockModeType) && ((LockModeType) lockMode).name().startsWith("PESSIMISTIC_");
+	}
+
+	/**
+	 * Entidades gerenciadas pelo contexto de persistência antes da consulta,
+	 * que não são desanexadas pelo {@link #HINT_DETACH}.
+	 */
+	private Set<Object> getManagedEntities() {
+		final PersistenceContext context = getEntityManager().unwrap(SessionImplementor.class)
+				.getPersistenceContext();
+		if (context.getNumberOfManagedEntities() == 0) {
+			return Collections.emptySet();
+		}
+		final Set<Object> retorno = Collections.newSetFromMap(new IdentityHashMap<>());
+		for (Map.Entry<Object, EntityEntry> entry : context.reentrantSafeEntityEntries()) {
+			retorno.add(entry.getKey());
+		}
+		return retorno;
+	}
+
+	private void detachResult(Object result, Set<Object> managed) {
+		if ((result != null) && (!(result instanceof Object[])) && (!managed.contains(result))
+				&& result.getClass().isAnnotationPresent(Entity.class)) {
+			getEntityManager().detach(result);
+		}
+	}
+
+	private final Map<String, Object> defaultHints = new ConcurrentHashMap<>();
+
+	/**
+	 * Hint aplicado a todas as consultas desta instância, substituído pelo hint de
+	 * mesmo nome da consulta.
+	 * 
+	 * @param value Valor do hint ou null para removê-lo.
+	 * @return A própria instância.
+	 * @see Query#setHint(String, Object)
+	 */
+	public JPAQuery setDefaultHint(String name, Object value) {
+		if (value == null) {
+			defaultHints.remove(name);
+		} else {
+			defaultHints.put(name, value);
+		}
+		return this;
+	}
+
+	/**
+	 * Substitui os hints aplicados a todas as consultas desta instância.
+	 * 
+	 * @see #setDefaultHint(String, Object)
+	 */
+	public JPAQuery setDefaultHints(Map<String, Object> hints) {
+		final Map<String, Object> novos = ObjectUtils.isEmpty(hints) ? Collections.emptyMap() : new HashMap<>(hints);
+		defaultHints.clear();
+		novos.forEach(this::setDefaultHint);
+		return this;
+	}
+
+	public Map<String, Object> getDefaultHints() {
+		return Collections.unmodifiableMap(defaultHints);
+	}
+
+	/**
+	 * Quantidade padrão de registros buscados por vez pelo driver JDBC.
+	 * 
+	 * @param fetchSize {@link #FETCH_SIZE_NONE} para o padrão do driver JDBC.
+	 * @see QueryHints#FETCH_SIZE
+	 */
+	public JPAQuery setDefaultFetchSize(int fetchSize) {
+		return setDefaultHint(QueryHints.FETCH_SIZE, (fetchSize == FETCH_SIZE_NONE) ? null : fetchSize);
+	}
+
+	/**
+	 * Tempo máximo padrão de execução das consultas.
+	 * 
+	 * @param timeout null para o padrão do driver JDBC (sem limite).
+	 * @see QueryHints#TIMEOUT_JPA
+	 */
+	public JPAQuery setDefaultTimeout(Duration timeout) {
+		return setDefaultHint(QueryHints.TIMEOUT_JPA, toTimeoutHint(timeout));
+	}
+
+	/**
+	 * Valor do hint {@link QueryHints#TIMEOUT_JPA} (milissegundos).
+	 */
+	public static Integer toTimeoutHint(Duration timeout) {
+		return (timeout == null) ? null : (int) Math.min(Integer.MAX_VALUE, timeout.toMillis());
+	}
+
+	private JPAQueryCache queryCache = null;
+
+	/**
+	 * Habilita (ou desabilita com null) o cache do resultado do método
+	 * {@link #list(QueryStrategy, String, Map, int, int)}.
+	 * 
+	 * @return A própria instância.
+	 * @see JPAQueryCache
+	 */
+	public JPAQuery setQueryCache(JPAQueryCache queryCache) {
+		this.queryCache = queryCache;
+		return this;
+	}
+
+	public JPAQueryCache getQueryCache() {
+		return queryCache;
+	}
+
+	private QueryMetrics queryMetrics = null;
+
+	/**
+	 * Habilita (ou desabilita com null) as métricas das consultas.
+	 * 
+	 * @return A própria instância.
+	 * @see QueryMetrics
+	 */
+	public JPAQuery setQueryMetrics(QueryMetrics queryMetrics) {
+		this.queryMetrics = queryMetrics;
+		return this;
+	}
+
+	public QueryMetrics getQueryMetrics() {
+		return queryMetrics;
+	}
+
+	private JPANamedQueryRegistry namedQueryRegistry = null;
+
+	/**
+	 * Habilita (ou desabilita com null) a promoção das consultas
+	 * {@link QueryStrategy#DEFAULT} frequentes a consultas nomeadas.
+	 * 
+	 * @return A própria instância.
+	 * @see JPANamedQueryRegistry
+	 */
+	public JPAQuery setNamedQueryRegistry(JPANamedQueryRegistry namedQueryRegistry) {
+		this.namedQueryRegistry = namedQueryRegistry;
+		return this;
+	}
+
+	public JPANamedQueryRegistry getNamedQueryRegistry() {
+		return namedQueryRegistry;
+	}
+
+	/**
+	 * Executa a tarefa de forma assíncrona ({@link QueryFuture#getDefaultExecutor()})
+	 * com um {@link EntityManager} próprio, criado pelo mesmo
+	 * {@link javax.persistence.EntityManagerFactory} e fechado ao final. O
+	 * cancelamento do {@link QueryFuture} cancela a consulta em execução.
+	 * 
+	 * @param task Recebe a fachada do {@link EntityManager} da tarefa.
+	 */
+	public <T> QueryFuture<T> async(Function<JPAQuery, T> task) {
+		final EntityManagerFactory factory = getEntityManager().getEntityManagerFactory();
+		return QueryFuture.supplyAsync(future -> {
+			final EntityManager entityManager = factory.createEntityManager();
+			try {
+				future.onCancel(() -> entityManager.unwrap(Session.class).cancelQuery());
+				return task.apply(createAsyncFacade(entityManager));
+			} finally {
+				entityManager.close();
+			}
+		}, QueryFuture.getDefaultExecutor());
+	}
+
+	/**
+	 * Executa de forma assíncrona a tarefa que apenas lê, o padrão é
+	 * {@link #async(Function)}.
+	 * 
+	 * @param hints Hints das consultas da tarefa (ex: {@link #HINT_LOCK_MODE})
+	 *              ou null.
+	 * @param task  Recebe a fachada do {@link EntityManager} da tarefa.
+	 */
+	public <T> QueryFuture<T> asyncReadOnly(Map<String, Object> hints, Function<JPAQuery, T> task) {
+		return async(task);
+	}
+
+	/**
+	 * Fachada utilizada pelas tarefas assíncronas, com as mesmas configurações
+	 * desta instância.
+	 */
+	protected JPAQuery createAsyncFacade(EntityManager entityManager) {
+		return JPAQuery.create(entityManager) //
+				.setQueryCache(getQueryCache()) //
+				.setQueryMetrics(getQueryMetrics()) //
+				.setNamedQueryRegistry(getNamedQueryRegistry()) //
+				.setDefaultHints(getDefaultHints());
+	}
+
+	/**
+	 * Região do cache de consultas, utilizada para separar os resultados de bancos
+	 * de dados distintos que compartilham o mesmo cache.
+	 */
+	protected String getQueryCacheRegion() {
+		return null;
+	}
+
+	/**
+	 * Classes das entidades mencionadas na consulta JPQL e das entidades
+	 * alcançáveis a partir delas pelas associações (inclusive dos embeddables),
+	 * em qualquer nível.
+	 * 
+	 * @return As classes ou null quando não for possível identificá-las (consultas
+	 *         nativas).
+	 */
+	protected Set<Class<?>> getQueryEntities(QueryStrategy queryStrategy, String queryValue) {
+		final String jpql;
+		switch (queryStrategy) {
+			case DEFAULT:
+				jpql = queryValue;
+				break;
+			case NAMED:
+				final org.hibernate.query.Query<?> query = getEntityManager().createNamedQuery(queryValue)
+						.unwrap(org.hibernate.query.Query.class);
+				if (query instanceof NativeQuery) {
+					return null;
+				}
+				jpql = query.getQueryString();
+				break;
+			default:
+				return null;
+		}
+		final Deque<ManagedType<?>> pendentes = new ArrayDeque<>();
+		for (EntityType<?> entity : getEntityManager().getMetamodel().getEntities()) {
+			if (Pattern.compile("\\b" + Pattern.quote(entity.getName()) + "\\b").matcher(jpql).find()) {
+				pendentes.add(entity);
+			}
+		}
+		final Set<ManagedType<?>> visitados = new HashSet<>();
+		final Set<Class<?>> retorno = new HashSet<>();
+		while (!pendentes.isEmpty()) {
+			final ManagedType<?> managedType = pendentes.poll();
+			if (!visitados.add(managedType)) {
+				continue;
+			}
+			if (managedType instanceof EntityType) {
+				retorno.add(managedType.getJavaType());
+			}
+			for (Attribute<?, ?> attribute : managedType.getAttributes()) {
+				final Type<?> type = (attribute instanceof PluralAttribute)
+						? ((PluralAttribute<?, ?, ?>) attribute).getElementType()
+						: ((SingularAttribute<?, ?>) attribute).getType();
+				if (type instanceof ManagedType) {
+					pendentes.add((ManagedType<?>) type);
+				}
+			}
+		}
+		return retorno;
+	}
+
+	/**
+	 * Invalida o cache de consultas para a classe da entidade (ou todo o cache
+	 * quando null). Com uma transação ativa a invalidação é repetida ao final
+	 * (commit ou rollback) da transação, descartando os resultados que outras
+	 * transações leram e armazenaram antes do commit.
+	 */
+	protected void invalidateQueryCache(Class<?> entityClass) {
+		final JPAQueryCache queryCache = getQueryCache();
+		if (queryCache != null) {
+			invalidate(queryCache, entityClass);
+			final SessionImplementor session = getEntityManager().unwrap(SessionImplementor.class);
+			if (session.isTransactionInProgress()) {
+				pendingInvalidations.computeIfAbsent(session, key -> {
+					final Set<Class<?>> entityClasses = Collections.synchronizedSet(new HashSet<>());
+					session.getTransactionCoordinator().getLocalSynchronizations()
+							.registerSynchronization(new Synchronization() {
+
+								@Override
+								public void beforeCompletion() {
+								}
+
+								@Override
+								public void afterCompletion(int status) {
+									pendingInvalidations.remove(session);
+									synchronized (entityClasses) {
+										entityClasses.forEach(entityClass -> invalidate(queryCache, entityClass));
+									}
+								}
+							});
+					return entityClasses;
+				}).add(entityClass);
+			}
+		}
+	}
+
+	private static void invalidate(JPAQueryCache queryCache, Class<?> entityClass) {
+		if (entityClass == null) {
+			queryCache.invalidateAll();
+		} else {
+			queryCache.invalidate(entityClass);
+		}
+	}
+
+	/**
+	 * Classes invalidadas na transação ativa de cada sessão.
+	 */
+	private final Map<SessionImplementor, Set<Class<?>>> pendingInvalidations = Collections
+			.synchronizedMap(new WeakHashMap<>());
+
+	/**
+	 * Cursor para a leitura sob demanda do resultado. Os registros são buscados em
+	 * blocos de tamanho fetchSize e o contexto de persistência é limpo a cada
+	 * clearInterval registros, portanto as entidades já lidas ficam desanexadas.
+	 * Os recursos são liberados quando o cursor é percorrido até o fim ou fechado.
+	 * 
+	 * @param <T>
+	 * @param queryStrategy
+	 * @param queryValue
+	 * @param params
+	 * @param startResult
+	 * @param maxResults
+	 * @param fetchSize     {@link #FETCH_SIZE_NONE} para o padrão do driver JDBC.
+	 * @param clearInterval {@link #CLEAR_INTERVAL_NONE} para não limpar o
+	 *                      contexto de persistência.
+	 * @return
+	 * @see org.hibernate.query.Query#scroll(ScrollMode)
+	 */
+	public <T> CloseableIterator<T> iterator(QueryStrategy queryStrategy, String queryValue,
+			Map<String, Object> params, int startResult, int maxResults, int fetchSize, int clearInterval) {
+		return iterator(queryStrategy, queryValue, params, startResult, maxResults, fetchSize, clearInterval, null);
+	}
+
+	/**
+	 * @param hints Hints da consulta (ex: {@link #readOnlyHints(boolean)}) ou
+	 *              null.
+	 * @see #iterator(QueryStrategy, String, Map, int, int, int, int)
+	 */
+	public <T> CloseableIterator<T> iterator(QueryStrategy queryStrategy, String queryValue,
+			Map<String, Object> params, int startResult, int maxResults, int fetchSize, int clearInterval,
+			Map<String, Object> hints) {
+		final EntityManager entityManager = getEntityManager();
 		Query query = createQuery(queryStrategy, queryValue, params);
-		setParams(queryStrategy, query, params, startResult, maxResults);
-//		getEntityManager().clear();
-		return query.getResultList();
+		setParams(queryStrategy, query, params, startResult, maxResults, hints);
+		final org.hibernate.query.Query<?> hibernateQuery = query.unwrap(org.hibernate.query.Query.class);
+		if (fetchSize != FETCH_SIZE_NONE) {
+			hibernateQuery.setFetchSize(fetchSize);
+		}
+		return new JPAQueryIterator<>(hibernateQuery.scroll(ScrollMode.FORWARD_ONLY), entityManager, clearInterval);
+	}
+
+	/**
+	 * Nome do parâmetro com a última chave lida na paginação por chave.
+	 */
+	public static final String KEYSET_PARAM = "keysetLastKey";
+
+	/**
+	 * Paginação por chave (keyset/seek): a consulta (JPQL) é reescrita para
+	 * "where (...) and alias.keyAttribute &gt; :keysetLastKey order by
+	 * alias.keyAttribute", evitando o custo crescente do OFFSET em páginas
+	 * distantes. O atributo deve ser único e a ordenação original da consulta é
+	 * descartada.
+	 * 
+	 * @param <T>
+	 * @param queryValue   Consulta JPQL sem "group by".
+	 * @param params
+	 * @param keyAttribute Ex: "id" ({@link br.dev.juniorlatalisa.model.PrimaryKeyId#getId()})
+	 *                     ou {@link br.dev.juniorlatalisa.model.Codificavel#FIELD_NAME_CODIGO}
+	 * @param lastKey      Chave do último registro da página anterior ou null para
+	 *                     a primeira página.
+	 * @param maxResults   Tamanho da página.
+	 * @return
+	 */
+	public <T> KeysetPage<T> keyset(String queryValue, Map<String, Object> params, String keyAttribute,
+			Serializable lastKey, int maxResults) {
+		return keyset(queryValue, params, keyAttribute, lastKey, maxResults, null);
+	}
+
+	/**
+	 * @param hints Hints da consulta da página (ex:
+	 *              {@link #readOnlyHints(boolean)}) ou null.
+	 * @see #keyset(String, Map, String, Serializable, int)
+	 */
+	public <T> KeysetPage<T> keyset(String queryValue, Map<String, Object> params, String keyAttribute,
+			Serializable lastKey, int maxResults, Map<String, Object> hints) {
+		if (maxResults < 1) {
+			throw new PersistenceException("Tamanho da página inválido: " + maxResults);
+		}
+		final String key = JPQLUtils.getAlias(queryValue) + "." + keyAttribute;
+		String jpql = JPQLUtils.removeOrderBy(queryValue);
+		final Map<String, Object> keysetParams = new HashMap<>();
+		if (!ObjectUtils.isEmpty(params)) {
+			keysetParams.putAll(params);
+		}
+		if (lastKey != null) {
+			jpql = JPQLUtils.addWhere(jpql, String.format("%s > :%s", key, KEYSET_PARAM));
+			keysetParams.put(KEYSET_PARAM, lastKey);
+		}
+		final List<T> content = list(QueryStrategy.DEFAULT, String.format("%s order by %s", jpql, key),
+				keysetParams, START_RESULT_NONE, maxResults, hints);
+		return new KeysetPage<>(content,
+				content.isEmpty() ? lastKey : getAttributeValue(content.get(content.size() - 1), keyAttribute),
+				content.size() == maxResults);
+	}
+
+	/**
+	 * Obtém o valor do atributo (aceita caminhos como "a.b") diretamente pelos
+	 * fields da entidade.
+	 */
+	protected Serializable getAttributeValue(Object entity, String attribute) {
+		Object value = entity;
+		for (String name : attribute.split("\\.")) {
+			final Field field = ReflectUtils.getFieldMap(value.getClass()).get(name);
+			if (field == null) {
+				throw new PersistenceException(
+						String.format("Atributo %s não encontrado em %s", name, value.getClass().getSimpleName()));
+			}
+			try {
+				field.setAccessible(true);
+				value = field.get(value);
+			} catch (IllegalAccessException | RuntimeException e) {
+				throw new PersistenceException(e);
+			}
+			if (value == null) {
+				return null;
+			}
+		}
+		return (Serializable) value;
 	}
 
 	protected void setParams(QueryStrategy queryStrategy, Query query, Map<String, Object> params, int startResult,
 			int maxResults) {
+		setParams(queryStrategy, query, params, startResult, maxResults, null);
+	}
+
+	protected void setParams(QueryStrategy queryStrategy, Query query, Map<String, Object> params, int startResult,
+			int maxResults, Map<String, Object> hints) {
+		setHints(query, defaultHints);
+		setHints(query, hints);
 		if (startResult != START_RESULT_NONE) {
 			query.setFirstResult(startResult);
 		}
@@ -81,6 +715,22 @@ public abstract class JPAQuery implements QueryFacade {
 		setParams(queryStrategy, query, params);
 	}
 
+	/**
+	 * Aplica os hints na consulta, exceto {@link #HINT_DETACH}, e o
+	 * {@link #HINT_LOCK_MODE} pelo {@link Query#setLockMode(LockModeType)}.
+	 */
+	protected void setHints(Query query, Map<String, Object> hints) {
+		if (!ObjectUtils.isEmpty(hints)) {
+			hints.forEach((name, value) -> {
+				if (HINT_LOCK_MODE.equals(name)) {
+					query.setLockMode((LockModeType) value);
+				} else if (!HINT_DETACH.equals(name)) {
+					query.setHint(name, value);
+				}
+			});
+		}
+	}
+
 	protected void setParams(QueryStrategy queryStrategy, Query query, Map<String, Object> params) {
 		if (!ObjectUtils.isEmpty(params)) {
 			params.forEach(query::setParameter);
@@ -90,7 +740,9 @@ public abstract class JPAQuery implements QueryFacade {
 	protected Query createQuery(QueryStrategy queryStrategy, String queryValue, Map<String, Object> params) {
 		switch (queryStrategy) {
 			case DEFAULT:
-				return getEntityManager().createQuery(queryValue);
+				final JPANamedQueryRegistry registry = getNamedQueryRegistry();
+				return (registry == null) ? getEntityManager().createQuery(queryValue)
+						: registry.createQuery(getEntityManager(), queryValue);
 			case NAMED:
 				return getEntityManager().createNamedQuery(queryValue);
 			case NATIVE:
@@ -134,6 +786,7 @@ public abstract class JPAQuery implements QueryFacade {
 	 */
 	public <T extends Serializable> T create(T entity) {
 		getEntityManager().persist(entity);
+		invalidateQueryCache(entity.getClass());
 		return entity;
 	}
 
@@ -148,23 +801,284 @@ public abstract class JPAQuery implements QueryFacade {
 	}
 
 	public <T extends Serializable> T read(Class<T> entityClass, Serializable primaryKey) {
+		return read(entityClass, primaryKey, null);
+	}
+
+	/**
+	 * @param hints Propriedades da leitura (ex: {@link #readOnlyHints(boolean)})
+	 *              ou null, combinadas com os hints padrão. O
+	 *              {@link #HINT_LOCK_MODE} bloqueia a entidade lida.
+	 * @see EntityManager#find(Class, Object, LockModeType, Map)
+	 */
+	public <T extends Serializable> T read(Class<T> entityClass, Serializable primaryKey, Map<String, Object> hints) {
 //		getEntityManager().clear();
-		return getEntityManager().find(entityClass, primaryKey);
+		final Map<String, Object> properties = new HashMap<>(defaultHints);
+		if (hints != null) {
+			properties.putAll(hints);
+		}
+		if (properties.isEmpty()) {
+			return getEntityManager().find(entityClass, primaryKey);
+		}
+		final LockModeType lockMode = (LockModeType) properties.remove(HINT_LOCK_MODE);
+		final Set<Object> managed = Boolean.TRUE.equals(properties.remove(HINT_DETACH)) ? getManagedEntities() : null;
+		final T retorno = (lockMode == null) ? getEntityManager().find(entityClass, primaryKey, properties)
+				: getEntityManager().find(entityClass, primaryKey, lockMode, properties);
+		if ((managed != null) && (retorno != null) && (!managed.contains(retorno))) {
+			getEntityManager().detach(retorno);
+		}
+		return retorno;
+	}
+
+	/**
+	 * @see #readAll(Class, Collection, int)
+	 */
+	public <K extends Serializable, T extends Serializable> Map<K, T> readAll(Class<T> entityClass,
+			Collection<K> primaryKeys) {
+		return readAll(entityClass, primaryKeys, IN_LIST_LIMIT);
+	}
+
+	/**
+	 * Lê as entidades pelas chaves primárias: as já carregadas no contexto de
+	 * persistência são reutilizadas e as demais são lidas com consultas "in" de
+	 * até chunkSize chaves.
+	 * 
+	 * @return As entidades encontradas na ordem das chaves informadas.
+	 * @see org.hibernate.MultiIdentifierLoadAccess#multiLoad(List)
+	 */
+	public <K extends Serializable, T extends Serializable> Map<K, T> readAll(Class<T> entityClass,
+			Collection<K> primaryKeys, int chunkSize) {
+		if (chunkSize < 1) {
+			throw new PersistenceException("Tamanho do lote inválido: " + chunkSize);
+		}
+		final Map<K, T> retorno = new LinkedHashMap<>();
+		if (ObjectUtils.isEmpty(primaryKeys)) {
+			return retorno;
+		}
+		final List<K> ids = new ArrayList<>(new LinkedHashSet<>(primaryKeys));
+		final List<T> entities = getEntityManager().unwrap(Session.class).byMultipleIds(entityClass) //
+				.enableSessionCheck(true) //
+				.withBatchSize(chunkSize) //
+				.multiLoad(ids);
+		for (int i = 0; i < ids.size(); i++) {
+			if (entities.get(i) != null) {
+				retorno.put(ids.get(i), entities.get(i));
+			}
+		}
+		return retorno;
 	}
 
 	public <T extends Serializable> T update(T entity) {
-		return getEntityManager().merge(entity);
+		final T retorno = getEntityManager().merge(entity);
+		invalidateQueryCache(entity.getClass());
+		return retorno;
 	}
 
 	public <T extends Serializable> boolean delete(Class<T> entityClass, Serializable primaryKey) {
 		try {
 			getEntityManager().remove(getEntityManager().getReference(entityClass, primaryKey));
+			invalidateQueryCache(entityClass);
 			return true;
 		} catch (EntityNotFoundException e) {
 			return false;
 		}
 	}
 
+	/**
+	 * Quantidade padrão de chaves por comando do
+	 * {@link #deleteAll(Class, Collection, int)}, dentro do limite de itens do
+	 * "in" dos bancos de dados (ex: 1000 no Oracle).
+	 */
+	public static final int IN_LIST_LIMIT = 1000;
+
+	/**
+	 * @see #deleteAll(Class, Collection, int)
+	 */
+	public <T extends Serializable> int deleteAll(Class<T> entityClass,
+			Collection<? extends Serializable> primaryKeys) {
+		return deleteAll(entityClass, primaryKeys, IN_LIST_LIMIT);
+	}
+
+	/**
+	 * Exclui as entidades pelas chaves primárias sem carregá-las, com comandos
+	 * "delete ... where id in (:ids)" de até chunkSize chaves. Como todo comando
+	 * JPQL de exclusão, não executa a cascata nem os callbacks da entidade, e as
+	 * instâncias já carregadas no contexto de persistência não são desanexadas.
+	 * 
+	 * @return Quantidade de entidades excluídas.
+	 */
+	public <T extends Serializable> int deleteAll(Class<T> entityClass, Collection<? extends Serializable> primaryKeys,
+			int chunkSize) {
+		if (chunkSize < 1) {
+			throw new PersistenceException("Tamanho do lote inválido: " + chunkSize);
+		}
+		if (ObjectUtils.isEmpty(primaryKeys)) {
+			return 0;
+		}
+		final String jpql = String.format("delete from %s e where e.%s in (:ids)", getEntityName(entityClass),
+				getIdAttribute(entityClass));
+		final List<Serializable> ids = new ArrayList<>(new LinkedHashSet<>(primaryKeys));
+		int count = 0;
+		try {
+			for (int i = 0; i < ids.size(); i += chunkSize) {
+				final Map<String, Object> params = Collections.singletonMap("ids",
+						ids.subList(i, Math.min(ids.size(), i + chunkSize)));
+				count += measure(jpql, params, () -> {
+					Query query = createQuery(QueryStrategy.DEFAULT, jpql, params);
+					setParams(QueryStrategy.DEFAULT, query, params, START_RESULT_NONE, MAX_RESULT_NONE);
+					return query.executeUpdate();
+				}, Integer::longValue);
+			}
+		} finally {
+			invalidateQueryCache(entityClass);
+		}
+		return count;
+	}
+
+	/**
+	 * Nome do atributo da chave primária simples da entidade.
+	 */
+	protected String getIdAttribute(Class<?> entityClass) {
+		final EntityType<?> entityType = getEntityManager().getMetamodel().entity(entityClass);
+		if (!entityType.hasSingleIdAttribute()) {
+			throw new PersistenceException("Chave primária composta não suportada: " + entityClass.getName());
+		}
+		return entityType.getId(entityType.getIdType().getJavaType()).getName();
+	}
+
+	/**
+	 * Persiste as entidades em lotes: a cada batchSize entidades o contexto de
+	 * persistência é sincronizado e limpo, e os comandos são agrupados em lotes
+	 * JDBC do mesmo tamanho. As entidades ficam desanexadas após a execução.
+	 * 
+	 * @return Quantidade de entidades persistidas.
+	 * @see Session#setJdbcBatchSize(Integer)
+	 */
+	public <T extends Serializable> int createAll(Iterable<T> entities, int batchSize) {
+		final EntityManager entityManager = getEntityManager();
+		return batch(entities, batchSize, entityManager::persist);
+	}
+
+	/**
+	 * Atualiza as entidades em lotes conforme {@link #createAll(Iterable, int)}.
+	 * 
+	 * @return Quantidade de entidades atualizadas.
+	 * @see EntityManager#merge(Object)
+	 */
+	public <T extends Serializable> int updateAll(Iterable<T> entities, int batchSize) {
+		final EntityManager entityManager = getEntityManager();
+		return batch(entities, batchSize, entityManager::merge);
+	}
+
+	/**
+	 * Inclui ou atualiza as entidades pela chave primária com o comando nativo
+	 * do banco de dados ({@link UpsertDialect}), sem as consultas do
+	 * {@link EntityManager#merge(Object)}, em lotes JDBC de tamanho batchSize.
+	 * As chaves primárias devem estar preenchidas, as instâncias já carregadas
+	 * no contexto de persistência não são atualizadas e as entidades são
+	 * removidas do cache de segundo nível. O registro existente mantém a versão
+	 * e as colunas não atualizáveis (updatable = false).
+	 * 
+	 * @return Quantidade de entidades processadas.
+	 */
+	public <T extends Serializable> int upsertAll(Iterable<T> entities, int batchSize) {
+		if (batchSize < 1) {
+			throw new PersistenceException("Tamanho do lote inválido: " + batchSize);
+		}
+		final EntityManager entityManager = getEntityManager();
+		entityManager.flush();
+		final SessionImplementor session = entityManager.unwrap(SessionImplementor.class);
+		final Map<Class<?>, JPAEntityUpsert> upserts = new LinkedHashMap<>();
+		try {
+			return session.doReturningWork(connection -> {
+				final UpsertDialect dialect = UpsertDialect.of(connection);
+				try {
+					int count = 0;
+					for (T entity : entities) {
+						JPAEntityUpsert upsert = upserts.get(entity.getClass());
+						if (upsert == null) {
+							upsert = new JPAEntityUpsert(session, connection, dialect, entity.getClass(), batchSize);
+							upserts.put(entity.getClass(), upsert);
+						}
+						upsert.add(entity);
+						count++;
+					}
+					for (JPAEntityUpsert upsert : upserts.values()) {
+						upsert.flush();
+					}
+					return count;
+				} finally {
+					for (JPAEntityUpsert upsert : upserts.values()) {
+						upsert.close();
+					}
+				}
+			});
+		} finally {
+			final Cache cache = entityManager.getEntityManagerFactory().getCache();
+			for (Class<?> entityClass : upserts.keySet()) {
+				cache.evict(entityClass);
+				invalidateQueryCache(entityClass);
+			}
+		}
+	}
+
+	protected <T> int batch(Iterable<T> entities, int batchSize, Consumer<T> command) {
+		if (batchSize < 1) {
+			throw new PersistenceException("Tamanho do lote inválido: " + batchSize);
+		}
+		final EntityManager entityManager = getEntityManager();
+		final Session session = entityManager.unwrap(Session.class);
+		final Integer jdbcBatchSize = session.getJdbcBatchSize();
+		final Set<Class<?>> entityClasses = new HashSet<>();
+		session.setJdbcBatchSize(batchSize);
+		try {
+			int count = 0;
+			for (T entity : entities) {
+				command.accept(entity);
+				entityClasses.add(entity.getClass());
+				if (++count % batchSize == 0) {
+					entityManager.flush();
+					entityManager.clear();
+				}
+			}
+			if (count % batchSize != 0) {
+				entityManager.flush();
+				entityManager.clear();
+			}
+			return count;
+		} finally {
+			session.setJdbcBatchSize(jdbcBatchSize);
+			entityClasses.forEach(this::invalidateQueryCache);
+		}
+	}
+
+	/**
+	 * Leitura paralela de todos os registros da entidade, cada bloco em um
+	 * {@link EntityManager} próprio criado a partir do
+	 * {@link javax.persistence.EntityManagerFactory} deste facade.
+	 * 
+	 * @see JPAParallelScan
+	 */
+	public <T extends PrimaryKeyId<Long>> JPAParallelScan<T> parallelScan(Class<T> entityClass) {
+		return new JPAParallelScan<>(getEntityManager().getEntityManagerFactory(), entityClass);
+	}
+
+	/**
+	 * Nome da entidade para ser utilizado nas consultas JPQL.
+	 * 
+	 * @see Entity#name()
+	 */
+	public static String getEntityName(Class<?> entityClass) {
+		return ENTITY_NAMES.get(entityClass);
+	}
+
+	private static final ClassValue<String> ENTITY_NAMES = new ClassValue<String>() {
+		@Override
+		protected String computeValue(Class<?> entityClass) {
+			final Entity entity = entityClass.getAnnotation(Entity.class);
+			return ((entity == null) || (entity.name().isEmpty())) ? entityClass.getSimpleName() : entity.name();
+		}
+	};
+
 	public static JPAQuery create(EntityManager entityManager) {
 		return new JPAQuery() {
 			@Override
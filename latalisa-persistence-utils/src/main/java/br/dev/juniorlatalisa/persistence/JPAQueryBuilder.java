@@ -1,15 +1,18 @@
 package br.dev.juniorlatalisa.persistence;
 
 import java.io.InputStream;
+import java.io.Serializable;
 import java.nio.charset.Charset;
+import java.time.Duration;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
-import javax.persistence.Entity;
+import javax.persistence.LockModeType;
 import javax.persistence.PersistenceException;
 
+import org.hibernate.annotations.QueryHints;
+
 import br.dev.juniorlatalisa.model.Entidade;
 import br.dev.juniorlatalisa.persistence.JPAQuery.QueryStrategy;
 import br.dev.juniorlatalisa.utils.ObjectUtils;
@@ -24,8 +27,14 @@ public class JPAQueryBuilder implements QueryBuilder {
 
 	private int maxResults = QueryFacade.MAX_RESULT_NONE;
 	private int startResult = QueryFacade.START_RESULT_NONE;
+	private int fetchSize = QueryFacade.FETCH_SIZE_NONE;
+	private int clearInterval = JPAQuery.CLEAR_INTERVAL_NONE;
+
+	private String keyAttribute = null;
+	private Serializable lastKey = null;
 
 	private final Map<String, Object> params = new HashMap<>();
+	private final Map<String, Object> hints = new HashMap<>();
 	private final QueryStrategy queryStrategy;
 	private final String queryValue;
 
@@ -41,6 +50,117 @@ public class JPAQueryBuilder implements QueryBuilder {
 		return this;
 	}
 
+	/**
+	 * Quantidade de registros buscados por vez no {@link #iterator()}.
+	 */
+	public JPAQueryBuilder setFetchSize(int fetchSize) {
+		this.fetchSize = fetchSize;
+		return setHint(QueryHints.FETCH_SIZE, (fetchSize == QueryFacade.FETCH_SIZE_NONE) ? null : fetchSize);
+	}
+
+	/**
+	 * Tempo máximo de execução da consulta, null para o padrão do
+	 * {@link JPAQuery#setDefaultTimeout(Duration)}.
+	 * 
+	 * @see QueryHints#TIMEOUT_JPA
+	 */
+	public JPAQueryBuilder setTimeout(Duration timeout) {
+		return setHint(QueryHints.TIMEOUT_JPA, JPAQuery.toTimeoutHint(timeout));
+	}
+
+	/**
+	 * @see JPAQuery#HINT_LOCK_MODE
+	 */
+	public JPAQueryBuilder setLockMode(LockModeType lockMode) {
+		return setHint(JPAQuery.HINT_LOCK_MODE, lockMode);
+	}
+
+	/**
+	 * Hint da consulta, substitui o hint de mesmo nome do
+	 * {@link JPAQuery#setDefaultHint(String, Object)}.
+	 * 
+	 * @param value Valor do hint ou null para removê-lo.
+	 * @see javax.persistence.Query#setHint(String, Object)
+	 */
+	public JPAQueryBuilder setHint(String name, Object value) {
+		if (value == null) {
+			hints.remove(name);
+		} else {
+			hints.put(name, value);
+		}
+		return this;
+	}
+
+	public JPAQueryBuilder addHints(Map<String, Object> hints) {
+		if (!ObjectUtils.isEmpty(hints)) {
+			hints.forEach(this::setHint);
+		}
+		return this;
+	}
+
+	/**
+	 * Intervalo de registros lidos pelo {@link #iterator()} para limpar o contexto
+	 * de persistência.
+	 * 
+	 * @see javax.persistence.EntityManager#clear()
+	 */
+	public JPAQueryBuilder setClearInterval(int clearInterval) {
+		this.clearInterval = clearInterval;
+		return this;
+	}
+
+	/**
+	 * Habilita a paginação por chave utilizada pelo método {@link #page()}.
+	 * 
+	 * @param keyAttribute Atributo único utilizado na ordenação.
+	 * @param lastKey      Chave do último registro lido ou null para a primeira
+	 *                     página.
+	 * @see JPAQuery#keyset(String, Map, String, Serializable, int)
+	 */
+	public JPAQueryBuilder setKeyset(String keyAttribute, Serializable lastKey) {
+		this.keyAttribute = keyAttribute;
+		this.lastKey = lastKey;
+		return this;
+	}
+
+	/**
+	 * @param cursor {@link KeysetPage#getNextCursor()}
+	 * @see #setKeyset(String, Serializable)
+	 */
+	public JPAQueryBuilder setKeysetCursor(String keyAttribute, String cursor) {
+		return setKeyset(keyAttribute, KeysetPage.decodeCursor(cursor));
+	}
+
+	/**
+	 * Consulta somente leitura: as entidades não são verificadas (dirty checking)
+	 * no flush e o contexto de persistência não é sincronizado antes da consulta.
+	 * 
+	 * @see JPAQuery#readOnlyHints(boolean)
+	 */
+	public JPAQueryBuilder setReadOnly(boolean readOnly) {
+		final Map<String, Object> readOnlyHints = JPAQuery.readOnlyHints(false);
+		if (readOnly) {
+			hints.putAll(readOnlyHints);
+		} else {
+			hints.keySet().removeAll(readOnlyHints.keySet());
+		}
+		return this;
+	}
+
+	/**
+	 * Retorna as entidades desanexadas do contexto de persistência.
+	 * 
+	 * @see JPAQuery#HINT_DETACH
+	 */
+	public JPAQueryBuilder setDetached(boolean detached) {
+		if (detached) {
+			hints.put(JPAQuery.HINT_DETACH, Boolean.TRUE);
+		} else {
+			hints.remove(JPAQuery.HINT_DETACH);
+		}
+		return this;
+	}
+
 	public JPAQueryBuilder setParams(Map<String, Object> params) {
 		this.params.clear();
 		if (!ObjectUtils.isEmpty(params)) {
@@ -79,28 +199,153 @@ public class JPAQueryBuilder implements QueryBuilder {
 	}
 
 	public <T> T single() {
-		return facade.single(queryStrategy, queryValue, params);
+		return facade.single(queryStrategy, queryValue, params, hints);
 	}
 
 	@Override
 	public <T> T find() {
-		List<T> result = facade.list(queryStrategy, queryValue, params, startResult, 1);
+		List<T> result = facade.list(queryStrategy, queryValue, params, startResult, 1, hints);
 		return (result == null || result.isEmpty()) ? null : result.get(0);
 	}
 
 	@Override
 	public int execute() {
-		return facade.execute(queryStrategy, queryValue, params);
+		return facade.execute(queryStrategy, queryValue, params, hints);
 	}
 
 	@Override
 	public <T> List<T> list() {
-		return facade.list(queryStrategy, queryValue, params, startResult, maxResults);
+		return facade.list(queryStrategy, queryValue, params, startResult, maxResults, hints);
+	}
+
+	/**
+	 * {@link #list()} assíncrono.
+	 * 
+	 * @see JPAQuery#asyncReadOnly(Map, java.util.function.Function)
+	 */
+	public <T> QueryFuture<List<T>> listAsync() {
+		final Map<String, Object> params = new HashMap<>(this.params);
+		final Map<String, Object> hints = new HashMap<>(this.hints);
+		final int startResult = this.startResult;
+		final int maxResults = this.maxResults;
+		return facade.asyncReadOnly(hints,
+				query -> query.list(queryStrategy, queryValue, params, startResult, maxResults, hints));
+	}
+
+	/**
+	 * {@link #find()} assíncrono.
+	 * 
+	 * @see JPAQuery#asyncReadOnly(Map, java.util.function.Function)
+	 */
+	public <T> QueryFuture<T> findAsync() {
+		final Map<String, Object> params = new HashMap<>(this.params);
+		final Map<String, Object> hints = new HashMap<>(this.hints);
+		final int startResult = this.startResult;
+		return facade.asyncReadOnly(hints, query -> {
+			final List<T> result = query.list(queryStrategy, queryValue, params, startResult, 1, hints);
+			return (result == null || result.isEmpty()) ? null : result.get(0);
+		});
+	}
+
+	/**
+	 * {@link #execute()} assíncrono.
+	 * 
+	 * @see JPAQuery#async(java.util.function.Function)
+	 */
+	public QueryFuture<Integer> executeAsync() {
+		final Map<String, Object> params = new HashMap<>(this.params);
+		final Map<String, Object> hints = new HashMap<>(this.hints);
+		return facade.async(query -> query.execute(queryStrategy, queryValue, params, hints));
+	}
+
+	/**
+	 * Página com maxResults registros a partir da chave informada em
+	 * {@link #setKeyset(String, Serializable)}, com os hints deste builder (ex:
+	 * {@link #setReadOnly(boolean)}, {@link #setFetchSize(int)} e
+	 * {@link #setTimeout(java.time.Duration)}).
+	 */
+	public <T> KeysetPage<T> page() {
+		if (!QueryStrategy.DEFAULT.equals(queryStrategy)) {
+			throw new PersistenceException("Paginação por chave disponível apenas para QueryStrategy.DEFAULT");
+		}
+		if (keyAttribute == null) {
+			throw new PersistenceException("Paginação por chave não foi definida");
+		}
+		return facade.keyset(queryValue, params, keyAttribute, lastKey, maxResults, hints);
+	}
+
+	/**
+	 * Lista somente os atributos informados, instanciando resultClass pelo
+	 * construtor com os atributos na mesma ordem (expressão "select new"). Os
+	 * resultados não são entidades, assim não são registrados no contexto de
+	 * persistência. Utiliza os mesmos parâmetros e limites do {@link #list()}.
+	 * 
+	 * @param resultClass DTO (ou record) com o construtor dos atributos.
+	 * @param attributes  Atributos da entidade principal (ex: "nome") ou
+	 *                    expressões JPQL (ex: "e.cliente.nome").
+	 */
+	public <R> List<R> project(Class<R> resultClass, String... attributes) {
+		final String select = String.format("new %s(%s)", resultClass.getName(), select(attributes));
+		return facade.list(queryStrategy, projection(select), params, startResult, maxResults, hints);
+	}
+
+	/**
+	 * Lista os valores de um atributo numérico em um array, sem instanciar as
+	 * entidades. Os valores nulos são retornados como 0.
+	 * 
+	 * @see #project(Class, String...)
+	 */
+	public long[] projectLongs(String attribute) {
+		final List<Number> values = facade.list(queryStrategy, projection(select(attribute)), params,
+				startResult, maxResults, hints);
+		return values.stream().mapToLong(value -> (value == null) ? 0L : value.longValue()).toArray();
+	}
+
+	/**
+	 * Lista os valores de um atributo numérico em um array, sem instanciar as
+	 * entidades. Os valores nulos são retornados como {@link Double#NaN}.
+	 * 
+	 * @see #project(Class, String...)
+	 */
+	public double[] projectDoubles(String attribute) {
+		final List<Number> values = facade.list(queryStrategy, projection(select(attribute)), params,
+				startResult, maxResults, hints);
+		return values.stream().mapToDouble(value -> (value == null) ? Double.NaN : value.doubleValue()).toArray();
+	}
+
+	/**
+	 * Consulta com a cláusula "select" substituída.
+	 */
+	protected String projection(String select) {
+		if (!QueryStrategy.DEFAULT.equals(queryStrategy)) {
+			throw new PersistenceException("Projeção disponível apenas para QueryStrategy.DEFAULT");
+		}
+		return JPQLUtils.replaceSelect(queryValue, select);
+	}
+
+	/**
+	 * Atributos separados por vírgula, prefixados com o alias da entidade
+	 * principal quando necessário.
+	 */
+	protected String select(String... attributes) {
+		final String alias = JPQLUtils.getAlias(queryValue);
+		final StringBuilder select = new StringBuilder();
+		for (String attribute : attributes) {
+			if (select.length() > 0) {
+				select.append(", ");
+			}
+			if (attribute.matches("\\w+")) {
+				select.append(alias).append('.');
+			}
+			select.append(attribute);
+		}
+		return select.toString();
 	}
 
 	@Override
-	public <T> Iterator<T> iterator() {
-		throw new PersistenceException("Iterator is not suported.");
+	public <T> CloseableIterator<T> iterator() {
+		return facade.iterator(queryStrategy, queryValue, params, startResult, maxResults, fetchSize, clearInterval,
+				hints);
 	}
 
 	public static JPAQueryBuilder create(JPAQuery facade, QueryStrategy queryStrategy, String queryValue) {
@@ -113,9 +358,8 @@ public class JPAQueryBuilder implements QueryBuilder {
 	}
 
 	public static JPAQueryBuilder create(JPAQuery facade, Class<? extends Entidade> entityClass, String where) {
-		final Entity entity = entityClass.getAnnotation(Entity.class);
-		return new JPAQueryBuilder(facade, QueryStrategy.DEFAULT, String.format("select e from %s e %s",
-				entity == null ? entityClass.getSimpleName() : entity.name(), where));
+		return new JPAQueryBuilder(facade, QueryStrategy.DEFAULT,
+				"select e from " + JPAQuery.getEntityName(entityClass) + " e " + where);
 	}
 
 	public static JPAQueryBuilder create(JPAQuery facade, Class<? extends Entidade> entityClass) {
@@ -0,0 +1,313 @@
+package br.dev.juniorlatalisa.persistence;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import javax.persistence.PersistenceException;
+
+import br.dev.juniorlatalisa.persistence.JPAQuery.QueryStrategy;
+
+/**
+ * Cache do resultado das consultas do {@link JPAQuery} com tamanho máximo (LRU)
+ * e tempo de vida (TTL). Cada resultado é associado às entidades consultadas e
+ * invalidado quando o {@link JPAQuery} cria, altera ou remove uma entidade
+ * dessas classes. Consultas cujas entidades não podem ser identificadas (ex:
+ * nativas) são invalidadas por qualquer alteração.
+ * <p>
+ * Os resultados são compartilhados entre as chamadas, inclusive de outros
+ * {@link JPAQuery} e EntityManagers, portanto devem ser tratados como somente
+ * leitura e não conter entidades gerenciadas (o {@link JPAQuery} armazena
+ * apenas valores, projeções e entidades desanexadas).
+ *
+ * @author Junior Latalisa
+ * @see JPAQuery#setQueryCache(JPAQueryCache)
+ */
+public class JPAQueryCache {
+
+	public JPAQueryCache(int maxSize, Duration timeToLive) {
+		if (maxSize < 1) {
+			throw new PersistenceException("Tamanho do cache inválido: " + maxSize);
+		}
+		this.maxSize = maxSize;
+		this.timeToLive = timeToLive.toNanos();
+	}
+
+	private final int maxSize;
+	private final long timeToLive;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong invalidations = new AtomicLong();
+
+	/**
+	 * Classes das entidades de cada consulta, limitadas a maxSize consultas
+	 * (LRU).
+	 */
+	private final Map<String, Optional<Set<Class<?>>>> queryEntities = new LinkedHashMap<String, //
+			Optional<Set<Class<?>>>>(16, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Optional<Set<Class<?>>>> eldest) {
+			return size() > maxSize;
+		}
+	};
+	private long generation = 0;
+
+	private final Map<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+			if (size() > maxSize) {
+				evictions.incrementAndGet();
+				return true;
+			}
+			return false;
+		}
+	};
+
+	/**
+	 * @return O resultado ou null caso não esteja no cache ou tenha expirado.
+	 */
+	public <T> List<T> get(Key key) {
+		final Entry entry;
+		synchronized (entries) {
+			entry = entries.get(key);
+			if ((entry != null) && (entry.expiresAt - System.nanoTime() < 0)) {
+				entries.remove(key);
+				evictions.incrementAndGet();
+				misses.incrementAndGet();
+				return null;
+			}
+		}
+		if (entry == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		return entry.getResult();
+	}
+
+	/**
+	 * Armazena o resultado, exceto quando houve alguma invalidação depois da
+	 * geração informada (o resultado pode ter sido lido antes da alteração).
+	 * 
+	 * @param entities   Classes das entidades consultadas ou null para invalidar
+	 *                   o resultado em qualquer alteração.
+	 * @param generation {@link #getGeneration()} obtido antes da consulta.
+	 * @return O resultado não modificável.
+	 */
+	public <T> List<T> put(Key key, List<T> result, Set<Class<?>> entities, long generation) {
+		final List<T> value = Collections.unmodifiableList(result);
+		synchronized (entries) {
+			if (generation == this.generation) {
+				entries.put(key, new Entry(value, entities, System.nanoTime() + timeToLive));
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * Classes das entidades da consulta, resolvidas apenas uma vez para cada
+	 * consulta.
+	 */
+	public Set<Class<?>> getEntities(QueryStrategy queryStrategy, String queryValue,
+			Supplier<Set<Class<?>>> resolver) {
+		final String key = queryStrategy + ":" + queryValue;
+		Optional<Set<Class<?>>> retorno;
+		synchronized (queryEntities) {
+			retorno = queryEntities.get(key);
+		}
+		if (retorno == null) {
+			retorno = Optional.ofNullable(resolver.get());
+			synchronized (queryEntities) {
+				queryEntities.put(key, retorno);
+			}
+		}
+		return retorno.orElse(null);
+	}
+
+	/**
+	 * Contador de invalidações.
+	 */
+	public long getGeneration() {
+		synchronized (entries) {
+			return generation;
+		}
+	}
+
+	/**
+	 * Remove os resultados associados à classe da entidade (ou à sua hierarquia)
+	 * e os resultados sem entidades identificadas.
+	 */
+	public void invalidate(Class<?> entityClass) {
+		synchronized (entries) {
+			generation++;
+			for (Iterator<Entry> iterator = entries.values().iterator(); iterator.hasNext();) {
+				final Entry entry = iterator.next();
+				if ((entry.entities == null) || (entry.entities.stream()
+						.anyMatch(c -> c.isAssignableFrom(entityClass) || entityClass.isAssignableFrom(c)))) {
+					iterator.remove();
+					invalidations.incrementAndGet();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Remove todos os resultados.
+	 */
+	public void invalidateAll() {
+		synchronized (entries) {
+			generation++;
+			invalidations.addAndGet(entries.size());
+			entries.clear();
+		}
+	}
+
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public Duration getTimeToLive() {
+		return Duration.ofNanos(timeToLive);
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	public long getInvalidations() {
+		return invalidations.get();
+	}
+
+	/**
+	 * Percentual (0 a 1) das consultas atendidas pelo cache.
+	 */
+	public double getHitRatio() {
+		final long hits = getHits();
+		final long total = hits + getMisses();
+		return (total == 0) ? 0 : (double) hits / total;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("JPAQueryCache [size=%d, maxSize=%d, hits=%d, misses=%d, hitRatio=%.2f, "
+				+ "evictions=%d, invalidations=%d]", size(), maxSize, getHits(), getMisses(), getHitRatio(),
+				getEvictions(), getInvalidations());
+	}
+
+	public static Key createKey(String region, QueryStrategy queryStrategy, String queryValue,
+			Map<String, Object> params, int startResult, int maxResults) {
+		return createKey(region, queryStrategy, queryValue, params, startResult, maxResults, null);
+	}
+
+	/**
+	 * @param hints Hints aplicados à consulta (ex: somente leitura,
+	 *              desanexadas) ou null.
+	 */
+	public static Key createKey(String region, QueryStrategy queryStrategy, String queryValue,
+			Map<String, Object> params, int startResult, int maxResults, Map<String, Object> hints) {
+		return new Key(region, queryStrategy, queryValue, params, startResult, maxResults, hints);
+	}
+
+	/**
+	 * Chave do cache: região (ex: contexto do {@link JPAQueryMultiDataBase}),
+	 * estratégia, consulta, parâmetros, paginação e hints.
+	 */
+	public static final class Key {
+
+		private Key(String region, QueryStrategy queryStrategy, String queryValue, Map<String, Object> params,
+				int startResult, int maxResults, Map<String, Object> hints) {
+			this.region = region;
+			this.queryStrategy = queryStrategy;
+			this.queryValue = queryValue;
+			this.params = (params == null) ? Collections.emptyMap() : new HashMap<>(params);
+			this.startResult = startResult;
+			this.maxResults = maxResults;
+			this.hints = (hints == null) ? Collections.emptyMap() : new HashMap<>(hints);
+			this.hashCode = Objects.hash(region, queryStrategy, queryValue, this.params, startResult, maxResults,
+					this.hints);
+		}
+
+		private final String region;
+		private final QueryStrategy queryStrategy;
+		private final String queryValue;
+		private final Map<String, Object> params;
+		private final int startResult;
+		private final int maxResults;
+		private final Map<String, Object> hints;
+		private final int hashCode;
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof Key))
+				return false;
+			final Key other = (Key) obj;
+			return (hashCode == other.hashCode) && (startResult == other.startResult)
+					&& (maxResults == other.maxResults) && (queryStrategy == other.queryStrategy)
+					&& Objects.equals(region, other.region) && Objects.equals(queryValue, other.queryValue)
+					&& Objects.equals(params, other.params) && Objects.equals(hints, other.hints);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("Key [region=%s, queryStrategy=%s, queryValue=%s, params=%s, startResult=%d, "
+					+ "maxResults=%d, hints=%s]", region, queryStrategy, queryValue, params, startResult, maxResults,
+					hints);
+		}
+	}
+
+	private static final class Entry {
+
+		private Entry(List<?> result, Set<Class<?>> entities, long expiresAt) {
+			this.result = result;
+			this.entities = entities;
+			this.expiresAt = expiresAt;
+		}
+
+		private final List<?> result;
+		private final Set<Class<?>> entities;
+		private final long expiresAt;
+
+		@SuppressWarnings("unchecked")
+		private <T> List<T> getResult() {
+			return (List<T>) result;
+		}
+	}
+}
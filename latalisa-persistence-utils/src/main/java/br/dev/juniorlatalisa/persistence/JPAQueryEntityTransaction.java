@@ -1,6 +1,8 @@
 package br.dev.juniorlatalisa.persistence;
 
 import java.io.Serializable;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.function.Supplier;
 
@@ -9,9 +11,16 @@ import javax.persistence.EntityTransaction;
 
 public abstract class JPAQueryEntityTransaction extends JPAQuery implements AutoCloseable {
 
+	/**
+	 * Executa o comando em uma nova transação, ou na transação já ativa do
+	 * {@link EntityManager}, sem confirmá-la.
+	 */
 	protected <T> T inEntityTransaction(Supplier<T> supplier) {
-		EntityTransaction transaction;
-		(transaction = getEntityManager().getTransaction()).begin();
+		final EntityTransaction transaction = getEntityManager().getTransaction();
+		if (transaction.isActive()) {
+			return supplier.get();
+		}
+		transaction.begin();
 		try {
 			T retorno = supplier.get();
 			transaction.commit();
@@ -23,8 +32,37 @@ public abstract class JPAQueryEntityTransaction extends JPAQuery implements Auto
 	}
 
 	@Override
-	public int execute(QueryStrategy queryStrategy, String queryValue, Map<String, Object> params) {
-		return inEntityTransaction(() -> super.execute(queryStrategy, queryValue, params));
+	public int execute(QueryStrategy queryStrategy, String queryValue, Map<String, Object> params,
+			Map<String, Object> hints) {
+		return inEntityTransaction(() -> super.execute(queryStrategy, queryValue, params, hints));
+	}
+
+	/**
+	 * As consultas com bloqueio pessimista ({@link #HINT_LOCK_MODE}) são
+	 * executadas em uma transação própria quando não houver uma ativa, e os
+	 * bloqueios são liberados ao final da consulta. Para manter o bloqueio até a
+	 * alteração das entidades utilize uma transação iniciada pelo chamador.
+	 */
+	@Override
+	public <T> List<T> list(QueryStrategy queryStrategy, String queryValue, Map<String, Object> params, int startResult,
+			int maxResults, Map<String, Object> hints) {
+		if (isPessimisticLock(hints)) {
+			return inEntityTransaction(
+					() -> super.<T>list(queryStrategy, queryValue, params, startResult, maxResults, hints));
+		}
+		return super.list(queryStrategy, queryValue, params, startResult, maxResults, hints);
+	}
+
+	/**
+	 * @see #list(QueryStrategy, String, Map, int, int, Map)
+	 */
+	@Override
+	public <T> T single(QueryStrategy queryStrategy, String queryValue, Map<String, Object> params,
+			Map<String, Object> hints) {
+		if (isPessimisticLock(hints)) {
+			return inEntityTransaction(() -> super.<T>single(queryStrategy, queryValue, params, hints));
+		}
+		return super.single(queryStrategy, queryValue, params, hints);
 	}
 
 	@Override
@@ -37,11 +75,41 @@ public abstract class JPAQueryEntityTransaction extends JPAQuery implements Auto
 		return inEntityTransaction(() -> super.update(entity));
 	}
 
+	@Override
+	public <T extends Serializable> int createAll(Iterable<T> entities, int batchSize) {
+		return inEntityTransaction(() -> super.createAll(entities, batchSize));
+	}
+
+	@Override
+	public <T extends Serializable> int updateAll(Iterable<T> entities, int batchSize) {
+		return inEntityTransaction(() -> super.updateAll(entities, batchSize));
+	}
+
+	@Override
+	public <T extends Serializable> int upsertAll(Iterable<T> entities, int batchSize) {
+		return inEntityTransaction(() -> super.upsertAll(entities, batchSize));
+	}
+
 	@Override
 	public <T extends Serializable> boolean delete(Class<T> entityClass, Serializable primaryKey) {
 		return inEntityTransaction(() -> super.delete(entityClass, primaryKey));
 	}
 
+	@Override
+	public <T extends Serializable> int deleteAll(Class<T> entityClass, Collection<? extends Serializable> primaryKeys,
+			int chunkSize) {
+		return inEntityTransaction(() -> super.deleteAll(entityClass, primaryKeys, chunkSize));
+	}
+
+	@Override
+	protected JPAQuery createAsyncFacade(EntityManager entityManager) {
+		return JPAQueryEntityTransaction.create(entityManager) //
+				.setQueryCache(getQueryCache()) //
+				.setQueryMetrics(getQueryMetrics()) //
+				.setNamedQueryRegistry(getNamedQueryRegistry()) //
+				.setDefaultHints(getDefaultHints());
+	}
+
 	public boolean isOpen() {
 		return getEntityManager().isOpen();
 	}
@@ -0,0 +1,79 @@
+package br.dev.juniorlatalisa.persistence;
+
+import java.util.NoSuchElementException;
+
+import javax.persistence.EntityManager;
+
+import org.hibernate.ScrollableResults;
+
+/**
+ * Cursor sobre um {@link ScrollableResults} que busca os registros sob demanda
+ * e limpa o contexto de persistência a cada intervalo de registros lidos,
+ * mantendo o consumo de memória constante independente do tamanho do
+ * resultado.
+ *
+ * @author Junior Latalisa
+ * @param <T> Tipo dos elementos.
+ * @see JPAQuery#iterator(JPAQuery.QueryStrategy, String, java.util.Map, int,
+ *      int, int, int)
+ */
+public class JPAQueryIterator<T> implements CloseableIterator<T> {
+
+	public JPAQueryIterator(ScrollableResults results, EntityManager entityManager, int clearInterval) {
+		this.results = results;
+		this.entityManager = entityManager;
+		this.clearInterval = clearInterval;
+	}
+
+	private final ScrollableResults results;
+	private final EntityManager entityManager;
+	private final int clearInterval;
+
+	private long count = 0;
+	private boolean closed = false;
+	private Boolean next = null;
+
+	@Override
+	public boolean hasNext() {
+		if (closed) {
+			return false;
+		}
+		if (next == null) {
+			if ((clearInterval > 0) && (count > 0) && (count % clearInterval == 0)) {
+				entityManager.clear();
+			}
+			if (!(next = results.next())) {
+				close();
+			}
+		}
+		return next;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public T next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		next = null;
+		count++;
+		final Object[] row = results.get();
+		return (T) ((row.length == 1) ? row[0] : row);
+	}
+
+	/**
+	 * Quantidade de registros lidos até o momento.
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	@Override
+	public void close() {
+		if (!closed) {
+			closed = true;
+			next = Boolean.FALSE;
+			results.close();
+		}
+	}
+}
@@ -1,22 +1,49 @@
 package br.dev.juniorlatalisa.persistence;
 
 import java.io.Serializable;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
 import javax.naming.NamingException;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.PersistenceException;
+import javax.persistence.SharedCacheMode;
 import javax.persistence.spi.PersistenceUnitTransactionType;
 import javax.sql.DataSource;
 
+import org.hibernate.MultiTenancyStrategy;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.context.spi.CurrentTenantIdentifierResolver;
 import org.hibernate.jpa.HibernatePersistenceProvider;
 
 import br.dev.juniorlatalisa.model.Entidade;
+import br.dev.juniorlatalisa.model.PrimaryKeyId;
 import br.dev.juniorlatalisa.utils.ObjectUtils;
+import br.dev.juniorlatalisa.utils.ThreadUtils;
 
 /**
  * @author Junior Latalisa
@@ -63,46 +90,630 @@ public abstract class JPAQueryMultiDataBase<E extends Entidade> extends JPAQuery
 	protected EntityManagerFactory createEntityManagerFactory(String persistenceUnitName) {
 		final DataSource dataSource;
 		try {
-			dataSource = getDataSourceLookup().doLookupDataSource(persistenceUnitName);
+			dataSource = lookupDataSource(persistenceUnitName);
 		} catch (NamingException e) {
 			throw new PersistenceException(e);
 		}
 		final List<String> managedClassNames = getMappedClasses().values().stream().map(Class::getCanonicalName)
 				.sorted().collect(Collectors.toList());
-		return createJPAFactoryBuilder(dataSource, persistenceUnitName) //
+		final EntityManagerFactory factory = configureCache(createJPAFactoryBuilder(dataSource, persistenceUnitName)) //
 				.setManagedClassNames(managedClassNames) //
 				.build();
+		factoryDataSources.put(getFactoryKey(persistenceUnitName), dataSource);
+		final JPANamedQueryRegistry registry = getNamedQueryRegistry();
+		if (registry != null) {
+			registry.addNamedQueries(factory);
+		}
+		return factory;
+	}
+
+	/**
+	 * Quando verdadeiro, todos os contextos utilizam um único
+	 * {@link EntityManagerFactory} (multi-tenancy DATABASE do Hibernate), com os
+	 * metadados e o mapeamento das entidades criados apenas uma vez e as conexões
+	 * obtidas do {@link DataSource} do contexto de cada {@link EntityManager}. A
+	 * geração do esquema (hbm2ddl) não é suportada neste modo. O padrão é falso
+	 * (um {@link EntityManagerFactory} por contexto).
+	 * 
+	 * @see MultiTenantDataSourceProvider
+	 */
+	protected boolean isSharedMetadata() {
+		return false;
+	}
+
+	/**
+	 * Chave do {@link EntityManagerFactory} do contexto no registro e em
+	 * {@link #getFactories()}.
+	 */
+	protected String getFactoryKey(String persistenceUnitName) {
+		return isSharedMetadata() ? SHARED_FACTORY : persistenceUnitName;
+	}
+
+	/**
+	 * Cria o {@link EntityManagerFactory} compartilhado pelos contextos.
+	 * 
+	 * @param persistenceUnitName Contexto utilizado na inicialização.
+	 * @see #isSharedMetadata()
+	 */
+	protected EntityManagerFactory createSharedEntityManagerFactory(String persistenceUnitName) {
+		final List<String> managedClassNames = getMappedClasses().values().stream().map(Class::getCanonicalName)
+				.sorted().collect(Collectors.toList());
+		final MultiTenantDataSourceProvider provider = new MultiTenantDataSourceProvider(this::lookupDataSource,
+				persistenceUnitName);
+		final EntityManagerFactory factory = configureCache(createJPAFactoryBuilder(null, SHARED_FACTORY)) //
+				.setManagedClassNames(managedClassNames) //
+				.setProperty(AvailableSettings.MULTI_TENANT, MultiTenancyStrategy.DATABASE.name()) //
+				.setProperty(AvailableSettings.MULTI_TENANT_CONNECTION_PROVIDER, provider) //
+				.setProperty(AvailableSettings.MULTI_TENANT_IDENTIFIER_RESOLVER, new CurrentTenantIdentifierResolver() {
+
+					@Override
+					public String resolveCurrentTenantIdentifier() {
+						return getContexto();
+					}
+
+					@Override
+					public boolean validateExistingCurrentSessions() {
+						return false;
+					}
+				}) //
+				.build();
+		tenantProviders.put(factory, provider);
+		final JPANamedQueryRegistry registry = getNamedQueryRegistry();
+		if (registry != null) {
+			registry.addNamedQueries(factory);
+		}
+		return factory;
+	}
+
+	/**
+	 * Cria o {@link EntityManager} do contexto, informando o tenant quando o
+	 * {@link EntityManagerFactory} é compartilhado.
+	 */
+	protected EntityManager createEntityManager(EntityManagerFactory factory, String contexto) {
+		return isSharedMetadata()
+				? factory.unwrap(SessionFactory.class).withOptions().tenantIdentifier(contexto).openSession()
+				: factory.createEntityManager();
+	}
+
+	/**
+	 * Separador do nome das réplicas: o contexto seguido do índice da réplica (ex:
+	 * "empresa1#replica-0"), utilizado como chave do {@link EntityManagerFactory}
+	 * da réplica (ou como tenant quando {@link #isSharedMetadata()}).
+	 */
+	public static final String REPLICA_SEPARATOR = "#replica-";
+
+	/**
+	 * Critério de escolha da réplica de leitura.
+	 * 
+	 * @see JPAQueryMultiDataBase#getReplicaSelection()
+	 */
+	public enum ReplicaSelection {
+		/**
+		 * Alterna entre as réplicas a cada consulta.
+		 */
+		ROUND_ROBIN,
+		/**
+		 * Réplica com o menor tempo médio (exponencial) das últimas consultas. A
+		 * primeira consulta de cada réplica (que inclui a criação do
+		 * {@link EntityManagerFactory}) não é considerada e, a cada 16 consultas,
+		 * uma é enviada às réplicas alternadamente, atualizando o tempo das mais
+		 * lentas.
+		 */
+		LEAST_LATENCY
+	}
+
+	private final Map<String, ReplicaSet> replicaSets = new ConcurrentHashMap<>();
+
+	/**
+	 * Critério de escolha entre as réplicas do contexto
+	 * ({@link DataSourceLookup#doLookupReplicaDataSources(String)}). O padrão é
+	 * {@link ReplicaSelection#ROUND_ROBIN}.
+	 */
+	protected ReplicaSelection getReplicaSelection() {
+		return ReplicaSelection.ROUND_ROBIN;
+	}
+
+	/**
+	 * Obtém o {@link DataSource} do contexto ou, para os nomes com
+	 * {@link #REPLICA_SEPARATOR}, da réplica do contexto.
+	 */
+	protected DataSource lookupDataSource(String persistenceUnitName) throws NamingException {
+		final int separador = persistenceUnitName.lastIndexOf(REPLICA_SEPARATOR);
+		if (separador < 0) {
+			return getDataSourceLookup().doLookupDataSource(persistenceUnitName);
+		}
+		final String contexto = persistenceUnitName.substring(0, separador);
+		final int replica = Integer.parseInt(persistenceUnitName.substring(separador + REPLICA_SEPARATOR.length()));
+		final ReplicaSet replicaSet = getReplicaSet(contexto);
+		final DataSource dataSource = replicaSet.dataSources.get(replica);
+		if (dataSource != null) {
+			return dataSource;
+		}
+		final DataSource created = getDataSourceLookup().doLookupReplicaDataSources(contexto).get(replica);
+		final DataSource existing = replicaSet.dataSources.compareAndExchange(replica, null, created);
+		return (existing == null) ? created : existing;
+	}
+
+	/**
+	 * Libera o {@link DataSource} do contexto ou da réplica
+	 * ({@link DataSourceLookup#release(DataSource)}). A réplica é obtida
+	 * novamente na próxima utilização, mantendo o tempo médio das consultas das
+	 * demais.
+	 */
+	private void releaseDataSource(String persistenceUnitName, DataSource dataSource) {
+		final int separador = persistenceUnitName.lastIndexOf(REPLICA_SEPARATOR);
+		if (separador >= 0) {
+			final ReplicaSet replicaSet = replicaSets.get(persistenceUnitName.substring(0, separador));
+			if (replicaSet != null) {
+				replicaSet.dataSources.compareAndSet(
+						Integer.parseInt(persistenceUnitName.substring(separador + REPLICA_SEPARATOR.length())),
+						dataSource, null);
+			}
+		}
+		try {
+			getDataSourceLookup().release(dataSource);
+		} catch (RuntimeException e) {
+			LOGGER.log(Level.WARNING, "Falha ao liberar o DataSource de " + persistenceUnitName, e);
+		}
+	}
+
+	private ReplicaSet getReplicaSet(String contexto) {
+		final ReplicaSet replicaSet = replicaSets.get(contexto);
+		if (replicaSet != null) {
+			return replicaSet;
+		}
+		final ReplicaSet created;
+		try {
+			created = new ReplicaSet(getDataSourceLookup().doLookupReplicaDataSources(contexto));
+		} catch (NamingException e) {
+			throw new PersistenceException(e);
+		}
+		final ReplicaSet existing = replicaSets.putIfAbsent(contexto, created);
+		return (existing == null) ? created : existing;
+	}
+
+	/**
+	 * Réplicas de um contexto e o tempo médio das consultas de cada uma. O
+	 * {@link DataSource} da réplica liberada é null até a próxima utilização.
+	 */
+	private static final class ReplicaSet {
+
+		/**
+		 * Intervalo das consultas enviadas às réplicas alternadamente no
+		 * {@link ReplicaSelection#LEAST_LATENCY}.
+		 */
+		private static final int PROBE_INTERVAL = 16;
+
+		private ReplicaSet(List<DataSource> dataSources) {
+			this.dataSources = new AtomicReferenceArray<>(dataSources.toArray(new DataSource[dataSources.size()]));
+			this.latencies = new AtomicLongArray(dataSources.size());
+			this.samples = new AtomicLongArray(dataSources.size());
+		}
+
+		private final AtomicReferenceArray<DataSource> dataSources;
+		private final AtomicLongArray latencies;
+		private final AtomicLongArray samples;
+		private final AtomicInteger next = new AtomicInteger();
+		private final AtomicInteger probe = new AtomicInteger();
+
+		private boolean isEmpty() {
+			return dataSources.length() == 0;
+		}
+
+		private int select(ReplicaSelection selection) {
+			if (ReplicaSelection.LEAST_LATENCY.equals(selection)) {
+				if (Math.floorMod(next.getAndIncrement(), PROBE_INTERVAL) == 0) {
+					return Math.floorMod(probe.getAndIncrement(), dataSources.length());
+				}
+				int retorno = 0;
+				for (int i = 1; i < latencies.length(); i++) {
+					if (latencies.get(i) < latencies.get(retorno)) {
+						retorno = i;
+					}
+				}
+				return retorno;
+			}
+			return Math.floorMod(next.getAndIncrement(), dataSources.length());
+		}
+
+		private void record(int replica, long nanos) {
+			if (samples.getAndIncrement(replica) == 0) {
+				return;
+			}
+			latencies.getAndUpdate(replica, atual -> (atual == 0) ? nanos : atual + ((nanos - atual) / 8));
+		}
+	}
+
+	/**
+	 * Modo do cache de segundo nível dos contextos, o padrão é null (sem cache).
+	 * 
+	 * @see #configureCache(JPAFactoryBuilder)
+	 */
+	protected SharedCacheMode getSharedCacheMode() {
+		return null;
+	}
+
+	/**
+	 * Configura o cache de segundo nível de cada contexto conforme
+	 * {@link #getSharedCacheMode()}, utilizando o provedor em memória
+	 * {@link LocalRegionFactory}. Assim as leituras por
+	 * {@link #read(Class, Serializable)} são compartilhadas entre os
+	 * {@link EntityManager} do mesmo contexto.
+	 */
+	protected JPAFactoryBuilder configureCache(JPAFactoryBuilder builder) {
+		final SharedCacheMode sharedCacheMode = getSharedCacheMode();
+		if ((sharedCacheMode == null) || SharedCacheMode.NONE.equals(sharedCacheMode)) {
+			return builder;
+		}
+		return builder.setSharedCacheMode(sharedCacheMode).setLocalCache(10_000, 0);
 	}
 
+	private static final Logger LOGGER = Logger.getLogger("JPAQueryMultiDataBase");
+
+	/**
+	 * Chave do {@link EntityManagerFactory} compartilhado pelos contextos.
+	 * 
+	 * @see #isSharedMetadata()
+	 */
+	public static final String SHARED_FACTORY = "JPAQueryMultiDataBase.shared";
+
+	/**
+	 * Tempo mínimo sem utilização para o fechamento pelo excesso de
+	 * {@link EntityManagerFactory}, evitando fechar os recém obtidos.
+	 */
+	private static final long MIN_IDLE = TimeUnit.SECONDS.toNanos(1);
+
+	private final Map<String, FactoryEntry> factoryRegistry = new ConcurrentHashMap<>();
+	private final Map<String, DataSource> factoryDataSources = new ConcurrentHashMap<>();
+	/**
+	 * Conexões dos tenants do {@link EntityManagerFactory} compartilhado.
+	 */
+	private final Map<EntityManagerFactory, MultiTenantDataSourceProvider> tenantProviders = new ConcurrentHashMap<>();
+	private final AtomicLong evictedFactories = new AtomicLong();
+	private volatile long lastEviction = System.nanoTime();
+
+	/**
+	 * Quantidade máxima de {@link EntityManagerFactory} abertos, os menos
+	 * utilizados recentemente (e sem {@link EntityManager} em uso) são fechados.
+	 * O limite pode ser excedido enquanto todos estiverem em uso. O padrão é 0
+	 * (sem limite).
+	 * 
+	 * @see #evictFactories()
+	 */
+	protected int getMaxFactories() {
+		return 0;
+	}
+
+	/**
+	 * Tempo sem utilização após o qual o {@link EntityManagerFactory} do contexto
+	 * é fechado. O padrão é {@link Duration#ZERO} (sem expiração).
+	 * 
+	 * @see #evictFactories()
+	 */
+	protected Duration getFactoryIdleTimeout() {
+		return Duration.ZERO;
+	}
+
+	/**
+	 * Obtém (ou cria) o {@link EntityManagerFactory} do contexto. Os já criados
+	 * são obtidos sem bloqueio, durante a criação apenas as chamadas do mesmo
+	 * contexto aguardam e, em caso de falha, a próxima chamada tenta novamente.
+	 * <p>
+	 * O {@link EntityManagerFactory} retornado pode ser fechado pela expiração
+	 * ({@link #evictFactories()}), exceto durante o
+	 * {@link #run(Supplier, boolean)} e os cursores do contexto.
+	 */
 	protected EntityManagerFactory getEntityManagerFactory(String persistenceUnitName) {
+		return getFactoryEntry(persistenceUnitName).getFactory();
+	}
+
+	private FactoryEntry getFactoryEntry(String persistenceUnitName) {
+		final String key = getFactoryKey(persistenceUnitName);
+		FactoryEntry entry = factoryRegistry.get(key);
+		if (entry == null) {
+			final FactoryEntry created = new FactoryEntry();
+			entry = factoryRegistry.putIfAbsent(key, created);
+			if (entry == null) {
+				entry = created;
+				buildEntityManagerFactory(key, persistenceUnitName, created);
+				if (getMaxFactories() > 0) {
+					evictFactories();
+				}
+			}
+		}
+		entry.lastAccess = System.nanoTime();
+		checkEviction(entry.lastAccess);
+		return entry;
+	}
+
+	/**
+	 * Obtém o {@link EntityManagerFactory} do contexto impedindo a sua expiração
+	 * até o {@link FactoryEntry#release()}.
+	 */
+	private FactoryEntry acquireFactory(String persistenceUnitName) {
+		for (;;) {
+			final FactoryEntry entry = getFactoryEntry(persistenceUnitName);
+			entry.getFactory();
+			if (entry.acquire()) {
+				return entry;
+			}
+			factoryRegistry.remove(getFactoryKey(persistenceUnitName), entry);
+		}
+	}
+
+	private void buildEntityManagerFactory(String key, String persistenceUnitName, FactoryEntry entry) {
+		try {
+			final var factories = getFactories();
+			EntityManagerFactory factory;
+			synchronized (factories) {
+				factory = factories.get(key);
+			}
+			if (factory == null) {
+				factory = isSharedMetadata() ? createSharedEntityManagerFactory(persistenceUnitName)
+						: createEntityManagerFactory(persistenceUnitName);
+				synchronized (factories) {
+					factories.put(key, factory);
+				}
+			}
+			entry.future.complete(factory);
+		} catch (RuntimeException | Error e) {
+			factoryRegistry.remove(key, entry);
+			entry.future.completeExceptionally(e);
+			throw e;
+		}
+	}
+
+	private void checkEviction(long agora) {
+		final long idleTimeout = getFactoryIdleTimeout().toNanos();
+		if ((getMaxFactories() > 0) || (idleTimeout > 0)) {
+			final long intervalo = (idleTimeout > 0) ? Math.min(idleTimeout / 2, TimeUnit.MINUTES.toNanos(1))
+					: TimeUnit.SECONDS.toNanos(1);
+			if (agora - lastEviction > intervalo) {
+				lastEviction = agora;
+				evictFactories();
+			}
+		}
+	}
+
+	/**
+	 * Fecha os {@link EntityManagerFactory} sem utilização há mais tempo que
+	 * {@link #getFactoryIdleTimeout()} e os menos utilizados recentemente além de
+	 * {@link #getMaxFactories()}. Os contextos com {@link EntityManager} em uso
+	 * são mantidos. Executado automaticamente durante a obtenção dos
+	 * {@link EntityManagerFactory}.
+	 * <p>
+	 * No {@link #isSharedMetadata()} os mesmos limites são aplicados aos
+	 * {@link DataSource} dos contextos (tenants) sem conexões em uso.
+	 * 
+	 * @return Quantidade de {@link EntityManagerFactory} fechados e de
+	 *         {@link DataSource} de tenants liberados.
+	 */
+	public int evictFactories() {
+		return evictFactories(Duration.ofNanos(MIN_IDLE));
+	}
+
+	/**
+	 * Fecha os {@link EntityManagerFactory} expirados e os excedentes sem
+	 * utilização há mais tempo que minIdle.
+	 * 
+	 * @param minIdle Tempo mínimo sem utilização para o fechamento pelo excesso
+	 *                de {@link EntityManagerFactory}.
+	 * @see #evictFactories()
+	 */
+	public int evictFactories(Duration minIdle) {
+		final long agora = System.nanoTime();
+		final long minIdleNanos = minIdle.toNanos();
+		final long idleTimeout = getFactoryIdleTimeout().toNanos();
+		final int maxFactories = getMaxFactories();
+		final List<Map.Entry<String, FactoryEntry>> candidatos = factoryRegistry.entrySet().stream()
+				.filter(e -> e.getValue().isBuilt())
+				.sorted(Comparator.comparingLong(e -> e.getValue().lastAccess))
+				.collect(Collectors.toList());
+		int abertos = candidatos.size();
+		int retorno = 0;
+		for (Map.Entry<String, FactoryEntry> candidato : candidatos) {
+			final FactoryEntry entry = candidato.getValue();
+			final long ocioso = agora - entry.lastAccess;
+			final boolean expirado = (idleTimeout > 0) && (ocioso > idleTimeout);
+			final boolean excedente = (maxFactories > 0) && (abertos > maxFactories) && (ocioso >= minIdleNanos);
+			if ((expirado || excedente) && entry.evict()) {
+				factoryRegistry.remove(candidato.getKey(), entry);
+				closeEntityManagerFactory(candidato.getKey(), entry.getFactory());
+				evictedFactories.incrementAndGet();
+				abertos--;
+				retorno++;
+			}
+		}
+		for (MultiTenantDataSourceProvider provider : tenantProviders.values()) {
+			retorno += provider.evictTenants(Duration.ofNanos(idleTimeout), maxFactories, minIdle,
+					this::releaseDataSource);
+		}
+		return retorno;
+	}
+
+	/**
+	 * Fecha o {@link EntityManagerFactory} e libera o {@link DataSource} do
+	 * contexto, ou de todos os tenants do {@link EntityManagerFactory}
+	 * compartilhado ({@link DataSourceLookup#release(DataSource)}).
+	 */
+	protected void closeEntityManagerFactory(String persistenceUnitName, EntityManagerFactory factory) {
 		final var factories = getFactories();
-		final EntityManagerFactory factory;
 		synchronized (factories) {
-			factory = factories.computeIfAbsent(persistenceUnitName, this::createEntityManagerFactory);
+			factories.remove(persistenceUnitName, factory);
+		}
+		try {
+			factory.close();
+		} catch (RuntimeException e) {
+			LOGGER.log(Level.WARNING, "Falha ao fechar o EntityManagerFactory de " + persistenceUnitName, e);
+		}
+		final MultiTenantDataSourceProvider provider = tenantProviders.remove(factory);
+		if (provider != null) {
+			provider.evictAll(this::releaseDataSource);
+		}
+		final DataSource dataSource = factoryDataSources.remove(persistenceUnitName);
+		if (dataSource != null) {
+			releaseDataSource(persistenceUnitName, dataSource);
+		}
+	}
+
+	/**
+	 * Cria em paralelo os {@link EntityManagerFactory} dos contextos (ex: na
+	 * inicialização), evitando a demora da criação na primeira requisição.
+	 * 
+	 * @param parallelism Quantidade de contextos criados simultaneamente.
+	 * @return Concluído quando todos os contextos forem criados, ou com a falha
+	 *         de algum deles.
+	 */
+	public CompletableFuture<Void> warmUp(Collection<String> contextos, int parallelism) {
+		final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, parallelism),
+				ThreadUtils.createThreadFactory("JPAQueryMultiDataBase-warmUp", Thread.NORM_PRIORITY));
+		final CompletableFuture<Void> retorno = CompletableFuture.allOf(contextos.stream()
+				.map(contexto -> CompletableFuture.runAsync(() -> getEntityManagerFactory(contexto), executor))
+				.toArray(CompletableFuture[]::new));
+		retorno.whenComplete((r, e) -> executor.shutdown());
+		return retorno;
+	}
+
+	/**
+	 * Quantidade de {@link EntityManagerFactory} abertos (ou em criação).
+	 */
+	public int getFactoryCount() {
+		return factoryRegistry.size();
+	}
+
+	public long getEvictedFactories() {
+		return evictedFactories.get();
+	}
+
+	/**
+	 * {@link EntityManagerFactory} de um contexto e o seu estado no registro.
+	 */
+	private static final class FactoryEntry {
+
+		private final CompletableFuture<EntityManagerFactory> future = new CompletableFuture<>();
+		private final AtomicInteger inUse = new AtomicInteger();
+		private volatile long lastAccess = System.nanoTime();
+
+		private EntityManagerFactory getFactory() {
+			try {
+				return future.join();
+			} catch (CompletionException e) {
+				throw (e.getCause() instanceof PersistenceException) ? (PersistenceException) e.getCause()
+						: new PersistenceException(e.getCause());
+			}
+		}
+
+		private boolean isBuilt() {
+			return future.isDone() && (!future.isCompletedExceptionally());
+		}
+
+		private boolean acquire() {
+			for (;;) {
+				final int atual = inUse.get();
+				if (atual < 0) {
+					return false;
+				}
+				if (inUse.compareAndSet(atual, atual + 1)) {
+					return true;
+				}
+			}
+		}
+
+		private void release() {
+			inUse.decrementAndGet();
+		}
+
+		private boolean evict() {
+			return inUse.compareAndSet(0, -1);
 		}
-		return factory;
 	}
 
 	protected <T> T run(Supplier<T> command) {
 		return run(command, false);
 	}
 
-	protected <T> T run(Supplier<T> command, boolean transaction) {
+	protected String getContexto() {
 		final String contexto = getContextThreadLocal().get();
 		if (ObjectUtils.isEmpty(contexto)) {
 			throw new PersistenceException("Contexto não foi definido");
 		}
-		final var entityManager = getEntityManagerThreadLocal();
-		final EntityManager em = getEntityManagerFactory(contexto).createEntityManager();
+		return contexto;
+	}
+
+	protected EntityManager createEntityManager() {
+		final String contexto = getContexto();
+		return createEntityManager(getEntityManagerFactory(contexto), contexto);
+	}
+
+	/**
+	 * Executa o comando em um novo {@link EntityManager} ou, dentro de uma
+	 * unidade de trabalho ({@link #begin(boolean)}), no {@link EntityManager}
+	 * dela.
+	 */
+	protected <T> T run(Supplier<T> command, boolean transaction) {
+		final EntityManager bound = getEntityManagerThreadLocal().get();
+		if (bound != null) {
+			return (transaction && (!bound.getTransaction().isActive())) ? transaction(bound, command)
+					: command.get();
+		}
+		return run(getContexto(), command, transaction);
+	}
+
+	/**
+	 * Executa a consulta em uma réplica do contexto
+	 * ({@link DataSourceLookup#doLookupReplicaDataSources(String)}) escolhida
+	 * conforme {@link #getReplicaSelection()}. Dentro de uma unidade de trabalho,
+	 * ou sem réplicas, a consulta é executada no banco de dados principal, assim
+	 * as leituras de uma unidade de trabalho enxergam as suas próprias alterações.
+	 */
+	protected <T> T runReadOnly(Supplier<T> command) {
+		return runReadOnly(null, command);
+	}
+
+	/**
+	 * As consultas com {@link #HINT_LOCK_MODE} são executadas no banco de dados
+	 * principal, em uma transação quando o bloqueio é pessimista.
+	 * 
+	 * @see #runReadOnly(Supplier)
+	 */
+	protected <T> T runReadOnly(Map<String, Object> hints, Supplier<T> command) {
+		if (getHint(hints, HINT_LOCK_MODE) != null) {
+			return run(command, isPessimisticLock(hints));
+		}
+		if (getEntityManagerThreadLocal().get() != null) {
+			return command.get();
+		}
+		final String contexto = getContexto();
+		final ReplicaSet replicaSet = getReplicaSet(contexto);
+		if (replicaSet.isEmpty()) {
+			return run(contexto, command, false);
+		}
+		final int replica = replicaSet.select(getReplicaSelection());
+		final long inicio = System.nanoTime();
+		try {
+			return run(contexto + REPLICA_SEPARATOR + replica, command, false);
+		} finally {
+			replicaSet.record(replica, System.nanoTime() - inicio);
+		}
+	}
+
+	private <T> T run(String persistenceUnitName, Supplier<T> command, boolean transaction) {
+		final FactoryEntry factory = acquireFactory(persistenceUnitName);
 		try {
-			entityManager.set(em);
+			final var entityManager = getEntityManagerThreadLocal();
+			final EntityManager em = createEntityManager(factory.getFactory(), persistenceUnitName);
 			try {
-				return transaction ? transaction(em, command) : command.get();
+				entityManager.set(em);
+				try {
+					return transaction ? transaction(em, command) : command.get();
+				} finally {
+					entityManager.remove();
+				}
 			} finally {
-				entityManager.remove();
+				em.close();
 			}
 		} finally {
-			em.close();
+			factory.release();
 		}
 	}
 
@@ -119,6 +730,184 @@ public abstract class JPAQueryMultiDataBase<E extends Entidade> extends JPAQuery
 		}
 	}
 
+	/**
+	 * Inicia uma unidade de trabalho: o mesmo {@link EntityManager} (e a
+	 * transação, quando solicitada) é utilizado por todas as operações da thread
+	 * até o {@link UnitOfWork#close()}. Dentro de outra unidade de trabalho, a
+	 * nova participa da existente.
+	 *
+	 * <pre class="prettyprint linenums">
+	 * <code class="language-java"
+	 * >try (var uow = query.begin(true)) {
+	 *     Cliente cliente = query.read(Cliente.class, id);
+	 *     cliente.setNome(nome);
+	 *     query.update(cliente);
+	 *     uow.commit();
+	 * }</code>
+	 * </pre>
+	 * 
+	 * @param transaction Inicia uma transação, desfeita no
+	 *                    {@link UnitOfWork#close()} caso não seja confirmada por
+	 *                    {@link UnitOfWork#commit()}.
+	 */
+	public UnitOfWork begin(boolean transaction) {
+		final var entityManager = getEntityManagerThreadLocal();
+		final EntityManager bound = entityManager.get();
+		if (bound != null) {
+			return new UnitOfWork(null, bound, transaction && beginTransaction(bound));
+		}
+		final FactoryEntry factory = acquireFactory(getContexto());
+		try {
+			final EntityManager em = createEntityManager();
+			try {
+				entityManager.set(em);
+				return new UnitOfWork(factory, em, transaction && beginTransaction(em));
+			} catch (RuntimeException e) {
+				entityManager.remove();
+				em.close();
+				throw e;
+			}
+		} catch (RuntimeException e) {
+			factory.release();
+			throw e;
+		}
+	}
+
+	private boolean beginTransaction(EntityManager em) {
+		if (em.getTransaction().isActive()) {
+			return false;
+		}
+		em.getTransaction().begin();
+		return true;
+	}
+
+	/**
+	 * Executa o comando em uma unidade de trabalho, confirmando a transação ao
+	 * final.
+	 * 
+	 * @see #begin(boolean)
+	 */
+	public <T> T unitOfWork(Supplier<T> command, boolean transaction) {
+		try (UnitOfWork unitOfWork = begin(transaction)) {
+			final T retorno = command.get();
+			unitOfWork.commit();
+			return retorno;
+		}
+	}
+
+	/**
+	 * {@link EntityManager} (e transação) vinculado à thread durante a unidade de
+	 * trabalho.
+	 * 
+	 * @see JPAQueryMultiDataBase#begin(boolean)
+	 */
+	public class UnitOfWork implements AutoCloseable {
+
+		private UnitOfWork(FactoryEntry factory, EntityManager entityManager, boolean ownsTransaction) {
+			this.factory = factory;
+			this.entityManager = entityManager;
+			this.ownsTransaction = ownsTransaction;
+		}
+
+		private final FactoryEntry factory;
+		private final EntityManager entityManager;
+		private final boolean ownsTransaction;
+
+		public EntityManager getEntityManager() {
+			return entityManager;
+		}
+
+		/**
+		 * Indica se esta unidade de trabalho criou o {@link EntityManager} (ou
+		 * participa de uma existente).
+		 */
+		public boolean isOwner() {
+			return factory != null;
+		}
+
+		/**
+		 * Confirma a transação iniciada por esta unidade de trabalho.
+		 */
+		public void commit() {
+			if (ownsTransaction && entityManager.getTransaction().isActive()) {
+				entityManager.getTransaction().commit();
+			}
+		}
+
+		/**
+		 * Desfaz a transação não confirmada e, quando criado por esta unidade de
+		 * trabalho, fecha o {@link EntityManager}.
+		 */
+		@Override
+		public void close() {
+			try {
+				if (ownsTransaction && entityManager.getTransaction().isActive()) {
+					entityManager.getTransaction().rollback();
+				}
+			} finally {
+				if (factory != null) {
+					try {
+						getEntityManagerThreadLocal().remove();
+						entityManager.close();
+					} finally {
+						factory.release();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Executa a tarefa de forma assíncrona no contexto atual, em uma unidade de
+	 * trabalho própria ({@link #begin(boolean)}), sempre no banco de dados
+	 * principal. O {@link EntityManagerFactory} do contexto não expira enquanto a
+	 * tarefa aguarda a execução.
+	 * 
+	 * @see #asyncReadOnly(Map, Function)
+	 */
+	@Override
+	public <T> QueryFuture<T> async(Function<JPAQuery, T> task) {
+		final String contexto = getContexto();
+		final FactoryEntry factory = acquireFactory(contexto);
+		final QueryFuture<T> retorno = QueryFuture.supplyAsync(future -> {
+			final var contextThreadLocal = getContextThreadLocal();
+			contextThreadLocal.set(contexto);
+			try (UnitOfWork unitOfWork = begin(false)) {
+				future.onCancel(() -> unitOfWork.getEntityManager().unwrap(Session.class).cancelQuery());
+				return task.apply(this);
+			} finally {
+				contextThreadLocal.remove();
+			}
+		}, QueryFuture.getDefaultExecutor());
+		retorno.whenComplete((r, e) -> factory.release());
+		return retorno;
+	}
+
+	/**
+	 * Executa a tarefa que apenas lê de forma assíncrona no contexto atual, em
+	 * uma réplica escolhida conforme {@link #runReadOnly(Map, Supplier)} (no
+	 * banco de dados principal quando não há réplicas ou com
+	 * {@link #HINT_LOCK_MODE}). Todas as consultas da tarefa utilizam o mesmo
+	 * {@link EntityManager}.
+	 */
+	@Override
+	public <T> QueryFuture<T> asyncReadOnly(Map<String, Object> hints, Function<JPAQuery, T> task) {
+		final String contexto = getContexto();
+		return QueryFuture.supplyAsync(future -> {
+			final var contextThreadLocal = getContextThreadLocal();
+			contextThreadLocal.set(contexto);
+			try {
+				return runReadOnly(hints, () -> {
+					final EntityManager entityManager = getEntityManager();
+					future.onCancel(() -> entityManager.unwrap(Session.class).cancelQuery());
+					return task.apply(this);
+				});
+			} finally {
+				contextThreadLocal.remove();
+			}
+		}, QueryFuture.getDefaultExecutor());
+	}
+
 	@SuppressWarnings("unchecked")
 	protected <T extends Serializable> Class<T> resolveClass(Class<T> entityClass) {
 		if (getMappedClasses().containsKey(entityClass)) {
@@ -128,14 +917,122 @@ public abstract class JPAQueryMultiDataBase<E extends Entidade> extends JPAQuery
 	}
 
 	@Override
-	public <T extends Serializable> T read(Class<T> entityClass, Serializable primaryKey) {
-		return run(() -> super.read(resolveClass(entityClass), primaryKey));
+	public <T extends Serializable> T read(Class<T> entityClass, Serializable primaryKey, Map<String, Object> hints) {
+		return runReadOnly(hints, () -> super.read(resolveClass(entityClass), primaryKey, hints));
+	}
+
+	@Override
+	public <K extends Serializable, T extends Serializable> Map<K, T> readAll(Class<T> entityClass,
+			Collection<K> primaryKeys, int chunkSize) {
+		return runReadOnly(() -> super.readAll(resolveClass(entityClass), primaryKeys, chunkSize));
+	}
+
+	@Override
+	protected <T> List<T> getResultList(QueryStrategy queryStrategy, String queryValue, Map<String, Object> params,
+			int startResult, int maxResults, Map<String, Object> hints) {
+		return runReadOnly(hints,
+				() -> super.getResultList(queryStrategy, queryValue, params, startResult, maxResults, hints));
 	}
 
 	@Override
-	public <T> List<T> list(QueryStrategy queryStrategy, String queryValue, Map<String, Object> params, int startResult,
-			int maxResults) {
-		return run(() -> super.list(queryStrategy, queryValue, params, startResult, maxResults));
+	public <T> T single(QueryStrategy queryStrategy, String queryValue, Map<String, Object> params,
+			Map<String, Object> hints) {
+		return runReadOnly(hints, () -> super.single(queryStrategy, queryValue, params, hints));
+	}
+
+	@Override
+	public int execute(QueryStrategy queryStrategy, String queryValue, Map<String, Object> params,
+			Map<String, Object> hints) {
+		return run(() -> super.execute(queryStrategy, queryValue, params, hints), true);
+	}
+
+	@Override
+	protected Set<Class<?>> getQueryEntities(QueryStrategy queryStrategy, String queryValue) {
+		return run(() -> super.getQueryEntities(queryStrategy, queryValue));
+	}
+
+	/**
+	 * Os resultados do cache de consultas são separados por contexto.
+	 */
+	@Override
+	protected String getQueryCacheRegion() {
+		return getContexto();
+	}
+
+	/**
+	 * O {@link EntityManager} utilizado pelo cursor permanece aberto até que o
+	 * cursor seja percorrido até o fim ou fechado. Dentro de uma unidade de
+	 * trabalho é utilizado o {@link EntityManager} dela.
+	 */
+	@Override
+	public <T> CloseableIterator<T> iterator(QueryStrategy queryStrategy, String queryValue,
+			Map<String, Object> params, int startResult, int maxResults, int fetchSize, int clearInterval,
+			Map<String, Object> hints) {
+		if (getEntityManagerThreadLocal().get() != null) {
+			return super.iterator(queryStrategy, queryValue, params, startResult, maxResults, fetchSize,
+					clearInterval, hints);
+		}
+		final FactoryEntry factory = acquireFactory(getContexto());
+		final var entityManager = getEntityManagerThreadLocal();
+		final EntityManager em;
+		final CloseableIterator<T> iterator;
+		try {
+			em = createEntityManager();
+			try {
+				entityManager.set(em);
+				try {
+					iterator = super.iterator(queryStrategy, queryValue, params, startResult, maxResults, fetchSize,
+							clearInterval, hints);
+				} finally {
+					entityManager.remove();
+				}
+			} catch (RuntimeException e) {
+				em.close();
+				throw e;
+			}
+		} catch (RuntimeException e) {
+			factory.release();
+			throw e;
+		}
+		return CloseableIterator.onClose(iterator, () -> {
+			try {
+				em.close();
+			} finally {
+				factory.release();
+			}
+		});
+	}
+
+	/**
+	 * Leitura paralela utilizando o contexto atual.
+	 * 
+	 * @see #parallelScan(String, Class)
+	 */
+	@Override
+	public <T extends PrimaryKeyId<Long>> JPAParallelScan<T> parallelScan(Class<T> entityClass) {
+		return parallelScan(getContexto(), entityClass);
+	}
+
+	/**
+	 * Leitura paralela no contexto informado, cada bloco em um
+	 * {@link EntityManager} próprio do {@link EntityManagerFactory} do contexto,
+	 * que não expira durante o {@link JPAParallelScan#execute(Consumer)}.
+	 */
+	public <T extends PrimaryKeyId<Long>> JPAParallelScan<T> parallelScan(String contexto, Class<T> entityClass) {
+		final AtomicReference<EntityManagerFactory> factory = new AtomicReference<>();
+		return new JPAParallelScan<T>(() -> createEntityManager(factory.get(), contexto), resolveClass(entityClass)) {
+
+			@Override
+			public JPAParallelScan<T> execute(Consumer<List<T>> consumer) {
+				final FactoryEntry entry = acquireFactory(contexto);
+				try {
+					factory.set(entry.getFactory());
+					return super.execute(consumer);
+				} finally {
+					entry.release();
+				}
+			}
+		};
 	}
 
 	@Override
@@ -148,4 +1045,30 @@ public abstract class JPAQueryMultiDataBase<E extends Entidade> extends JPAQuery
 		return run(() -> super.update(entity), true);
 	}
 
+	@Override
+	public <T extends Serializable> boolean delete(Class<T> entityClass, Serializable primaryKey) {
+		return run(() -> super.delete(resolveClass(entityClass), primaryKey), true);
+	}
+
+	@Override
+	public <T extends Serializable> int deleteAll(Class<T> entityClass, Collection<? extends Serializable> primaryKeys,
+			int chunkSize) {
+		return run(() -> super.deleteAll(resolveClass(entityClass), primaryKeys, chunkSize), true);
+	}
+
+	@Override
+	public <T extends Serializable> int createAll(Iterable<T> entities, int batchSize) {
+		return run(() -> super.createAll(entities, batchSize), true);
+	}
+
+	@Override
+	public <T extends Serializable> int updateAll(Iterable<T> entities, int batchSize) {
+		return run(() -> super.updateAll(entities, batchSize), true);
+	}
+
+	@Override
+	public <T extends Serializable> int upsertAll(Iterable<T> entities, int batchSize) {
+		return run(() -> super.upsertAll(entities, batchSize), true);
+	}
+
 }
@@ -0,0 +1,390 @@
+package br.dev.juniorlatalisa.persistence;
+
+import java.io.Serializable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceException;
+
+import br.dev.juniorlatalisa.utils.ThreadUtils;
+
+/**
+ * Fila de gravação posterior (write-behind) para entidades que não precisam ser
+ * gravadas na transação da requisição (ex: auditoria e eventos). As entidades
+ * são agrupadas até o tamanho do lote ou o tempo máximo de espera e gravadas em
+ * lotes por uma thread própria.
+ * <p>
+ * Com a fila cheia o {@link #add(Serializable)} aguarda até o tempo máximo de
+ * espera por espaço. O {@link #close()}, também executado no encerramento da
+ * JVM, grava as entidades pendentes antes de encerrar a thread. As falhas de
+ * gravação são entregues ao {@link #setErrorHandler(BiConsumer)}.
+ *
+ * <pre class="prettyprint linenums">
+ * <code class="language-java"
+ * >JPAWriteBehindQueue&lt;Auditoria&gt; fila = JPAWriteBehindQueue.&lt;Auditoria&gt;create(emf)
+ *      .setBatchSize(200)
+ *      .setMaxDelay(Duration.ofMillis(500));
+ * ...
+ * fila.add(auditoria);
+ * ...
+ * fila.close();</code>
+ * </pre>
+ *
+ * @author Junior Latalisa
+ */
+public class JPAWriteBehindQueue<T extends Serializable> implements AutoCloseable {
+
+	private static final Logger LOGGER = Logger.getLogger("JPAWriteBehindQueue");
+
+	/**
+	 * Intervalo de verificação do encerramento com a fila vazia.
+	 */
+	private static final long IDLE_POLL = TimeUnit.MILLISECONDS.toNanos(100);
+
+	/**
+	 * @param writer Grava cada lote de entidades, em uma única transação.
+	 */
+	public JPAWriteBehindQueue(Consumer<List<T>> writer) {
+		this.writer = writer;
+	}
+
+	private final Consumer<List<T>> writer;
+
+	private int capacity = 10_000;
+	private int batchSize = 100;
+	private long maxDelay = TimeUnit.SECONDS.toNanos(1);
+	private volatile long offerTimeout = TimeUnit.SECONDS.toNanos(30);
+	private volatile long shutdownTimeout = TimeUnit.SECONDS.toNanos(30);
+	private volatile BiConsumer<List<T>, RuntimeException> errorHandler = (batch, e) -> LOGGER.log(Level.SEVERE,
+			String.format("Falha na gravação do lote de %d entidades", batch.size()), e);
+
+	private final LatencyHistogram flushLatency = new LatencyHistogram();
+	private final AtomicLong written = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong added = new AtomicLong();
+	private final AtomicLong processed = new AtomicLong();
+
+	private volatile BlockingQueue<T> queue = null;
+	private volatile boolean closed = false;
+	/**
+	 * Leitura no {@link #add(Serializable)} e escrita no {@link #close()}, assim
+	 * nenhuma entidade é adicionada após a thread de gravação observar o
+	 * encerramento.
+	 */
+	private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+	private Thread worker = null;
+	private Thread shutdownHook = null;
+
+	/**
+	 * Quantidade máxima de entidades aguardando gravação.
+	 */
+	public JPAWriteBehindQueue<T> setCapacity(int capacity) {
+		checkNotStarted();
+		if (capacity < 1) {
+			throw new PersistenceException("Capacidade da fila inválida: " + capacity);
+		}
+		this.capacity = capacity;
+		return this;
+	}
+
+	/**
+	 * Quantidade máxima de entidades gravadas por lote.
+	 */
+	public JPAWriteBehindQueue<T> setBatchSize(int batchSize) {
+		checkNotStarted();
+		if (batchSize < 1) {
+			throw new PersistenceException("Tamanho do lote inválido: " + batchSize);
+		}
+		this.batchSize = batchSize;
+		return this;
+	}
+
+	/**
+	 * Tempo máximo de espera, a partir da primeira entidade do lote, para
+	 * completar o lote antes da gravação.
+	 */
+	public JPAWriteBehindQueue<T> setMaxDelay(Duration maxDelay) {
+		checkNotStarted();
+		this.maxDelay = maxDelay.toNanos();
+		return this;
+	}
+
+	/**
+	 * Tempo máximo de espera do {@link #add(Serializable)} com a fila cheia.
+	 */
+	public JPAWriteBehindQueue<T> setOfferTimeout(Duration offerTimeout) {
+		this.offerTimeout = offerTimeout.toNanos();
+		return this;
+	}
+
+	/**
+	 * Tempo máximo de espera do {@link #close()} pela gravação das entidades
+	 * pendentes.
+	 */
+	public JPAWriteBehindQueue<T> setShutdownTimeout(Duration shutdownTimeout) {
+		this.shutdownTimeout = shutdownTimeout.toNanos();
+		return this;
+	}
+
+	/**
+	 * Recebe os lotes não gravados e a falha, o padrão é registrar no log.
+	 */
+	public JPAWriteBehindQueue<T> setErrorHandler(BiConsumer<List<T>, RuntimeException> errorHandler) {
+		this.errorHandler = errorHandler;
+		return this;
+	}
+
+	private void checkNotStarted() {
+		if (queue != null) {
+			throw new PersistenceException("Fila já iniciada");
+		}
+	}
+
+	private BlockingQueue<T> start() {
+		BlockingQueue<T> retorno = queue;
+		if (retorno == null) {
+			synchronized (this) {
+				if (closed) {
+					throw new PersistenceException("Fila encerrada");
+				}
+				retorno = queue;
+				if (retorno == null) {
+					retorno = new ArrayBlockingQueue<>(capacity);
+					worker = ThreadUtils.createThread(this::run, "JPAWriteBehindQueue", Thread.NORM_PRIORITY);
+					worker.setDaemon(true);
+					shutdownHook = ThreadUtils.createThread(this::close, "JPAWriteBehindQueue-shutdown",
+							Thread.NORM_PRIORITY);
+					Runtime.getRuntime().addShutdownHook(shutdownHook);
+					queue = retorno;
+					worker.start();
+				}
+			}
+		}
+		return retorno;
+	}
+
+	/**
+	 * Adiciona a entidade à fila, aguardando por espaço quando a fila estiver
+	 * cheia.
+	 *
+	 * @throws PersistenceException Fila encerrada ou tempo esgotado aguardando
+	 *                              espaço na fila.
+	 */
+	public void add(T entity) {
+		final BlockingQueue<T> queue = start();
+		closeLock.readLock().lock();
+		try {
+			if (closed) {
+				throw new PersistenceException("Fila encerrada");
+			}
+			if (!queue.offer(entity, offerTimeout, TimeUnit.NANOSECONDS)) {
+				rejected.incrementAndGet();
+				throw new PersistenceException("Tempo esgotado aguardando espaço na fila (capacidade " + capacity
+						+ ")");
+			}
+			added.incrementAndGet();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new PersistenceException(e);
+		} finally {
+			closeLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Aguarda a gravação (ou falha) das entidades adicionadas até o momento.
+	 *
+	 * @return Falso quando o tempo se esgotou antes da gravação.
+	 */
+	public boolean awaitFlush(Duration timeout) throws InterruptedException {
+		final long target = added.get();
+		final long deadline = System.nanoTime() + timeout.toNanos();
+		synchronized (processed) {
+			while (processed.get() < target) {
+				final long remaining = deadline - System.nanoTime();
+				if (remaining <= 0) {
+					return false;
+				}
+				TimeUnit.NANOSECONDS.timedWait(processed, remaining);
+			}
+		}
+		return true;
+	}
+
+	private void run() {
+		final BlockingQueue<T> queue = this.queue;
+		final List<T> batch = new ArrayList<>(batchSize);
+		try {
+			while ((!closed) || (!queue.isEmpty())) {
+				final T first = queue.poll(Math.min(maxDelay, IDLE_POLL), TimeUnit.NANOSECONDS);
+				if (first == null) {
+					continue;
+				}
+				batch.add(first);
+				final long deadline = System.nanoTime() + maxDelay;
+				while (batch.size() < batchSize) {
+					queue.drainTo(batch, batchSize - batch.size());
+					final long remaining = deadline - System.nanoTime();
+					if ((batch.size() >= batchSize) || (remaining <= 0) || closed) {
+						break;
+					}
+					final T next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+					if (next == null) {
+						break;
+					}
+					batch.add(next);
+				}
+				write(new ArrayList<>(batch));
+				batch.clear();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			queue.drainTo(batch);
+			if (!batch.isEmpty()) {
+				final List<T> pendentes = new ArrayList<>(batch);
+				try {
+					fail(pendentes, new PersistenceException(
+							String.format("Fila interrompida com %d entidades não gravadas", pendentes.size()), e));
+				} finally {
+					processed(pendentes.size());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Grava o lote utilizando o writer, registrando a latência e as falhas.
+	 */
+	protected void write(List<T> batch) {
+		final long inicio = System.nanoTime();
+		try {
+			writer.accept(batch);
+			written.addAndGet(batch.size());
+		} catch (RuntimeException e) {
+			fail(batch, e);
+		} finally {
+			flushLatency.record(System.nanoTime() - inicio);
+			processed(batch.size());
+		}
+	}
+
+	/**
+	 * Entrega as entidades não gravadas ao {@link #setErrorHandler(BiConsumer)}.
+	 */
+	private void fail(List<T> batch, RuntimeException e) {
+		failed.addAndGet(batch.size());
+		try {
+			errorHandler.accept(batch, e);
+		} catch (RuntimeException handler) {
+			LOGGER.log(Level.SEVERE, "Falha no tratamento do lote não gravado", handler);
+		}
+	}
+
+	private void processed(int count) {
+		synchronized (processed) {
+			processed.addAndGet(count);
+			processed.notifyAll();
+		}
+	}
+
+	/**
+	 * @return Quantidade de entidades aguardando gravação.
+	 */
+	public int getQueueDepth() {
+		final BlockingQueue<T> queue = this.queue;
+		return (queue == null) ? 0 : queue.size();
+	}
+
+	/**
+	 * @return Latência da gravação de cada lote.
+	 */
+	public LatencyHistogram getFlushLatency() {
+		return flushLatency;
+	}
+
+	public long getWrittenCount() {
+		return written.get();
+	}
+
+	public long getFailedCount() {
+		return failed.get();
+	}
+
+	/**
+	 * @return Quantidade de entidades recusadas por tempo esgotado com a fila
+	 *         cheia.
+	 */
+	public long getRejectedCount() {
+		return rejected.get();
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Encerra a fila aguardando a gravação das entidades pendentes até o
+	 * {@link #setShutdownTimeout(Duration)}. Os {@link #add(Serializable)} em
+	 * andamento são concluídos antes do encerramento e as entidades não gravadas
+	 * no tempo são entregues ao {@link #setErrorHandler(BiConsumer)}.
+	 */
+	@Override
+	public void close() {
+		final Thread worker;
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closeLock.writeLock().lock();
+			try {
+				closed = true;
+			} finally {
+				closeLock.writeLock().unlock();
+			}
+			worker = this.worker;
+			if ((shutdownHook != null) && (Thread.currentThread() != shutdownHook)) {
+				try {
+					Runtime.getRuntime().removeShutdownHook(shutdownHook);
+				} catch (IllegalStateException e) {
+					LOGGER.log(Level.FINE, "Encerramento da JVM em andamento", e);
+				}
+			}
+		}
+		if (worker != null) {
+			try {
+				TimeUnit.NANOSECONDS.timedJoin(worker, shutdownTimeout);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			if (worker.isAlive()) {
+				LOGGER.log(Level.WARNING, String.format("Fila encerrada com %d entidades pendentes", getQueueDepth()));
+				worker.interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Fila que grava cada lote com {@link JPAQuery#createAll(Iterable, int)} em
+	 * um {@link javax.persistence.EntityManager} próprio.
+	 */
+	public static <T extends Serializable> JPAWriteBehindQueue<T> create(EntityManagerFactory factory) {
+		return new JPAWriteBehindQueue<>(batch -> {
+			try (JPAQueryEntityTransaction query = JPAQueryEntityTransaction.create(factory.createEntityManager())) {
+				query.createAll(batch, batch.size());
+			}
+		});
+	}
+}
@@ -0,0 +1,112 @@
+package br.dev.juniorlatalisa.persistence;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.persistence.PersistenceException;
+
+/**
+ * Utilitários para reescrever consultas JPQL simples (um único "from" com alias
+ * e cláusulas where/order by opcionais). Subconsultas e literais são ignorados
+ * na localização das cláusulas.
+ *
+ * @author Junior Latalisa
+ */
+public final class JPQLUtils {
+
+	private JPQLUtils() {
+	}
+
+	private static final Pattern ALIAS = Pattern.compile("\\bfrom\\s+[\\w.$]+\\s+(?:as\\s+)?(\\w+)");
+	private static final Pattern FROM = Pattern.compile("\\bfrom\\b");
+	private static final Pattern WHERE = Pattern.compile("\\bwhere\\b");
+	private static final Pattern GROUP_BY = Pattern.compile("\\bgroup\\s+by\\b");
+	private static final Pattern ORDER_BY = Pattern.compile("\\border\\s+by\\b");
+
+	/**
+	 * Cópia da consulta em minúsculo com o conteúdo de literais e parênteses
+	 * substituídos por espaços, preservando as posições.
+	 */
+	static String mask(String jpql) {
+		final char[] retorno = jpql.toCharArray();
+		char quote = 0;
+		int depth = 0;
+		for (int i = 0; i < retorno.length; i++) {
+			final char c = retorno[i] = Character.toLowerCase(retorno[i]);
+			if (quote != 0) {
+				if (c == quote) {
+					quote = 0;
+				}
+				retorno[i] = ' ';
+			} else if ((c == '\'') || (c == '"')) {
+				quote = c;
+				retorno[i] = ' ';
+			} else if (c == '(') {
+				depth++;
+				retorno[i] = ' ';
+			} else if (c == ')') {
+				depth--;
+				retorno[i] = ' ';
+			} else if (depth > 0) {
+				retorno[i] = ' ';
+			}
+		}
+		return new String(retorno);
+	}
+
+	private static int indexOf(Pattern pattern, String masked) {
+		final Matcher matcher = pattern.matcher(masked);
+		return matcher.find() ? matcher.start() : -1;
+	}
+
+	/**
+	 * Alias da entidade principal da consulta.
+	 */
+	public static String getAlias(String jpql) {
+		final Matcher matcher = ALIAS.matcher(mask(jpql));
+		if (matcher.find()) {
+			final String alias = jpql.substring(matcher.start(1), matcher.end(1));
+			if (!alias.toLowerCase().matches("where|order|group|join|inner|left|right|having")) {
+				return alias;
+			}
+		}
+		throw new PersistenceException("Alias não encontrado na consulta: " + jpql);
+	}
+
+	/**
+	 * Retira a cláusula "order by" principal da consulta.
+	 */
+	public static String removeOrderBy(String jpql) {
+		final int index = indexOf(ORDER_BY, mask(jpql));
+		return (index < 0) ? jpql : jpql.substring(0, index).trim();
+	}
+
+	/**
+	 * Substitui a cláusula "select" principal da consulta (ou adiciona quando a
+	 * consulta inicia pelo "from").
+	 * 
+	 * @param select Expressões selecionadas, sem a palavra "select".
+	 */
+	public static String replaceSelect(String jpql, String select) {
+		final int index = indexOf(FROM, mask(jpql));
+		if (index < 0) {
+			throw new PersistenceException("Consulta não suportada: " + jpql);
+		}
+		return String.format("select %s %s", select, jpql.substring(index));
+	}
+
+	/**
+	 * Adiciona a condição à cláusula "where" principal da consulta (ou cria a
+	 * cláusula). A consulta não pode possuir "group by" nem "order by".
+	 */
+	public static String addWhere(String jpql, String condition) {
+		final String masked = mask(jpql);
+		if ((indexOf(GROUP_BY, masked) >= 0) || (indexOf(ORDER_BY, masked) >= 0)) {
+			throw new PersistenceException("Consulta não suportada: " + jpql);
+		}
+		final int index = indexOf(WHERE, masked);
+		return (index < 0) ? String.format("%s where %s", jpql.trim(), condition)
+				: String.format("%s where (%s) and %s", jpql.substring(0, index).trim(),
+						jpql.substring(index + "where".length()).trim(), condition);
+	}
+}
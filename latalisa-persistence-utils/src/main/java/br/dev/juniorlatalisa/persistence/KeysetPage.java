@@ -0,0 +1,143 @@
+package br.dev.juniorlatalisa.persistence;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import javax.persistence.PersistenceException;
+
+import br.dev.juniorlatalisa.utils.ObjectUtils;
+
+/**
+ * Página de uma consulta paginada por chave (keyset/seek), contendo a chave do
+ * último registro para a busca da próxima página.
+ *
+ * @author Junior Latalisa
+ * @param <T> Tipo dos elementos.
+ * @see JPAQueryBuilder#setKeyset(String, Serializable)
+ * @see JPAQueryBuilder#page()
+ */
+public class KeysetPage<T> implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	public KeysetPage(List<T> content, Serializable nextKey, boolean next) {
+		this.content = Collections.unmodifiableList(content);
+		this.nextKey = nextKey;
+		this.next = next;
+	}
+
+	private final List<T> content;
+	private final Serializable nextKey;
+	private final boolean next;
+
+	public List<T> getContent() {
+		return content;
+	}
+
+	/**
+	 * Chave do último registro da página.
+	 */
+	public Serializable getNextKey() {
+		return nextKey;
+	}
+
+	/**
+	 * Indica se a página foi preenchida por completo, ou seja, se pode haver uma
+	 * próxima página.
+	 */
+	public boolean hasNext() {
+		return next;
+	}
+
+	/**
+	 * Chave do último registro codificada em Base64 (URL safe), para ser utilizada
+	 * em {@link JPAQueryBuilder#setKeysetCursor(String, String)}.
+	 * 
+	 * @return O cursor ou null caso não exista próxima página.
+	 */
+	public String getNextCursor() {
+		return ((next) && (nextKey != null)) ? encodeCursor(nextKey) : null;
+	}
+
+	/**
+	 * Codifica a chave em texto (sem serialização Java, já que o cursor
+	 * normalmente é recebido do cliente).
+	 * 
+	 * @see #decodeCursor(String)
+	 */
+	public static String encodeCursor(Serializable key) {
+		final String type;
+		if (key instanceof Long) {
+			type = "L";
+		} else if (key instanceof Integer) {
+			type = "I";
+		} else if (key instanceof Short) {
+			type = "S";
+		} else if (key instanceof BigInteger) {
+			type = "N";
+		} else if (key instanceof BigDecimal) {
+			type = "D";
+		} else if (key instanceof String) {
+			type = "T";
+		} else if (key instanceof LocalDate) {
+			type = "d";
+		} else if (key instanceof LocalDateTime) {
+			type = "t";
+		} else if (key instanceof UUID) {
+			type = "U";
+		} else {
+			throw new PersistenceException("Tipo de chave não suportado: " + key.getClass().getName());
+		}
+		return Base64.getUrlEncoder().withoutPadding()
+				.encodeToString((type + key.toString()).getBytes(StandardCharsets.UTF_8));
+	}
+
+	public static Serializable decodeCursor(String cursor) {
+		if (ObjectUtils.isEmpty(cursor)) {
+			return null;
+		}
+		final String value;
+		try {
+			value = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+			final String key = value.substring(1);
+			switch (value.charAt(0)) {
+				case 'L':
+					return Long.valueOf(key);
+				case 'I':
+					return Integer.valueOf(key);
+				case 'S':
+					return Short.valueOf(key);
+				case 'N':
+					return new BigInteger(key);
+				case 'D':
+					return new BigDecimal(key);
+				case 'T':
+					return key;
+				case 'd':
+					return LocalDate.parse(key);
+				case 't':
+					return LocalDateTime.parse(key);
+				case 'U':
+					return UUID.fromString(key);
+				default:
+					break;
+			}
+		} catch (RuntimeException e) {
+			throw new PersistenceException("Cursor inválido: " + cursor, e);
+		}
+		throw new PersistenceException("Cursor inválido: " + cursor);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("KeysetPage [size=%d, nextKey=%s, next=%s]", content.size(), nextKey, next);
+	}
+}
@@ -0,0 +1,107 @@
+package br.dev.juniorlatalisa.persistence;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histograma de latências (microssegundos) sem bloqueio na gravação. Cada
+ * potência de 2 é dividida em 8 faixas iguais, assim os percentis, aproximados
+ * pelo limite superior da faixa, ficam até 12,5% acima do valor real (abaixo
+ * de 8 microssegundos as faixas são exatas).
+ *
+ * @author Junior Latalisa
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	private static final int BUCKETS = SUB_BUCKETS * 40;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Registra uma latência em nanossegundos.
+	 */
+	public void record(long nanos) {
+		final long micros = Math.max(0, nanos / 1000);
+		buckets.incrementAndGet(index(micros));
+		count.incrementAndGet();
+		total.addAndGet(Math.max(0, nanos));
+		max.accumulateAndGet(nanos, Math::max);
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public Duration getMean() {
+		final long count = getCount();
+		return (count == 0) ? Duration.ZERO : Duration.ofNanos(total.get() / count);
+	}
+
+	public Duration getMax() {
+		return Duration.ofNanos(max.get());
+	}
+
+	/**
+	 * @param percentile Percentil de 0 a 100, ex: 99.
+	 */
+	public Duration getPercentile(double percentile) {
+		final long count = getCount();
+		if (count == 0) {
+			return Duration.ZERO;
+		}
+		final long rank = (long) Math.ceil(count * Math.min(100, Math.max(0, percentile)) / 100);
+		long acumulado = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			acumulado += buckets.get(i);
+			if (acumulado >= Math.max(1, rank)) {
+				return Duration.ofNanos(Math.min(max.get(), upperBound(i) * 1000));
+			}
+		}
+		return getMax();
+	}
+
+	/**
+	 * Faixa da latência: exata abaixo de {@link #SUB_BUCKETS} e, acima, a
+	 * potência de 2 seguida dos {@link #SUB_BITS} bits mais significativos.
+	 */
+	static int index(long micros) {
+		if (micros < SUB_BUCKETS) {
+			return (int) micros;
+		}
+		final int exponent = 63 - Long.numberOfLeadingZeros(micros);
+		final int sub = (int) (micros >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return Math.min(BUCKETS - 1, ((exponent - SUB_BITS + 1) * SUB_BUCKETS) + sub);
+	}
+
+	/**
+	 * Limite superior (exclusivo), em microssegundos, da faixa.
+	 */
+	static long upperBound(int index) {
+		if (index < SUB_BUCKETS) {
+			return index + 1;
+		}
+		final int exponent = (index / SUB_BUCKETS) + SUB_BITS - 1;
+		return (long) (SUB_BUCKETS + (index % SUB_BUCKETS) + 1) << (exponent - SUB_BITS);
+	}
+
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			buckets.set(i, 0);
+		}
+		count.set(0);
+		total.set(0);
+		max.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("LatencyHistogram [count=%d, mean=%s, p50=%s, p95=%s, p99=%s, max=%s]", getCount(),
+				getMean(), getPercentile(50), getPercentile(95), getPercentile(99), getMax());
+	}
+}
@@ -0,0 +1,81 @@
+package br.dev.juniorlatalisa.persistence;
+
+import java.util.Map;
+
+import org.hibernate.boot.spi.SessionFactoryOptions;
+import org.hibernate.cache.cfg.spi.DomainDataRegionBuildingContext;
+import org.hibernate.cache.cfg.spi.DomainDataRegionConfig;
+import org.hibernate.cache.spi.access.AccessType;
+import org.hibernate.cache.spi.support.DomainDataStorageAccess;
+import org.hibernate.cache.spi.support.RegionFactoryTemplate;
+import org.hibernate.cache.spi.support.StorageAccess;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+
+/**
+ * Provedor do cache de segundo nível do Hibernate em memória (sem dependências
+ * externas), onde cada região é um {@link LocalStorageAccess} do próprio
+ * {@link javax.persistence.EntityManagerFactory}.
+ * <p>
+ * Propriedades:
+ * <ul>
+ * <li>{@value #MAX_ENTRIES}: quantidade máxima de registros por região (padrão
+ * 10000);</li>
+ * <li>{@value #TIME_TO_LIVE}: tempo de vida dos registros em milissegundos
+ * (padrão 0, sem expiração).</li>
+ * </ul>
+ * A região de timestamps do cache de consultas nunca expira, pois a ausência de
+ * um timestamp faria uma consulta desatualizada ser considerada válida.
+ *
+ * @author Junior Latalisa
+ * @see JPAFactoryBuilder#setLocalCache(int, long)
+ */
+public class LocalRegionFactory extends RegionFactoryTemplate {
+
+	private static final long serialVersionUID = 1L;
+
+	public static final String MAX_ENTRIES = "latalisa.cache.max_entries";
+	public static final String TIME_TO_LIVE = "latalisa.cache.time_to_live";
+
+	private int maxEntries = 10_000;
+	private long timeToLive = 0;
+
+	@Override
+	protected void prepareForUse(SessionFactoryOptions settings, @SuppressWarnings("rawtypes") Map configValues) {
+		final Object maxEntries = configValues.get(MAX_ENTRIES);
+		if (maxEntries != null) {
+			this.maxEntries = Integer.parseInt(maxEntries.toString());
+		}
+		final Object timeToLive = configValues.get(TIME_TO_LIVE);
+		if (timeToLive != null) {
+			this.timeToLive = Long.parseLong(timeToLive.toString());
+		}
+	}
+
+	@Override
+	protected void releaseFromUse() {
+		// As regiões são liberadas individualmente pelo Hibernate
+	}
+
+	@Override
+	public AccessType getDefaultAccessType() {
+		return AccessType.READ_WRITE;
+	}
+
+	@Override
+	protected DomainDataStorageAccess createDomainDataStorageAccess(DomainDataRegionConfig regionConfig,
+			DomainDataRegionBuildingContext buildingContext) {
+		return new LocalStorageAccess(maxEntries, timeToLive);
+	}
+
+	@Override
+	protected StorageAccess createQueryResultsRegionStorageAccess(String regionName,
+			SessionFactoryImplementor sessionFactory) {
+		return new LocalStorageAccess(maxEntries, timeToLive);
+	}
+
+	@Override
+	protected StorageAccess createTimestampsRegionStorageAccess(String regionName,
+			SessionFactoryImplementor sessionFactory) {
+		return new LocalStorageAccess(Integer.MAX_VALUE, 0);
+	}
+}
@@ -0,0 +1,112 @@
+package br.dev.juniorlatalisa.persistence;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.hibernate.cache.spi.support.DomainDataStorageAccess;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+
+/**
+ * Armazenamento em memória de uma região do cache de segundo nível, com tamanho
+ * máximo (LRU) e tempo de vida (TTL) opcional.
+ *
+ * @author Junior Latalisa
+ * @see LocalRegionFactory
+ */
+public class LocalStorageAccess implements DomainDataStorageAccess {
+
+	/**
+	 * @param maxEntries Quantidade máxima de registros.
+	 * @param timeToLive Tempo de vida em milissegundos ou 0 para não expirar.
+	 */
+	public LocalStorageAccess(int maxEntries, long timeToLive) {
+		this.maxEntries = maxEntries;
+		this.timeToLive = timeToLive * 1_000_000L;
+	}
+
+	private final int maxEntries;
+	private final long timeToLive;
+
+	private final Map<Object, Entry> entries = new LinkedHashMap<Object, Entry>(16, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Object, Entry> eldest) {
+			return size() > maxEntries;
+		}
+	};
+
+	@Override
+	public Object getFromCache(Object key, SharedSessionContractImplementor session) {
+		synchronized (entries) {
+			final Entry entry = entries.get(key);
+			if (entry == null) {
+				return null;
+			}
+			if ((timeToLive > 0) && (entry.expiresAt - System.nanoTime() < 0)) {
+				entries.remove(key);
+				return null;
+			}
+			return entry.value;
+		}
+	}
+
+	@Override
+	public void putIntoCache(Object key, Object value, SharedSessionContractImplementor session) {
+		synchronized (entries) {
+			entries.put(key, new Entry(value, (timeToLive > 0) ? System.nanoTime() + timeToLive : 0));
+		}
+	}
+
+	@Override
+	public boolean contains(Object key) {
+		return getFromCache(key, null) != null;
+	}
+
+	@Override
+	public void removeFromCache(Object key, SharedSessionContractImplementor session) {
+		evictData(key);
+	}
+
+	@Override
+	public void clearCache(SharedSessionContractImplementor session) {
+		evictData();
+	}
+
+	@Override
+	public void evictData() {
+		synchronized (entries) {
+			entries.clear();
+		}
+	}
+
+	@Override
+	public void evictData(Object key) {
+		synchronized (entries) {
+			entries.remove(key);
+		}
+	}
+
+	@Override
+	public void release() {
+		evictData();
+	}
+
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	private static final class Entry {
+
+		private Entry(Object value, long expiresAt) {
+			this.value = value;
+			this.expiresAt = expiresAt;
+		}
+
+		private final Object value;
+		private final long expiresAt;
+	}
+}
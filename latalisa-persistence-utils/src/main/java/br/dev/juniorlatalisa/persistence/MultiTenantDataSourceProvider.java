@@ -0,0 +1,220 @@
+package br.dev.juniorlatalisa.persistence;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+
+import javax.naming.NamingException;
+import javax.persistence.PersistenceException;
+import javax.sql.DataSource;
+
+import org.hibernate.engine.jdbc.connections.spi.AbstractDataSourceBasedMultiTenantConnectionProviderImpl;
+
+/**
+ * Conexões de um {@link javax.persistence.EntityManagerFactory} compartilhado
+ * por vários bancos de dados (multi-tenancy DATABASE do Hibernate), onde o
+ * identificador do tenant é o contexto do {@link DataSourceLookup}. Os
+ * {@link DataSource} dos tenants sem conexões em uso podem ser liberados
+ * ({@link #evictTenants(Duration, int, Duration, BiConsumer)}) e são obtidos
+ * novamente na próxima conexão.
+ *
+ * @author Junior Latalisa
+ * @see JPAQueryMultiDataBase#isSharedMetadata()
+ */
+public class MultiTenantDataSourceProvider extends AbstractDataSourceBasedMultiTenantConnectionProviderImpl {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * @param lookup         {@link DataSourceLookup} dos contextos.
+	 * @param defaultContext Contexto utilizado na inicialização (metadados do
+	 *                       banco de dados).
+	 */
+	public MultiTenantDataSourceProvider(DataSourceLookup lookup, String defaultContext) {
+		this.lookup = lookup;
+		this.defaultContext = defaultContext;
+	}
+
+	private final transient DataSourceLookup lookup;
+	private final String defaultContext;
+	private final transient Map<String, Tenant> tenants = new ConcurrentHashMap<>();
+	/**
+	 * Tenant de cada conexão em uso, liberado no
+	 * {@link #releaseConnection(String, Connection)}.
+	 */
+	private final transient Map<Connection, Tenant> connections = Collections
+			.synchronizedMap(new IdentityHashMap<>());
+
+	@Override
+	protected DataSource selectAnyDataSource() {
+		return selectDataSource(defaultContext);
+	}
+
+	@Override
+	protected DataSource selectDataSource(String tenantIdentifier) {
+		return getTenant(tenantIdentifier).dataSource;
+	}
+
+	@Override
+	public Connection getAnyConnection() throws SQLException {
+		return getConnection(defaultContext);
+	}
+
+	@Override
+	public void releaseAnyConnection(Connection connection) throws SQLException {
+		releaseConnection(defaultContext, connection);
+	}
+
+	/**
+	 * Obtém a conexão impedindo a liberação do {@link DataSource} do tenant até o
+	 * {@link #releaseConnection(String, Connection)}.
+	 */
+	@Override
+	public Connection getConnection(String tenantIdentifier) throws SQLException {
+		for (;;) {
+			final Tenant tenant = getTenant(tenantIdentifier);
+			if (tenant.acquire()) {
+				try {
+					final Connection connection = tenant.dataSource.getConnection();
+					connections.put(connection, tenant);
+					return connection;
+				} catch (SQLException | RuntimeException e) {
+					tenant.release();
+					throw e;
+				}
+			}
+			tenants.remove(tenantIdentifier, tenant);
+		}
+	}
+
+	@Override
+	public void releaseConnection(String tenantIdentifier, Connection connection) throws SQLException {
+		try {
+			connection.close();
+		} finally {
+			final Tenant tenant = connections.remove(connection);
+			if (tenant != null) {
+				tenant.release();
+			}
+		}
+	}
+
+	private Tenant getTenant(String tenantIdentifier) {
+		final Tenant tenant = tenants.get(tenantIdentifier);
+		if (tenant != null) {
+			return tenant;
+		}
+		try {
+			final Tenant created = new Tenant(lookup.doLookupDataSource(tenantIdentifier));
+			final Tenant existing = tenants.putIfAbsent(tenantIdentifier, created);
+			return (existing == null) ? created : existing;
+		} catch (NamingException e) {
+			throw new PersistenceException(e);
+		}
+	}
+
+	/**
+	 * Libera os {@link DataSource} dos tenants sem conexões em uso há mais tempo
+	 * que idleTimeout e os menos utilizados recentemente além de maxTenants.
+	 *
+	 * @param idleTimeout Tempo sem utilização após o qual o tenant é liberado ou
+	 *                    {@link Duration#ZERO} (sem expiração).
+	 * @param maxTenants  Quantidade máxima de tenants ou 0 (sem limite).
+	 * @param minIdle     Tempo mínimo sem utilização para a liberação pelo
+	 *                    excesso de tenants.
+	 * @param release     Chamado com o tenant e o {@link DataSource} liberado.
+	 * @return Quantidade de tenants liberados.
+	 */
+	public int evictTenants(Duration idleTimeout, int maxTenants, Duration minIdle,
+			BiConsumer<String, DataSource> release) {
+		final long agora = System.nanoTime();
+		final long idleNanos = idleTimeout.toNanos();
+		final long minIdleNanos = minIdle.toNanos();
+		final List<Map.Entry<String, Tenant>> candidatos = tenants.entrySet().stream()
+				.sorted(Comparator.comparingLong(e -> e.getValue().lastAccess)).collect(Collectors.toList());
+		int abertos = candidatos.size();
+		int retorno = 0;
+		for (Map.Entry<String, Tenant> candidato : candidatos) {
+			final Tenant tenant = candidato.getValue();
+			final long ocioso = agora - tenant.lastAccess;
+			final boolean expirado = (idleNanos > 0) && (ocioso > idleNanos);
+			final boolean excedente = (maxTenants > 0) && (abertos > maxTenants) && (ocioso >= minIdleNanos);
+			if ((expirado || excedente) && tenant.evict()) {
+				tenants.remove(candidato.getKey(), tenant);
+				release.accept(candidato.getKey(), tenant.dataSource);
+				abertos--;
+				retorno++;
+			}
+		}
+		return retorno;
+	}
+
+	/**
+	 * Libera os {@link DataSource} de todos os tenants (ex: no fechamento do
+	 * {@link javax.persistence.EntityManagerFactory}).
+	 *
+	 * @param release Chamado com o tenant e o {@link DataSource} liberado.
+	 */
+	public void evictAll(BiConsumer<String, DataSource> release) {
+		for (String tenantIdentifier : new ArrayList<>(tenants.keySet())) {
+			final Tenant tenant = tenants.remove(tenantIdentifier);
+			if (tenant != null) {
+				tenant.inUse.set(-1);
+				release.accept(tenantIdentifier, tenant.dataSource);
+			}
+		}
+	}
+
+	/**
+	 * Tenants com o {@link DataSource} obtido.
+	 */
+	public int size() {
+		return tenants.size();
+	}
+
+	/**
+	 * {@link DataSource} do tenant e as conexões em uso, -1 quando liberado.
+	 */
+	private static final class Tenant {
+
+		private Tenant(DataSource dataSource) {
+			this.dataSource = dataSource;
+		}
+
+		private final DataSource dataSource;
+		private final AtomicInteger inUse = new AtomicInteger();
+		private volatile long lastAccess = System.nanoTime();
+
+		private boolean acquire() {
+			for (;;) {
+				final int atual = inUse.get();
+				if (atual < 0) {
+					return false;
+				}
+				if (inUse.compareAndSet(atual, atual + 1)) {
+					lastAccess = System.nanoTime();
+					return true;
+				}
+			}
+		}
+
+		private void release() {
+			lastAccess = System.nanoTime();
+			inUse.decrementAndGet();
+		}
+
+		private boolean evict() {
+			return inUse.compareAndSet(0, -1);
+		}
+	}
+}
@@ -0,0 +1,663 @@
+package br.dev.juniorlatalisa.persistence;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.persistence.PersistenceException;
+import javax.sql.DataSource;
+
+import br.dev.juniorlatalisa.utils.ThreadUtils;
+
+/**
+ * Pool de conexões simples sobre um {@link DataSource} sem pool (ou
+ * {@link DriverManager}), para uso direto pelo {@link JPAFactoryBuilder} e pelo
+ * {@link JDBCQuery} fora de um servidor de aplicação.
+ * <p>
+ * As conexões ociosas são reutilizadas da mais recente para a mais antiga,
+ * validadas quando ficaram ociosas por mais que o intervalo de validação e
+ * fechadas após o tempo máximo de ociosidade (mantendo o tamanho mínimo). As
+ * conexões em uso por mais tempo que o limite de vazamento são registradas no
+ * log com a pilha de quem as obteve.
+ *
+ * <pre class="prettyprint linenums">
+ * <code class="language-java"
+ * >PooledDataSource pool = PooledDataSource.create("jdbc:h2:mem:teste", "sa", "")
+ *      .setMinSize(2)
+ *      .setMaxSize(20)
+ *      .setLeakDetectionThreshold(Duration.ofMinutes(1));
+ * EntityManagerFactory emf = new JPAFactoryBuilder().setDataSource(pool)...build();
+ * ...
+ * pool.close();</code>
+ * </pre>
+ *
+ * @author Junior Latalisa
+ * @see DataSourceLookup#pooled(DataSourceLookup, int)
+ */
+public class PooledDataSource implements DataSource, AutoCloseable {
+
+	private static final Logger LOGGER = Logger.getLogger("PooledDataSource");
+
+	public PooledDataSource(DataSource dataSource) {
+		this.dataSource = dataSource;
+	}
+
+	private final DataSource dataSource;
+
+	private int minSize = 0;
+	private int maxSize = 10;
+	private long connectionTimeout = TimeUnit.SECONDS.toNanos(30);
+	private long maxIdleTime = TimeUnit.MINUTES.toNanos(10);
+	private long validationInterval = TimeUnit.SECONDS.toNanos(5);
+	private int validationTimeout = 5;
+	private String validationQuery = null;
+	private long leakDetectionThreshold = 0;
+	private long housekeepingPeriod = TimeUnit.SECONDS.toNanos(5);
+
+	private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+	private final Set<PooledConnection> active = ConcurrentHashMap.newKeySet();
+	private final AtomicInteger total = new AtomicInteger();
+	private final LatencyHistogram acquisitionLatency = new LatencyHistogram();
+	private final AtomicLong timeouts = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong validationFailures = new AtomicLong();
+	private final AtomicLong leaks = new AtomicLong();
+
+	private volatile Semaphore permits = null;
+	private volatile boolean closed = false;
+	private ScheduledExecutorService housekeeper = null;
+
+	/**
+	 * Quantidade mínima de conexões mantidas abertas, limitada ao
+	 * {@link #setMaxSize(int)} (informado antes).
+	 */
+	public PooledDataSource setMinSize(int minSize) {
+		checkNotStarted();
+		if (minSize > maxSize) {
+			throw new PersistenceException(String.format("Tamanho mínimo do pool (%d) maior que o máximo (%d)",
+					minSize, maxSize));
+		}
+		this.minSize = Math.max(0, minSize);
+		return this;
+	}
+
+	/**
+	 * Quantidade máxima de conexões em uso simultâneo, não inferior ao
+	 * {@link #setMinSize(int)}.
+	 */
+	public PooledDataSource setMaxSize(int maxSize) {
+		checkNotStarted();
+		if ((maxSize < 1) || (maxSize < minSize)) {
+			throw new PersistenceException("Tamanho máximo do pool inválido: " + maxSize);
+		}
+		this.maxSize = maxSize;
+		return this;
+	}
+
+	/**
+	 * Tempo máximo de espera por uma conexão livre.
+	 */
+	public PooledDataSource setConnectionTimeout(Duration connectionTimeout) {
+		this.connectionTimeout = connectionTimeout.toNanos();
+		return this;
+	}
+
+	/**
+	 * Tempo de ociosidade após o qual a conexão é fechada (respeitando o tamanho
+	 * mínimo).
+	 */
+	public PooledDataSource setMaxIdleTime(Duration maxIdleTime) {
+		this.maxIdleTime = maxIdleTime.toNanos();
+		return this;
+	}
+
+	/**
+	 * Tempo de ociosidade após o qual a conexão é validada antes de ser entregue.
+	 */
+	public PooledDataSource setValidationInterval(Duration validationInterval) {
+		this.validationInterval = validationInterval.toNanos();
+		return this;
+	}
+
+	/**
+	 * Consulta de validação (ex: "select 1"), quando null é utilizado
+	 * {@link Connection#isValid(int)}.
+	 */
+	public PooledDataSource setValidationQuery(String validationQuery) {
+		this.validationQuery = validationQuery;
+		return this;
+	}
+
+	/**
+	 * Tempo máximo, em segundos, da validação.
+	 */
+	public PooledDataSource setValidationTimeout(int validationTimeout) {
+		this.validationTimeout = validationTimeout;
+		return this;
+	}
+
+	/**
+	 * Tempo de uso após o qual a conexão é considerada vazada, ou
+	 * {@link Duration#ZERO} para desabilitar a detecção.
+	 */
+	public PooledDataSource setLeakDetectionThreshold(Duration leakDetectionThreshold) {
+		this.leakDetectionThreshold = leakDetectionThreshold.toNanos();
+		return this;
+	}
+
+	/**
+	 * Intervalo da manutenção do pool (ociosidade, tamanho mínimo e vazamentos).
+	 */
+	public PooledDataSource setHousekeepingPeriod(Duration housekeepingPeriod) {
+		checkNotStarted();
+		this.housekeepingPeriod = housekeepingPeriod.toNanos();
+		return this;
+	}
+
+	private void checkNotStarted() {
+		if (permits != null) {
+			throw new PersistenceException("Pool já iniciado");
+		}
+	}
+
+	private Semaphore start() throws SQLException {
+		Semaphore retorno = permits;
+		if (retorno == null) {
+			synchronized (this) {
+				if (closed) {
+					throw new SQLException("Pool fechado");
+				}
+				retorno = permits;
+				if (retorno == null) {
+					housekeeper = Executors.newSingleThreadScheduledExecutor(target -> {
+						final Thread thread = ThreadUtils.createThread(target, "PooledDataSource",
+								Thread.MIN_PRIORITY);
+						thread.setDaemon(true);
+						return thread;
+					});
+					housekeeper.scheduleWithFixedDelay(this::housekeep, 0, housekeepingPeriod,
+							TimeUnit.NANOSECONDS);
+					permits = retorno = new Semaphore(maxSize, true);
+				}
+			}
+		}
+		return retorno;
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		final long inicio = System.nanoTime();
+		final Semaphore permits = start();
+		try {
+			if (!permits.tryAcquire(connectionTimeout, TimeUnit.NANOSECONDS)) {
+				timeouts.incrementAndGet();
+				throw new SQLTimeoutException("Tempo esgotado aguardando uma conexão do pool (máximo " + maxSize
+						+ ")");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException(e);
+		}
+		try {
+			if (closed) {
+				throw new SQLException("Pool fechado");
+			}
+			PooledConnection pooled;
+			while (((pooled = idle.pollFirst()) != null) && (!validate(pooled))) {
+				validationFailures.incrementAndGet();
+				destroy(pooled);
+			}
+			if (pooled == null) {
+				pooled = new PooledConnection(dataSource.getConnection());
+				total.incrementAndGet();
+			}
+			pooled.borrowedAt = System.nanoTime();
+			pooled.borrowedBy = (leakDetectionThreshold > 0) ? new Throwable("Conexão obtida por") : null;
+			pooled.leakReported = false;
+			active.add(pooled);
+			acquisitionLatency.record(System.nanoTime() - inicio);
+			return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+					new Class<?>[] { Connection.class }, new Handle(pooled));
+		} catch (SQLException | RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	private boolean validate(PooledConnection pooled) {
+		if (System.nanoTime() - pooled.lastUsed < validationInterval) {
+			return true;
+		}
+		try {
+			if (validationQuery == null) {
+				return pooled.connection.isValid(validationTimeout);
+			}
+			try (Statement statement = pooled.connection.createStatement()) {
+				statement.setQueryTimeout(validationTimeout);
+				statement.execute(validationQuery);
+			}
+			return true;
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	private void release(PooledConnection pooled) {
+		active.remove(pooled);
+		try {
+			if (closed || pooled.connection.isClosed()) {
+				destroy(pooled);
+				return;
+			}
+			final boolean autoCommit = pooled.connection.getAutoCommit();
+			if (!autoCommit) {
+				pooled.connection.rollback();
+			}
+			if (autoCommit != pooled.autoCommit) {
+				pooled.connection.setAutoCommit(pooled.autoCommit);
+			}
+			pooled.reset();
+			pooled.lastUsed = System.nanoTime();
+			idle.offerFirst(pooled);
+			if (closed && idle.remove(pooled)) {
+				destroy(pooled);
+			}
+		} catch (SQLException e) {
+			destroy(pooled);
+		} finally {
+			permits.release();
+		}
+	}
+
+	private void destroy(PooledConnection pooled) {
+		total.decrementAndGet();
+		try {
+			pooled.connection.close();
+		} catch (SQLException e) {
+			LOGGER.log(Level.FINE, "Falha ao fechar a conexão", e);
+		}
+	}
+
+	/**
+	 * Fecha as conexões ociosas há mais tempo que o permitido, completa o tamanho
+	 * mínimo e registra as conexões vazadas.
+	 */
+	protected void housekeep() {
+		try {
+			final long agora = System.nanoTime();
+			for (Iterator<PooledConnection> iterator = idle.descendingIterator(); iterator.hasNext();) {
+				final PooledConnection pooled = iterator.next();
+				if ((total.get() > minSize) && (agora - pooled.lastUsed > maxIdleTime) && idle.remove(pooled)) {
+					evictions.incrementAndGet();
+					destroy(pooled);
+				}
+			}
+			while ((!closed) && (total.get() < minSize)) {
+				final PooledConnection pooled = new PooledConnection(dataSource.getConnection());
+				total.incrementAndGet();
+				idle.offerLast(pooled);
+			}
+			if (leakDetectionThreshold > 0) {
+				for (PooledConnection pooled : active) {
+					final Throwable borrowedBy = pooled.borrowedBy;
+					if ((!pooled.leakReported) && (borrowedBy != null)
+							&& (agora - pooled.borrowedAt > leakDetectionThreshold)) {
+						pooled.leakReported = true;
+						leaks.incrementAndGet();
+						LOGGER.log(Level.WARNING, String.format("Possível vazamento de conexão, em uso há %s",
+								Duration.ofNanos(agora - pooled.borrowedAt)), borrowedBy);
+					}
+				}
+			}
+		} catch (SQLException | RuntimeException e) {
+			LOGGER.log(Level.WARNING, "Falha na manutenção do pool", e);
+		}
+	}
+
+	/**
+	 * Fecha as conexões ociosas e encerra o pool. As conexões em uso são fechadas
+	 * quando devolvidas.
+	 */
+	@Override
+	public void close() {
+		synchronized (this) {
+			closed = true;
+			if (housekeeper != null) {
+				housekeeper.shutdownNow();
+			}
+		}
+		PooledConnection pooled;
+		while ((pooled = idle.pollFirst()) != null) {
+			destroy(pooled);
+		}
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	public int getMinSize() {
+		return minSize;
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public int getTotalConnections() {
+		return total.get();
+	}
+
+	public int getIdleConnections() {
+		return idle.size();
+	}
+
+	public int getActiveConnections() {
+		return active.size();
+	}
+
+	/**
+	 * Tempo para obter uma conexão do pool.
+	 */
+	public LatencyHistogram getAcquisitionLatency() {
+		return acquisitionLatency;
+	}
+
+	public long getTimeouts() {
+		return timeouts.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	public long getValidationFailures() {
+		return validationFailures.get();
+	}
+
+	public long getLeaks() {
+		return leaks.get();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("PooledDataSource [total=%d, active=%d, idle=%d, maxSize=%d, timeouts=%d, evictions=%d, "
+				+ "validationFailures=%d, leaks=%d, acquisition=%s]", getTotalConnections(), getActiveConnections(),
+				getIdleConnections(), maxSize, getTimeouts(), getEvictions(), getValidationFailures(), getLeaks(),
+				acquisitionLatency);
+	}
+
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		throw new SQLFeatureNotSupportedException("O pool não suporta usuário e senha por conexão");
+	}
+
+	@Override
+	public PrintWriter getLogWriter() throws SQLException {
+		return dataSource.getLogWriter();
+	}
+
+	@Override
+	public void setLogWriter(PrintWriter out) throws SQLException {
+		dataSource.setLogWriter(out);
+	}
+
+	@Override
+	public void setLoginTimeout(int seconds) throws SQLException {
+		dataSource.setLoginTimeout(seconds);
+	}
+
+	@Override
+	public int getLoginTimeout() throws SQLException {
+		return dataSource.getLoginTimeout();
+	}
+
+	@Override
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		return LOGGER;
+	}
+
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		return iface.isInstance(this) ? iface.cast(this) : dataSource.unwrap(iface);
+	}
+
+	@Override
+	public boolean isWrapperFor(Class<?> iface) throws SQLException {
+		return iface.isInstance(this) || dataSource.isWrapperFor(iface);
+	}
+
+	public static PooledDataSource create(DataSource dataSource) {
+		return new PooledDataSource(dataSource);
+	}
+
+	/**
+	 * Pool sobre conexões criadas pelo {@link DriverManager}.
+	 */
+	public static PooledDataSource create(String url, String user, String password) {
+		return new PooledDataSource(new DriverManagerDataSource(url, user, password));
+	}
+
+	private static final class PooledConnection {
+
+		private PooledConnection(Connection connection) throws SQLException {
+			this.connection = connection;
+			this.lastUsed = System.nanoTime();
+			try {
+				this.autoCommit = connection.getAutoCommit();
+				this.readOnly = connection.isReadOnly();
+				this.transactionIsolation = connection.getTransactionIsolation();
+				this.catalog = connection.getCatalog();
+				this.schema = connection.getSchema();
+				this.holdability = connection.getHoldability();
+			} catch (SQLException | RuntimeException e) {
+				connection.close();
+				throw e;
+			}
+		}
+
+		private final Connection connection;
+		private final boolean autoCommit;
+		private final boolean readOnly;
+		private final int transactionIsolation;
+		private final String catalog;
+		private final String schema;
+		private final int holdability;
+		private volatile boolean modified;
+		private volatile long lastUsed;
+		private volatile long borrowedAt;
+		private volatile Throwable borrowedBy;
+		private volatile boolean leakReported;
+
+		/**
+		 * Restaura o estado inicial da conexão alterado pelo usuário anterior.
+		 */
+		private void reset() throws SQLException {
+			if (!modified) {
+				return;
+			}
+			if (connection.isReadOnly() != readOnly) {
+				connection.setReadOnly(readOnly);
+			}
+			if (connection.getTransactionIsolation() != transactionIsolation) {
+				connection.setTransactionIsolation(transactionIsolation);
+			}
+			if (!Objects.equals(connection.getCatalog(), catalog)) {
+				connection.setCatalog(catalog);
+			}
+			if (!Objects.equals(connection.getSchema(), schema)) {
+				connection.setSchema(schema);
+			}
+			if (connection.getHoldability() != holdability) {
+				connection.setHoldability(holdability);
+			}
+			modified = false;
+		}
+	}
+
+	/**
+	 * Métodos que alteram o estado da conexão restaurado na devolução ao pool.
+	 */
+	private static final Set<String> STATE_METHODS = Set.of("setReadOnly", "setTransactionIsolation", "setCatalog",
+			"setSchema", "setHoldability");
+
+	/**
+	 * Conexão entregue ao usuário: o {@link Connection#close()} devolve a conexão
+	 * ao pool e invalida esta instância. Os {@link Statement} e o
+	 * {@link DatabaseMetaData} criados retornam esta conexão no getConnection().
+	 */
+	private final class Handle implements InvocationHandler {
+
+		private Handle(PooledConnection pooled) {
+			this.pooled = pooled;
+		}
+
+		private final PooledConnection pooled;
+		private final AtomicBoolean closed = new AtomicBoolean();
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			switch (method.getName()) {
+				case "close":
+					if (closed.compareAndSet(false, true)) {
+						release(pooled);
+					}
+					return null;
+				case "isClosed":
+					return closed.get() || pooled.connection.isClosed();
+				case "equals":
+					return proxy == args[0];
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				case "toString":
+					return "PooledConnection [" + pooled.connection + "]";
+				default:
+					if (closed.get()) {
+						throw new SQLException("Conexão já devolvida ao pool");
+					}
+					if (STATE_METHODS.contains(method.getName())) {
+						pooled.modified = true;
+					}
+					final Object retorno;
+					try {
+						retorno = method.invoke(pooled.connection, args);
+					} catch (InvocationTargetException e) {
+						throw e.getCause();
+					}
+					return ((retorno instanceof Statement) || (retorno instanceof DatabaseMetaData))
+							? wrap(proxy, method.getReturnType(), retorno)
+							: retorno;
+			}
+		}
+	}
+
+	/**
+	 * Proxy do objeto criado pela conexão cujo getConnection() retorna a conexão
+	 * entregue ao usuário, e não a conexão física do pool.
+	 */
+	private static Object wrap(Object connection, Class<?> type, Object target) {
+		return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, (proxy, method, args) -> {
+			switch (method.getName()) {
+				case "getConnection":
+					return connection;
+				case "equals":
+					return proxy == args[0];
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				default:
+					try {
+						return method.invoke(target, args);
+					} catch (InvocationTargetException e) {
+						throw e.getCause();
+					}
+			}
+		});
+	}
+
+	private static final class DriverManagerDataSource implements DataSource {
+
+		private DriverManagerDataSource(String url, String user, String password) {
+			this.url = url;
+			this.user = user;
+			this.password = password;
+		}
+
+		private final String url;
+		private final String user;
+		private final String password;
+		private PrintWriter logWriter = null;
+		private int loginTimeout = 0;
+
+		@Override
+		public Connection getConnection() throws SQLException {
+			return DriverManager.getConnection(url, user, password);
+		}
+
+		@Override
+		public Connection getConnection(String username, String password) throws SQLException {
+			return DriverManager.getConnection(url, username, password);
+		}
+
+		@Override
+		public PrintWriter getLogWriter() {
+			return logWriter;
+		}
+
+		@Override
+		public void setLogWriter(PrintWriter out) {
+			this.logWriter = out;
+		}
+
+		@Override
+		public void setLoginTimeout(int seconds) {
+			this.loginTimeout = seconds;
+		}
+
+		@Override
+		public int getLoginTimeout() {
+			return loginTimeout;
+		}
+
+		@Override
+		public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+			return LOGGER;
+		}
+
+		@Override
+		public <T> T unwrap(Class<T> iface) throws SQLException {
+			if (iface.isInstance(this)) {
+				return iface.cast(this);
+			}
+			throw new SQLException("Não é um wrapper de " + iface.getName());
+		}
+
+		@Override
+		public boolean isWrapperFor(Class<?> iface) {
+			return iface.isInstance(this);
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package br.dev.juniorlatalisa.persistence;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.naming.NamingException;
+import javax.persistence.PersistenceException;
+import javax.sql.DataSource;
+
+/**
+ * {@link DataSourceLookup} que envolve o {@link DataSource} (e as réplicas) de
+ * cada contexto em um {@link PooledDataSource} próprio, criado na primeira
+ * consulta do contexto. O {@link #close()} encerra todos os pools.
+ *
+ * @author Junior Latalisa
+ * @see DataSourceLookup#pooled(DataSourceLookup, int)
+ */
+public class PooledDataSourceLookup implements DataSourceLookup, AutoCloseable {
+
+	/**
+	 * @param lookup  {@link DataSourceLookup} dos {@link DataSource} sem pool.
+	 * @param maxSize Quantidade máxima de conexões de cada {@link DataSource}.
+	 */
+	public PooledDataSourceLookup(DataSourceLookup lookup, int maxSize) {
+		this.lookup = lookup;
+		this.maxSize = maxSize;
+	}
+
+	private final DataSourceLookup lookup;
+	private final int maxSize;
+	private final Map<String, PooledDataSource> pools = new ConcurrentHashMap<>();
+	private volatile boolean closed = false;
+
+	@Override
+	public DataSource doLookupDataSource(String contexto) throws NamingException {
+		final PooledDataSource pool = pools.get(contexto);
+		return (pool != null) ? pool : pooled(contexto, lookup.doLookupDataSource(contexto));
+	}
+
+	@Override
+	public List<DataSource> doLookupReplicaDataSources(String contexto) throws NamingException {
+		final List<DataSource> replicas = lookup.doLookupReplicaDataSources(contexto);
+		final List<DataSource> retorno = new ArrayList<>(replicas.size());
+		for (int i = 0; i < replicas.size(); i++) {
+			retorno.add(pooled(contexto + "#" + i, replicas.get(i)));
+		}
+		return retorno;
+	}
+
+	private DataSource pooled(String key, DataSource dataSource) {
+		if (closed) {
+			throw new PersistenceException("DataSourceLookup encerrado");
+		}
+		final PooledDataSource pool = pools.get(key);
+		if (pool != null) {
+			return pool;
+		}
+		final PooledDataSource created = PooledDataSource.create(dataSource).setMaxSize(maxSize);
+		final PooledDataSource existing = pools.putIfAbsent(key, created);
+		if (existing == null) {
+			return created;
+		}
+		created.close();
+		return existing;
+	}
+
+	/**
+	 * Encerra e remove o pool do {@link DataSource}, recriado na próxima consulta
+	 * do contexto.
+	 */
+	@Override
+	public void release(DataSource dataSource) {
+		for (Map.Entry<String, PooledDataSource> entry : pools.entrySet()) {
+			if ((entry.getValue() == dataSource) && pools.remove(entry.getKey(), entry.getValue())) {
+				entry.getValue().close();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return Pools criados, por contexto (réplicas com o sufixo "#índice").
+	 */
+	public Map<String, PooledDataSource> getPools() {
+		return Collections.unmodifiableMap(pools);
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Encerra todos os pools criados.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		for (String key : new ArrayList<>(pools.keySet())) {
+			final PooledDataSource pool = pools.remove(key);
+			if (pool != null) {
+				pool.close();
+			}
+		}
+	}
+}
@@ -7,7 +7,11 @@ import java.nio.charset.StandardCharsets;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import javax.persistence.PersistenceException;
 
@@ -35,13 +39,29 @@ public interface QueryBuilder {
 		return function.apply(find());
 	}
 
+	/**
+	 * {@link Stream} sobre o {@link #iterator()}. Quando o iterator for um
+	 * {@link CloseableIterator} o fechamento do stream libera os recursos do
+	 * banco de dados, por isso utilize try-with-resources quando o stream não for
+	 * percorrido até o fim.
+	 */
+	default <T> Stream<T> stream() {
+		final Iterator<T> iterator = iterator();
+		final Stream<T> stream = StreamSupport
+				.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false);
+		return (iterator instanceof CloseableIterator) ? stream.onClose(((CloseableIterator<T>) iterator)::close)
+				: stream;
+	}
+
+	/**
+	 * Lê o script inteiro em memória. Para scripts grandes (ex: migrações e
+	 * cargas) utilize o {@link SQLScriptReader}, que lê um comando por vez.
+	 */
 	static String load(InputStream is, Charset charset) {
 		String sql;
 		try {
 			try {
-				byte[] buffer = new byte[is.available()];
-				is.read(buffer);
-				sql = new String(buffer, charset);
+				sql = new String(is.readAllBytes(), charset);
 			} finally {
 				is.close();
 			}
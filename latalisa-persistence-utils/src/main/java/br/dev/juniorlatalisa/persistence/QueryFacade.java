@@ -29,6 +29,12 @@ public interface QueryFacade {
 	 */
 	static final int EXECUTE_RESULT_NONE = -1;
 
+	/**
+	 * Constante para padronizar que a quantidade de registros buscados por vez é a
+	 * padrão do driver JDBC.
+	 */
+	static final int FETCH_SIZE_NONE = -1;
+
 	/**
 	 * Executar uma query nativa sem nenhum parâmetro.
 	 */
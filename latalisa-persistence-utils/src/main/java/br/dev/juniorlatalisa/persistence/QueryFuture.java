@@ -0,0 +1,127 @@
+package br.dev.juniorlatalisa.persistence;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import br.dev.juniorlatalisa.utils.ThreadUtils;
+
+/**
+ * Resultado de uma consulta assíncrona. O {@link #cancel(boolean)} também
+ * cancela a instrução em execução no banco de dados (ex:
+ * {@link java.sql.Statement#cancel()}).
+ * <p>
+ * As consultas são executadas por padrão em um pool limitado de threads
+ * ({@link #getDefaultExecutor()}), com uma fila limitada: quando a fila está
+ * cheia a consulta é concluída com {@link RejectedExecutionException}.
+ *
+ * <pre class="prettyprint linenums">
+ * <code class="language-java"
+ * >QueryFuture&lt;List&lt;Cliente&gt;&gt; clientes = JPAQueryBuilder.create(query, Cliente.class).listAsync();
+ * QueryFuture&lt;Long&gt; total = JPAQueryBuilder.create(query, QueryStrategy.DEFAULT,
+ *      "select count(p) from Pedido p").findAsync();
+ * CompletableFuture.allOf(clientes, total).join();</code>
+ * </pre>
+ *
+ * @author Junior Latalisa
+ * @param <T> Tipo do resultado.
+ */
+public class QueryFuture<T> extends CompletableFuture<T> {
+
+	private static final Logger LOGGER = Logger.getLogger("QueryFuture");
+
+	private volatile Runnable canceller = null;
+
+	/**
+	 * Define a ação que interrompe a execução no banco de dados.
+	 */
+	public void onCancel(Runnable canceller) {
+		this.canceller = canceller;
+		if (isCancelled()) {
+			cancelQuery(canceller);
+		}
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		final boolean retorno = super.cancel(mayInterruptIfRunning);
+		final Runnable canceller = this.canceller;
+		if (retorno && (canceller != null)) {
+			cancelQuery(canceller);
+		}
+		return retorno;
+	}
+
+	private static void cancelQuery(Runnable canceller) {
+		try {
+			canceller.run();
+		} catch (RuntimeException e) {
+			LOGGER.log(Level.FINE, "Falha ao cancelar a consulta", e);
+		}
+	}
+
+	@Override
+	public <U> CompletableFuture<U> newIncompleteFuture() {
+		return new QueryFuture<>();
+	}
+
+	/**
+	 * Executa a tarefa no executor. A tarefa recebe o próprio
+	 * {@link QueryFuture} para registrar o cancelamento
+	 * ({@link #onCancel(Runnable)}) e não é executada caso já tenha sido
+	 * cancelada.
+	 */
+	public static <T> QueryFuture<T> supplyAsync(Function<QueryFuture<T>, T> task, Executor executor) {
+		final QueryFuture<T> future = new QueryFuture<>();
+		try {
+			executor.execute(() -> {
+				if (future.isDone()) {
+					return;
+				}
+				try {
+					future.complete(task.apply(future));
+				} catch (Throwable e) {
+					future.completeExceptionally(e);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	private static volatile ExecutorService defaultExecutor = null;
+
+	/**
+	 * Executor padrão das consultas assíncronas: até 2 threads (daemon) por
+	 * processador e fila de 1000 consultas.
+	 */
+	public static ExecutorService getDefaultExecutor() {
+		ExecutorService retorno = defaultExecutor;
+		if (retorno == null) {
+			synchronized (QueryFuture.class) {
+				retorno = defaultExecutor;
+				if (retorno == null) {
+					final int threads = Runtime.getRuntime().availableProcessors() * 2;
+					final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60,
+							TimeUnit.SECONDS, new ArrayBlockingQueue<>(1000), target -> {
+								final Thread thread = ThreadUtils.createThread(target, "QueryFuture",
+										Thread.NORM_PRIORITY);
+								thread.setDaemon(true);
+								return thread;
+							});
+					executor.allowCoreThreadTimeOut(true);
+					defaultExecutor = retorno = executor;
+				}
+			}
+		}
+		return retorno;
+	}
+}
@@ -0,0 +1,294 @@
+package br.dev.juniorlatalisa.persistence;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.persistence.PersistenceException;
+
+/**
+ * Métricas das consultas do {@link JPAQuery} e do {@link JDBCQuery}: chamadas,
+ * registros, falhas e histograma de latência ({@link LatencyHistogram}) por
+ * assinatura da consulta e por contexto. A assinatura é a consulta com os
+ * literais substituídos por "?", assim as consultas com valores fixos não
+ * geram assinaturas distintas.
+ * <p>
+ * As consultas acima de {@link #setSlowQueryThreshold(Duration)} são
+ * registradas no log (WARNING) com apenas o nome e o tipo dos parâmetros, sem
+ * os valores.
+ *
+ * <pre class="prettyprint linenums">
+ * <code class="language-java"
+ * >QueryMetrics metrics = new QueryMetrics().setSlowQueryThreshold(Duration.ofSeconds(1));
+ * metrics.registerMBean("vendas");
+ * query.setQueryMetrics(metrics);
+ * ...
+ * metrics.getQueryStats().forEach(System.out::println);</code>
+ * </pre>
+ *
+ * @author Junior Latalisa
+ */
+public class QueryMetrics implements QueryMetricsMXBean {
+
+	private static final Logger LOGGER = Logger.getLogger("QueryMetrics");
+
+	/**
+	 * Assinatura das consultas registradas após atingir o limite de assinaturas.
+	 */
+	public static final String OTHERS = "<outras>";
+
+	private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+	private static final Pattern NUMBER_LITERAL = Pattern.compile("\\b\\d+(?:\\.\\d+)?\\b");
+	private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+	private static final int MAX_SIGNATURE_LENGTH = 1000;
+
+	public QueryMetrics() {
+		this(1000);
+	}
+
+	/**
+	 * @param maxSignatures Quantidade máxima de assinaturas (somando todos os
+	 *                      contextos), as demais são agrupadas em
+	 *                      {@link #OTHERS}.
+	 */
+	public QueryMetrics(int maxSignatures) {
+		if (maxSignatures < 1) {
+			throw new PersistenceException("Quantidade de assinaturas inválida: " + maxSignatures);
+		}
+		this.maxSignatures = maxSignatures;
+	}
+
+	private final int maxSignatures;
+	private final Map<String, String> signatures = new ConcurrentHashMap<>();
+	private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+	private final AtomicLong slowQueries = new AtomicLong();
+	private volatile long slowQueryThreshold = 0;
+	private ObjectName objectName = null;
+
+	/**
+	 * Tempo mínimo de execução para o registro da consulta no log, null (ou zero)
+	 * desabilita.
+	 *
+	 * @return A própria instância.
+	 */
+	public QueryMetrics setSlowQueryThreshold(Duration threshold) {
+		this.slowQueryThreshold = (threshold == null) ? 0 : Math.max(0, threshold.toNanos());
+		return this;
+	}
+
+	public Duration getSlowQueryThreshold() {
+		return Duration.ofNanos(slowQueryThreshold);
+	}
+
+	@Override
+	public long getSlowQueryThresholdMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(slowQueryThreshold);
+	}
+
+	@Override
+	public void setSlowQueryThresholdMillis(long threshold) {
+		setSlowQueryThreshold(Duration.ofMillis(threshold));
+	}
+
+	@Override
+	public long getSlowQueries() {
+		return slowQueries.get();
+	}
+
+	@Override
+	public long getTotalCalls() {
+		return entries.values().stream().mapToLong(entry -> entry.calls.sum()).sum();
+	}
+
+	/**
+	 * Executa e registra a consulta.
+	 *
+	 * @param tenant Contexto da consulta ou null.
+	 * @param params Parâmetros (Map ou List) para o log de consultas lentas.
+	 * @param rows   Quantidade de registros do resultado.
+	 */
+	public <T> T measure(String tenant, String queryValue, Object params, Supplier<T> command,
+			ToLongFunction<T> rows) {
+		final long inicio = System.nanoTime();
+		try {
+			final T retorno = command.get();
+			record(tenant, queryValue, params, System.nanoTime() - inicio, rows.applyAsLong(retorno), false);
+			return retorno;
+		} catch (RuntimeException | Error e) {
+			record(tenant, queryValue, params, System.nanoTime() - inicio, 0, true);
+			throw e;
+		}
+	}
+
+	/**
+	 * Registra a execução da consulta.
+	 *
+	 * @param nanos Tempo de execução.
+	 * @param error Indica se a consulta falhou.
+	 */
+	public void record(String tenant, String queryValue, Object params, long nanos, long rows, boolean error) {
+		final String signature = getSignature(queryValue);
+		final Entry entry = getEntry(tenant, signature);
+		entry.calls.increment();
+		entry.rows.add(Math.max(0, rows));
+		if (error) {
+			entry.errors.increment();
+		}
+		entry.latency.record(nanos);
+		final long threshold = slowQueryThreshold;
+		if ((threshold > 0) && (nanos >= threshold)) {
+			slowQueries.incrementAndGet();
+			LOGGER.warning(String.format("Consulta lenta (%d ms%s): %s parâmetros: %s",
+					TimeUnit.NANOSECONDS.toMillis(nanos), (tenant == null) ? "" : ", contexto " + tenant, signature,
+					redact(params)));
+		}
+	}
+
+	private Entry getEntry(String tenant, String signature) {
+		final String key = tenant + '\u0000' + signature;
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			if (entries.size() >= maxSignatures) {
+				return entries.computeIfAbsent(tenant + '\u0000' + OTHERS, k -> new Entry(tenant, OTHERS));
+			}
+			entry = entries.computeIfAbsent(key, k -> new Entry(tenant, signature));
+		}
+		return entry;
+	}
+
+	/**
+	 * Consulta com os literais substituídos por "?" e os espaços normalizados.
+	 */
+	public String getSignature(String queryValue) {
+		if (queryValue == null) {
+			return OTHERS;
+		}
+		String signature = signatures.get(queryValue);
+		if (signature == null) {
+			signature = WHITESPACE.matcher(queryValue.trim()).replaceAll(" ");
+			signature = STRING_LITERAL.matcher(signature).replaceAll("?");
+			signature = NUMBER_LITERAL.matcher(signature).replaceAll("?");
+			if (signature.length() > MAX_SIGNATURE_LENGTH) {
+				signature = signature.substring(0, MAX_SIGNATURE_LENGTH) + "...";
+			}
+			if (signatures.size() < maxSignatures * 4) {
+				signatures.put(queryValue, signature);
+			}
+		}
+		return signature;
+	}
+
+	/**
+	 * Nome e tipo dos parâmetros, sem os valores.
+	 */
+	static String redact(Object params) {
+		if (params instanceof Map) {
+			return ((Map<?, ?>) params).entrySet().stream()
+					.map(param -> param.getKey() + "=" + typeOf(param.getValue()))
+					.collect(Collectors.joining(", ", "{", "}"));
+		}
+		if (params instanceof List) {
+			return ((List<?>) params).stream().map(QueryMetrics::typeOf)
+					.collect(Collectors.joining(", ", "[", "]"));
+		}
+		return "[]";
+	}
+
+	private static String typeOf(Object value) {
+		return (value == null) ? "null" : value.getClass().getSimpleName();
+	}
+
+	/**
+	 * Estatísticas atuais de cada consulta, em ordem decrescente de tempo total.
+	 */
+	@Override
+	public List<QueryStats> getQueryStats() {
+		return entries.values().stream() //
+				.sorted(Comparator.comparingDouble(Entry::getTotalNanos).reversed()) //
+				.map(Entry::toQueryStats) //
+				.collect(Collectors.toList());
+	}
+
+	/**
+	 * Estatísticas do contexto informado.
+	 *
+	 * @see #getQueryStats()
+	 */
+	public List<QueryStats> getQueryStats(String tenant) {
+		return getQueryStats().stream().filter(stats -> Objects.equals(tenant, stats.getTenant()))
+				.collect(Collectors.toList());
+	}
+
+	@Override
+	public void reset() {
+		entries.clear();
+		slowQueries.set(0);
+	}
+
+	/**
+	 * Registra as métricas no servidor JMX da plataforma como
+	 * "br.dev.juniorlatalisa.persistence:type=QueryMetrics,name=<i>name</i>".
+	 *
+	 * @return A própria instância.
+	 */
+	public synchronized QueryMetrics registerMBean(String name) {
+		try {
+			final ObjectName objectName = new ObjectName(String.format("%s:type=QueryMetrics,name=%s",
+					getClass().getPackageName(), ObjectName.quote(name)));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+			this.objectName = objectName;
+		} catch (JMException e) {
+			throw new PersistenceException(e);
+		}
+		return this;
+	}
+
+	public synchronized void unregisterMBean() {
+		if (objectName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+			} catch (JMException e) {
+				throw new PersistenceException(e);
+			} finally {
+				objectName = null;
+			}
+		}
+	}
+
+	private static final class Entry {
+
+		private Entry(String tenant, String signature) {
+			this.tenant = tenant;
+			this.signature = signature;
+		}
+
+		private final String tenant;
+		private final String signature;
+		private final LongAdder calls = new LongAdder();
+		private final LongAdder rows = new LongAdder();
+		private final LongAdder errors = new LongAdder();
+		private final LatencyHistogram latency = new LatencyHistogram();
+
+		private double getTotalNanos() {
+			return latency.getMean().toNanos() * (double) latency.getCount();
+		}
+
+		private QueryStats toQueryStats() {
+			return new QueryStats(tenant, signature, calls.sum(), rows.sum(), errors.sum(), latency);
+		}
+	}
+}
@@ -0,0 +1,28 @@
+package br.dev.juniorlatalisa.persistence;
+
+import java.util.List;
+
+/**
+ * Interface JMX do {@link QueryMetrics}.
+ *
+ * @author Junior Latalisa
+ * @see QueryMetrics#registerMBean(String)
+ */
+public interface QueryMetricsMXBean {
+
+	List<QueryStats> getQueryStats();
+
+	long getTotalCalls();
+
+	long getSlowQueries();
+
+	/**
+	 * @return Tempo mínimo (milissegundos) para o registro da consulta lenta, ou 0
+	 *         quando desabilitado.
+	 */
+	long getSlowQueryThresholdMillis();
+
+	void setSlowQueryThresholdMillis(long threshold);
+
+	void reset();
+}
@@ -0,0 +1,88 @@
+package br.dev.juniorlatalisa.persistence;
+
+/**
+ * Estatísticas de uma consulta (assinatura) em um contexto, obtidas por
+ * {@link QueryMetrics#getQueryStats()}. Os tempos são em milissegundos.
+ *
+ * @author Junior Latalisa
+ */
+public class QueryStats {
+
+	QueryStats(String tenant, String signature, long calls, long rows, long errors, LatencyHistogram latency) {
+		this.tenant = tenant;
+		this.signature = signature;
+		this.calls = calls;
+		this.rows = rows;
+		this.errors = errors;
+		this.meanMillis = toMillis(latency.getMean().toNanos());
+		this.p50Millis = toMillis(latency.getPercentile(50).toNanos());
+		this.p99Millis = toMillis(latency.getPercentile(99).toNanos());
+		this.maxMillis = toMillis(latency.getMax().toNanos());
+	}
+
+	private final String tenant;
+	private final String signature;
+	private final long calls;
+	private final long rows;
+	private final long errors;
+	private final double meanMillis;
+	private final double p50Millis;
+	private final double p99Millis;
+	private final double maxMillis;
+
+	private static double toMillis(long nanos) {
+		return nanos / 1_000_000d;
+	}
+
+	/**
+	 * @return Contexto (ex: {@link JPAQueryMultiDataBase}) ou null.
+	 */
+	public String getTenant() {
+		return tenant;
+	}
+
+	/**
+	 * @return Consulta com os literais substituídos por "?".
+	 */
+	public String getSignature() {
+		return signature;
+	}
+
+	public long getCalls() {
+		return calls;
+	}
+
+	/**
+	 * @return Registros retornados (ou afetados pelos comandos).
+	 */
+	public long getRows() {
+		return rows;
+	}
+
+	public long getErrors() {
+		return errors;
+	}
+
+	public double getMeanMillis() {
+		return meanMillis;
+	}
+
+	public double getP50Millis() {
+		return p50Millis;
+	}
+
+	public double getP99Millis() {
+		return p99Millis;
+	}
+
+	public double getMaxMillis() {
+		return maxMillis;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("QueryStats [tenant=%s, calls=%d, rows=%d, errors=%d, mean=%.3f, p50=%.3f, p99=%.3f, "
+				+ "max=%.3f, signature=%s]", tenant, calls, rows, errors, meanMillis, p50Millis, p99Millis, maxMillis,
+				signature);
+	}
+}
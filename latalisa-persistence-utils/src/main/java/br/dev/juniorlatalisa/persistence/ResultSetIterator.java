@@ -0,0 +1,87 @@
+package br.dev.juniorlatalisa.persistence;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.NoSuchElementException;
+
+import javax.persistence.PersistenceException;
+
+/**
+ * Cursor sobre um {@link ResultSet} que converte cada linha através de um
+ * {@link RowMapper}. O {@link Statement} é fechado quando o cursor é percorrido
+ * até o fim ou fechado.
+ *
+ * @author Junior Latalisa
+ * @param <T> Tipo dos elementos.
+ * @see JDBCQuery#iterator(String, java.util.List, RowMapper, int, int, int)
+ */
+public class ResultSetIterator<T> implements CloseableIterator<T> {
+
+	public ResultSetIterator(Statement statement, ResultSet resultSet, RowMapper<T> rowMapper, int maxResults) {
+		this.statement = statement;
+		this.resultSet = resultSet;
+		this.rowMapper = rowMapper;
+		this.maxResults = maxResults;
+	}
+
+	private final Statement statement;
+	private final ResultSet resultSet;
+	private final RowMapper<T> rowMapper;
+	private final int maxResults;
+
+	private int count = 0;
+	private boolean closed = false;
+	private Boolean next = null;
+
+	@Override
+	public boolean hasNext() {
+		if (closed) {
+			return false;
+		}
+		if (next == null) {
+			try {
+				next = ((maxResults == QueryFacade.MAX_RESULT_NONE) || (count < maxResults)) && resultSet.next();
+			} catch (SQLException e) {
+				close();
+				throw new PersistenceException(e);
+			}
+			if (!next) {
+				close();
+			}
+		}
+		return next;
+	}
+
+	@Override
+	public T next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		next = null;
+		count++;
+		try {
+			return rowMapper.map(resultSet);
+		} catch (SQLException e) {
+			close();
+			throw new PersistenceException(e);
+		}
+	}
+
+	@Override
+	public void close() {
+		if (!closed) {
+			closed = true;
+			next = Boolean.FALSE;
+			try {
+				closeStatement(statement, resultSet);
+			} catch (SQLException e) {
+				throw new PersistenceException(e);
+			}
+		}
+	}
+
+	protected void closeStatement(Statement statement, ResultSet resultSet) throws SQLException {
+		statement.close();
+	}
+}
@@ -0,0 +1,53 @@
+package br.dev.juniorlatalisa.persistence;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Converte a linha corrente de um {@link ResultSet} em um objeto. A
+ * implementação não deve movimentar o cursor do {@link ResultSet}.
+ *
+ * @author Junior Latalisa
+ * @param <T> Tipo do objeto convertido.
+ * @see JDBCQuery#list(String, java.util.List, RowMapper, int, int, int)
+ * @see JDBCQuery#iterator(String, java.util.List, RowMapper, int, int, int)
+ */
+@FunctionalInterface
+public interface RowMapper<T> {
+
+	/**
+	 * Retorna o valor da coluna quando o resultado possuir apenas uma coluna, caso
+	 * contrário retorna um array com os valores de todas as colunas.
+	 */
+	RowMapper<Object> DEFAULT = resultSet -> {
+		final int columnCount = resultSet.getMetaData().getColumnCount();
+		if (columnCount == 1) {
+			return resultSet.getObject(1);
+		}
+		final Object[] row = new Object[columnCount];
+		for (int i = 0; i < columnCount; i++) {
+			row[i] = resultSet.getObject(i + 1);
+		}
+		return row;
+	};
+
+	T map(ResultSet resultSet) throws SQLException;
+
+	/**
+	 * Retorna o valor da primeira coluna convertido para o tipo informado.
+	 * 
+	 * @see ResultSet#getObject(int, Class)
+	 */
+	static <T> RowMapper<T> column(Class<T> type) {
+		return resultSet -> resultSet.getObject(1, type);
+	}
+
+	/**
+	 * Retorna um {@link BeanRowMapper} (compartilhado) para a classe informada.
+	 * 
+	 * @see BeanRowMapper#of(Class)
+	 */
+	static <T> RowMapper<T> bean(Class<T> beanClass) {
+		return BeanRowMapper.of(beanClass);
+	}
+}
@@ -0,0 +1,303 @@
+package br.dev.juniorlatalisa.persistence;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.NoSuchElementException;
+
+import javax.persistence.PersistenceException;
+
+/**
+ * Lê um script SQL comando a comando (separados por ";"), sem carregar o
+ * script inteiro em memória. O ";" é ignorado dentro de textos ('...'),
+ * identificadores ("..." e `...`), comentários (-- e /* *&#47;) e corpos
+ * delimitados por $$ ou $tag$ (PostgreSQL). Os comentários são removidos,
+ * exceto as dicas (/*+ *&#47;) e os comentários condicionais (/*! *&#47;), e
+ * o {@link QueryFacade#UTF8_BOM} no início do script é ignorado.
+ * <p>
+ * Por padrão segue o SQL padrão: a aspa dentro do texto é duplicada ('it''s')
+ * e o primeiro *&#47; encerra o comentário. O escape com barra invertida
+ * ('it\'s') do MySQL, também aceito nos textos E'...' do PostgreSQL, e os
+ * comentários aninhados do PostgreSQL são habilitados por
+ * {@link #setBackslashEscapes(boolean)} e {@link #setNestedComments(boolean)}.
+ *
+ * @author Junior Latalisa
+ * @see JDBCQuery#executeScript(SQLScriptReader, int, java.util.function.Consumer)
+ */
+public class SQLScriptReader implements CloseableIterator<String> {
+
+	public SQLScriptReader(Reader reader) {
+		this.reader = reader;
+	}
+
+	private final Reader reader;
+	private final char[] buffer = new char[8192];
+	private int position = 0;
+	private int limit = 0;
+	private int pushback = -1;
+	private long charactersRead = 0;
+	private long statementCount = 0;
+	private String next = null;
+	private boolean closed = false;
+	private boolean backslashEscapes = false;
+	private boolean nestedComments = false;
+
+	/**
+	 * Aceita o escape com barra invertida nos textos ('...' e "...") (MySQL). O
+	 * padrão é falso, exceto nos textos E'...' (PostgreSQL).
+	 */
+	public SQLScriptReader setBackslashEscapes(boolean backslashEscapes) {
+		this.backslashEscapes = backslashEscapes;
+		return this;
+	}
+
+	/**
+	 * Considera os comentários /* *&#47; aninhados (PostgreSQL). O padrão é falso.
+	 */
+	public SQLScriptReader setNestedComments(boolean nestedComments) {
+		this.nestedComments = nestedComments;
+		return this;
+	}
+
+	/**
+	 * Quantidade de caracteres lidos do script, para o acompanhamento do
+	 * progresso.
+	 */
+	public long getPosition() {
+		return charactersRead;
+	}
+
+	/**
+	 * Quantidade de comandos retornados por {@link #next()}.
+	 */
+	public long getStatementCount() {
+		return statementCount;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (next == null && !closed) {
+			try {
+				next = readStatement();
+			} catch (IOException e) {
+				close();
+				throw new PersistenceException(e);
+			}
+			if (next == null) {
+				close();
+			}
+		}
+		return next != null;
+	}
+
+	@Override
+	public String next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		final String retorno = next;
+		next = null;
+		statementCount++;
+		return retorno;
+	}
+
+	@Override
+	public void close() {
+		if (!closed) {
+			closed = true;
+			try {
+				reader.close();
+			} catch (IOException e) {
+				throw new PersistenceException(e);
+			}
+		}
+	}
+
+	private int read() throws IOException {
+		if (pushback >= 0) {
+			final int retorno = pushback;
+			pushback = -1;
+			return retorno;
+		}
+		if (position == limit) {
+			position = 0;
+			limit = Math.max(0, reader.read(buffer, 0, buffer.length));
+			if (limit == 0) {
+				return -1;
+			}
+			if ((charactersRead == 0) && (buffer[0] == QueryFacade.UTF8_BOM.charAt(0))) {
+				position = 1;
+				charactersRead = 1;
+				return read();
+			}
+		}
+		charactersRead++;
+		return buffer[position++];
+	}
+
+	private void unread(int c) {
+		pushback = c;
+	}
+
+	/**
+	 * @return O próximo comando, ou null no fim do script.
+	 */
+	protected String readStatement() throws IOException {
+		final StringBuilder sql = new StringBuilder();
+		boolean content = false;
+		int c;
+		while ((c = read()) >= 0) {
+			switch (c) {
+			case ';':
+				if (content) {
+					return sql.toString().trim();
+				}
+				sql.setLength(0);
+				break;
+			case '\'':
+			case '"':
+			case '`':
+				readQuoted(sql, (char) c);
+				content = true;
+				break;
+			case '-':
+				c = read();
+				if (c == '-') {
+					skipLine();
+					if (content) {
+						sql.append('\n');
+					}
+				} else {
+					unread(c);
+					sql.append('-');
+					content = true;
+				}
+				break;
+			case '/':
+				c = read();
+				if (c == '*') {
+					content |= readComment(sql, content);
+				} else {
+					unread(c);
+					sql.append('/');
+					content = true;
+				}
+				break;
+			case '$':
+				readDollarQuoted(sql);
+				content = true;
+				break;
+			default:
+				sql.append((char) c);
+				content |= !Character.isWhitespace(c);
+			}
+		}
+		return content ? sql.toString().trim() : null;
+	}
+
+	private void readQuoted(StringBuilder sql, char quote) throws IOException {
+		final boolean escapes = (quote != '`') && (backslashEscapes || ((quote == '\'') && isEscapeString(sql)));
+		sql.append(quote);
+		int c;
+		while ((c = read()) >= 0) {
+			sql.append((char) c);
+			if (c == quote) {
+				return;
+			}
+			if (escapes && (c == '\\')) {
+				c = read();
+				if (c < 0) {
+					return;
+				}
+				sql.append((char) c);
+			}
+		}
+	}
+
+	/**
+	 * Indica se o texto iniciado é um E'...' (PostgreSQL), com escape por barra
+	 * invertida.
+	 */
+	private static boolean isEscapeString(StringBuilder sql) {
+		final int length = sql.length();
+		if ((length == 0) || (Character.toUpperCase(sql.charAt(length - 1)) != 'E')) {
+			return false;
+		}
+		final char anterior = (length == 1) ? ' ' : sql.charAt(length - 2);
+		return !Character.isLetterOrDigit(anterior) && (anterior != '_');
+	}
+
+	private void skipLine() throws IOException {
+		int c;
+		do {
+			c = read();
+		} while ((c >= 0) && (c != '\n'));
+	}
+
+	/**
+	 * @return Verdadeiro quando o comentário foi mantido no comando.
+	 */
+	private boolean readComment(StringBuilder sql, boolean content) throws IOException {
+		int c = read();
+		final boolean mantido = (c == '+') || (c == '!');
+		if (mantido) {
+			sql.append("/*");
+		} else if (content) {
+			sql.append(' ');
+		}
+		int anterior = -1;
+		int nivel = 1;
+		while (c >= 0) {
+			if (mantido) {
+				sql.append((char) c);
+			}
+			if ((anterior == '*') && (c == '/')) {
+				if (--nivel == 0) {
+					break;
+				}
+				anterior = -1;
+			} else if (nestedComments && (anterior == '/') && (c == '*')) {
+				nivel++;
+				anterior = -1;
+			} else {
+				anterior = c;
+			}
+			c = read();
+		}
+		return mantido;
+	}
+
+	private void readDollarQuoted(StringBuilder sql) throws IOException {
+		final StringBuilder tag = new StringBuilder("$");
+		int c = read();
+		while ((c == '_') || Character.isLetter(c) || ((tag.length() > 1) && Character.isDigit(c))) {
+			tag.append((char) c);
+			c = read();
+		}
+		sql.append(tag);
+		if (c != '$') {
+			unread(c);
+			return;
+		}
+		sql.append('$');
+		final String fim = tag.append('$').toString();
+		final int inicio = sql.length();
+		while ((c = read()) >= 0) {
+			sql.append((char) c);
+			if ((c == '$') && (sql.length() - fim.length() >= inicio)
+					&& (sql.indexOf(fim, sql.length() - fim.length()) >= 0)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @param is      Script, fechado junto com o {@link SQLScriptReader}.
+	 * @param charset Codificação do script.
+	 */
+	public static SQLScriptReader create(InputStream is, Charset charset) {
+		return new SQLScriptReader(new InputStreamReader(is, charset));
+	}
+}
@@ -0,0 +1,147 @@
+package br.dev.juniorlatalisa.persistence;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.persistence.PersistenceException;
+
+/**
+ * Cache LRU limitado de {@link PreparedStatement} indexado pelo SQL e pelo tipo
+ * do {@link java.sql.ResultSet}. O statement é retirado do cache enquanto
+ * estiver em uso ({@link #acquire(String, int)}) e devolvido ao final
+ * ({@link #release(String, int, PreparedStatement)}), portanto consultas
+ * aninhadas com o mesmo SQL nunca compartilham o mesmo statement.
+ *
+ * @author Junior Latalisa
+ * @see JDBCQuery#setStatementCacheSize(int)
+ */
+public class StatementCache implements AutoCloseable {
+
+	public StatementCache(int maxSize) {
+		if (maxSize < 1) {
+			throw new PersistenceException("Tamanho do cache inválido: " + maxSize);
+		}
+		this.maxSize = maxSize;
+	}
+
+	private final int maxSize;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	private final Map<String, PreparedStatement> statements = new LinkedHashMap<String, PreparedStatement>(16,
+			0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+			if (size() > maxSize) {
+				evictions.incrementAndGet();
+				closeQuietly(eldest.getValue());
+				return true;
+			}
+			return false;
+		}
+	};
+
+	protected String createKey(String queryValue, int resultSetType) {
+		return resultSetType + ":" + queryValue;
+	}
+
+	/**
+	 * Retira o statement do cache.
+	 *
+	 * @return O statement ou null caso não esteja no cache.
+	 */
+	public PreparedStatement acquire(String queryValue, int resultSetType) {
+		final PreparedStatement statement;
+		synchronized (statements) {
+			statement = statements.remove(createKey(queryValue, resultSetType));
+		}
+		try {
+			if ((statement != null) && (!statement.isClosed())) {
+				hits.incrementAndGet();
+				return statement;
+			}
+		} catch (SQLException e) {
+			closeQuietly(statement);
+		}
+		misses.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * Devolve o statement ao cache.
+	 *
+	 * @return false quando o statement não foi mantido no cache e deve ser fechado
+	 *         pelo chamador.
+	 */
+	public boolean release(String queryValue, int resultSetType, PreparedStatement statement) {
+		try {
+			statement.clearParameters();
+			statement.clearBatch();
+			statement.setMaxRows(0);
+			statement.setFetchSize(0);
+		} catch (SQLException e) {
+			return false;
+		}
+		synchronized (statements) {
+			return statements.putIfAbsent(createKey(queryValue, resultSetType), statement) == null;
+		}
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public int size() {
+		synchronized (statements) {
+			return statements.size();
+		}
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * Fecha e remove todos os statements do cache.
+	 */
+	@Override
+	public void close() {
+		final List<PreparedStatement> values;
+		synchronized (statements) {
+			values = new ArrayList<>(statements.values());
+			statements.clear();
+		}
+		values.forEach(StatementCache::closeQuietly);
+	}
+
+	protected static void closeQuietly(PreparedStatement statement) {
+		try {
+			statement.close();
+		} catch (SQLException e) {
+			// Statement já descartado
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("StatementCache [size=%d, maxSize=%d, hits=%d, misses=%d, evictions=%d]", size(),
+				maxSize, getHits(), getMisses(), getEvictions());
+	}
+}
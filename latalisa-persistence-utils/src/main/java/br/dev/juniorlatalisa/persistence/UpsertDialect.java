@@ -0,0 +1,176 @@
+package br.dev.juniorlatalisa.persistence;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.persistence.PersistenceException;
+
+/**
+ * Comando nativo de inclusão ou atualização (upsert) de cada banco de dados,
+ * utilizado por {@link JDBCQuery#upsertAll(String, List, List, Iterable, int)}
+ * e {@link JPAQuery#upsertAll(Iterable, int)}.
+ *
+ * @author Junior Latalisa
+ */
+public enum UpsertDialect {
+
+	/**
+	 * MERGE INTO ... KEY (...) VALUES (...) ou, quando apenas parte das colunas é
+	 * atualizada, MERGE INTO ... USING ... WHEN MATCHED ... WHEN NOT MATCHED ...
+	 * com os parâmetros da chave, das colunas atualizadas e de todas as colunas.
+	 * A versão incrementada também exige o MERGE INTO ... USING ...
+	 */
+	H2 {
+		@Override
+		public String createUpsert(String table, List<String> keyColumns, List<String> columns,
+				List<String> updateColumns, String versionColumn) {
+			if ((versionColumn == null) && isUpdateAll(keyColumns, columns, updateColumns)) {
+				return String.format("merge into %s (%s) key (%s) values (%s)", table, String.join(", ", columns),
+						String.join(", ", keyColumns), createParams(columns));
+			}
+			final String key = keyColumns.stream().map(column -> table + "." + column + " = ?")
+					.collect(Collectors.joining(" and "));
+			final String update = createUpdate(updateColumns.stream().map(column -> column + " = ?"),
+					table, versionColumn);
+			return String.format("merge into %s using (select 1 x) s on (%s) %swhen not matched then insert (%s) "
+					+ "values (%s)", table, key, update.isEmpty() ? "" : "when matched then update set " + update + " ",
+					String.join(", ", columns), createParams(columns));
+		}
+
+		@Override
+		public List<String> getParameterColumns(List<String> keyColumns, List<String> columns,
+				List<String> updateColumns, String versionColumn) {
+			if ((versionColumn == null) && isUpdateAll(keyColumns, columns, updateColumns)) {
+				return columns;
+			}
+			final List<String> retorno = new ArrayList<>(keyColumns);
+			retorno.addAll(updateColumns);
+			retorno.addAll(columns);
+			return retorno;
+		}
+	},
+
+	/**
+	 * INSERT ... ON CONFLICT (...) DO UPDATE SET ...
+	 */
+	POSTGRESQL {
+		@Override
+		public String createUpsert(String table, List<String> keyColumns, List<String> columns,
+				List<String> updateColumns, String versionColumn) {
+			final String update = createUpdate(
+					updateColumns.stream().map(column -> column + " = excluded." + column), table, versionColumn);
+			return String.format("insert into %s (%s) values (%s) on conflict (%s) do %s", table,
+					String.join(", ", columns), createParams(columns), String.join(", ", keyColumns),
+					update.isEmpty() ? "nothing" : "update set " + update);
+		}
+	},
+
+	/**
+	 * INSERT ... ON DUPLICATE KEY UPDATE ... (MySQL e MariaDB)
+	 */
+	MYSQL {
+		@Override
+		public String createUpsert(String table, List<String> keyColumns, List<String> columns,
+				List<String> updateColumns, String versionColumn) {
+			final String update = createUpdate(
+					updateColumns.stream().map(column -> column + " = values(" + column + ")"), table, versionColumn);
+			return String.format("insert into %s (%s) values (%s) on duplicate key update %s", table,
+					String.join(", ", columns), createParams(columns),
+					update.isEmpty() ? keyColumns.get(0) + " = " + keyColumns.get(0) : update);
+		}
+	};
+
+	/**
+	 * Comando que atualiza todas as colunas que não pertencem à chave.
+	 *
+	 * @param keyColumns Colunas da chave (primária ou única) que identifica o
+	 *                   registro, também presentes em columns.
+	 * @param columns    Colunas na ordem dos parâmetros do comando.
+	 */
+	public String createUpsert(String table, List<String> keyColumns, List<String> columns) {
+		return createUpsert(table, keyColumns, columns, columns.stream()
+				.filter(column -> !keyColumns.contains(column)).collect(Collectors.toList()));
+	}
+
+	/**
+	 * @param keyColumns    Colunas da chave (primária ou única) que identifica o
+	 *                      registro, também presentes em columns.
+	 * @param columns       Colunas incluídas.
+	 * @param updateColumns Colunas atualizadas quando o registro já existe.
+	 * @see #getParameterColumns(List, List, List)
+	 */
+	public String createUpsert(String table, List<String> keyColumns, List<String> columns,
+			List<String> updateColumns) {
+		return createUpsert(table, keyColumns, columns, updateColumns, null);
+	}
+
+	/**
+	 * @param keyColumns    Colunas da chave (primária ou única) que identifica o
+	 *                      registro, também presentes em columns.
+	 * @param columns       Colunas incluídas.
+	 * @param updateColumns Colunas atualizadas quando o registro já existe.
+	 * @param versionColumn Coluna numérica ({@link javax.persistence.Version})
+	 *                      incrementada quando o registro já existe, opcional.
+	 * @see #getParameterColumns(List, List, List, String)
+	 */
+	public abstract String createUpsert(String table, List<String> keyColumns, List<String> columns,
+			List<String> updateColumns, String versionColumn);
+
+	/**
+	 * Colunas na ordem dos parâmetros do comando, o padrão é columns.
+	 */
+	public List<String> getParameterColumns(List<String> keyColumns, List<String> columns,
+			List<String> updateColumns) {
+		return getParameterColumns(keyColumns, columns, updateColumns, null);
+	}
+
+	/**
+	 * Colunas na ordem dos parâmetros do comando, o padrão é columns.
+	 */
+	public List<String> getParameterColumns(List<String> keyColumns, List<String> columns,
+			List<String> updateColumns, String versionColumn) {
+		return columns;
+	}
+
+	/**
+	 * Atribuições do comando de atualização, a versão só é incrementada quando
+	 * alguma coluna é atualizada.
+	 */
+	private static String createUpdate(Stream<String> update, String table, String versionColumn) {
+		final String retorno = update.collect(Collectors.joining(", "));
+		return (versionColumn == null) || retorno.isEmpty() ? retorno
+				: retorno + ", " + versionColumn + " = " + table + "." + versionColumn + " + 1";
+	}
+
+	private static boolean isUpdateAll(List<String> keyColumns, List<String> columns, List<String> updateColumns) {
+		return columns.stream().allMatch(column -> keyColumns.contains(column) || updateColumns.contains(column));
+	}
+
+	private static String createParams(List<String> columns) {
+		return columns.stream().map(column -> "?").collect(Collectors.joining(", "));
+	}
+
+	/**
+	 * Dialeto do banco de dados da conexão.
+	 *
+	 * @see java.sql.DatabaseMetaData#getDatabaseProductName()
+	 */
+	public static UpsertDialect of(Connection connection) throws SQLException {
+		final String product = connection.getMetaData().getDatabaseProductName();
+		switch (product.toLowerCase()) {
+			case "h2":
+				return H2;
+			case "postgresql":
+				return POSTGRESQL;
+			case "mysql":
+			case "mariadb":
+				return MYSQL;
+			default:
+				throw new PersistenceException("Upsert não suportado pelo banco de dados: " + product);
+		}
+	}
+}
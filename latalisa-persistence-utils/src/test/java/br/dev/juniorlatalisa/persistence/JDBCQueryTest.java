@@ -0,0 +1,314 @@
+package br.dev.juniorlatalisa.persistence;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.persistence.PersistenceException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JDBCQueryTest {
+
+	private static final AtomicInteger databases = new AtomicInteger();
+
+	/**
+	 * Banco de dados próprio de cada teste, descartado ao fechar a última
+	 * conexão.
+	 */
+	private String url;
+	private JDBCQuery query;
+
+	@Before
+	public void before() throws SQLException {
+		url = "jdbc:h2:mem:jdbcquery" + databases.incrementAndGet();
+		query = JDBCQuery.create(DriverManager.getConnection(url, "sa", ""));
+		query.execute("create table pessoa (id bigint primary key, nome varchar(100), valor_total double)");
+		for (long id = 1; id <= 10; id++) {
+			query.execute("insert into pessoa (id, nome, valor_total) values (?, ?, ?)",
+					Arrays.asList(id, "Pessoa " + id, id * 1.5));
+		}
+	}
+
+	@After
+	public void after() {
+		query.close();
+	}
+
+	@Test
+	public void list() {
+		List<Pessoa> retorno = JDBCQueryBuilder.create(query, "select * from pessoa order by id") //
+				.setResultClass(Pessoa.class) //
+				.setStartResult(2) //
+				.setMaxResults(3) //
+				.list();
+		Assert.assertEquals(3, retorno.size());
+		Assert.assertEquals(3L, retorno.get(0).getId());
+		Assert.assertEquals("Pessoa 3", retorno.get(0).getNome());
+		Assert.assertEquals(4.5, retorno.get(0).getValorTotal(), 0.0);
+	}
+
+	@Test
+	public void find() {
+		String nome = JDBCQueryBuilder.create(query, "select nome from pessoa where id = ?") //
+				.addParam(5L) //
+				.find();
+		Assert.assertEquals("Pessoa 5", nome);
+	}
+
+	@Test
+	public void iterator() {
+		long total = 0;
+		try (CloseableIterator<Long> iterator = JDBCQueryBuilder.create(query, "select id from pessoa") //
+				.setRowMapper(RowMapper.column(Long.class)) //
+				.setFetchSize(2) //
+				.iterator()) {
+			while (iterator.hasNext()) {
+				total += iterator.next();
+			}
+		}
+		Assert.assertEquals(55L, total);
+	}
+
+	@Test
+	public void executeBatch() {
+		final List<List<Object>> rows = new ArrayList<>();
+		for (long id = 101; id <= 105; id++) {
+			rows.add(Arrays.asList(id, "Lote " + id, 0.0));
+		}
+		List<int[]> retorno = query.executeBatch("insert into pessoa (id, nome, valor_total) values (?, ?, ?)", rows,
+				2);
+		Assert.assertEquals(3, retorno.size());
+		Long total = JDBCQueryBuilder.create(query, "select count(*) from pessoa where nome like 'Lote %'") //
+				.setRowMapper(RowMapper.column(Long.class)) //
+				.find();
+		Assert.assertEquals(5L, total.longValue());
+	}
+
+	@Test
+	public void upsertAll() {
+		final List<List<Object>> rows = Arrays.asList(Arrays.asList(201L, "Upsert 201", 1.0),
+				Arrays.asList(202L, "Upsert 202", 2.0));
+		final List<String> columns = Arrays.asList("id", "nome", "valor_total");
+		query.upsertAll("pessoa", Arrays.asList("id"), columns, rows, 10);
+		rows.get(1).set(1, "Upsert 202 alterado");
+		query.upsertAll("pessoa", Arrays.asList("id"), columns, rows, 10);
+		Long total = JDBCQueryBuilder.create(query, "select count(*) from pessoa where id in (201, 202)").find();
+		Assert.assertEquals(2L, total.longValue());
+		Assert.assertEquals("Upsert 202 alterado",
+				JDBCQueryBuilder.create(query, "select nome from pessoa where id = 202").find());
+	}
+
+	@Test
+	public void statementCache() throws SQLException {
+		try (JDBCQuery cached = JDBCQuery
+				.create(DriverManager.getConnection(url, "sa", ""))
+				.setStatementCacheSize(2)) {
+			for (long id = 1; id <= 5; id++) {
+				cached.execute("update pessoa set valor_total = valor_total where id = ?", Arrays.asList(id));
+			}
+			Assert.assertEquals(1, cached.getStatementCache().getMisses());
+			Assert.assertEquals(4, cached.getStatementCache().getHits());
+			Assert.assertEquals(1, cached.getStatementCache().size());
+		}
+	}
+
+	@Test
+	public void pooledDataSource() throws SQLException {
+		try (PooledDataSource pool = PooledDataSource.create(url, "sa", "")
+				.setMaxSize(2) //
+				.setConnectionTimeout(Duration.ofMillis(100))) {
+			for (int i = 0; i < 3; i++) {
+				try (JDBCQuery pooled = JDBCQuery.create(pool)) {
+					Long count = JDBCQueryBuilder.create(pooled, "select count(*) from pessoa").find();
+					Assert.assertEquals(10L, count.longValue());
+				}
+			}
+			Assert.assertEquals(1, pool.getTotalConnections());
+			Assert.assertEquals(3, pool.getAcquisitionLatency().getCount());
+
+			final Connection first = pool.getConnection();
+			final Connection second = pool.getConnection();
+			try {
+				pool.getConnection();
+				Assert.fail("Pool esgotado");
+			} catch (SQLTimeoutException e) {
+				Assert.assertEquals(1, pool.getTimeouts());
+			} finally {
+				first.close();
+				second.close();
+			}
+			Assert.assertTrue(first.isClosed());
+			Assert.assertEquals(2, pool.getIdleConnections());
+
+			try (Connection connection = pool.getConnection();
+					Statement statement = connection.createStatement();
+					PreparedStatement prepared = connection.prepareStatement("select 1")) {
+				Assert.assertSame(connection, statement.getConnection());
+				Assert.assertSame(connection, prepared.getConnection());
+				Assert.assertSame(connection, connection.getMetaData().getConnection());
+				connection.setAutoCommit(false);
+			}
+			try (Connection connection = pool.getConnection()) {
+				Assert.assertTrue(connection.getAutoCommit());
+			}
+		}
+		try {
+			PooledDataSource.create(url, "sa", "").setMaxSize(2).setMinSize(3);
+			Assert.fail("Tamanho mínimo maior que o máximo");
+		} catch (PersistenceException e) {
+			// Tamanho mínimo inválido
+		}
+	}
+
+	@Test
+	public void timeout() throws SQLException {
+		final Connection connection = DriverManager.getConnection(url, "sa", "");
+		final List<Integer> aplicados = new ArrayList<>();
+		try (JDBCQuery limited = new JDBCQuery() {
+
+			@Override
+			protected Connection getConnection() {
+				return connection;
+			}
+
+			@Override
+			protected void setTimeout(Statement statement, Duration timeout) throws SQLException {
+				super.setTimeout(statement, timeout);
+				aplicados.add(statement.getQueryTimeout());
+				aplicados.add(statement.getFetchSize());
+			}
+		}.setDefaultFetchSize(50).setDefaultTimeout(Duration.ofSeconds(30))) {
+			JDBCQueryBuilder.create(limited, "select id from pessoa").list();
+			JDBCQueryBuilder.create(limited, "select id from pessoa") //
+					.setTimeout(Duration.ofMillis(1500)) //
+					.setFetchSize(5) //
+					.list();
+		}
+		Assert.assertEquals(Arrays.asList(30, 50, 2, 5), aplicados);
+	}
+
+	@Test
+	public void async() {
+		try (PooledDataSource pool = PooledDataSource.create(url, "sa", "")) {
+			final JDBCQuery pooled = JDBCQuery.create(pool);
+			final QueryFuture<List<Pessoa>> pessoas = JDBCQueryBuilder
+					.create(pooled, "select * from pessoa order by id") //
+					.setResultClass(Pessoa.class) //
+					.listAsync();
+			final QueryFuture<String> nome = JDBCQueryBuilder.create(pooled, "select nome from pessoa where id = ?") //
+					.addParam(7L) //
+					.findAsync();
+			CompletableFuture.allOf(pessoas, nome).join();
+			Assert.assertEquals(10, pessoas.join().size());
+			Assert.assertEquals("Pessoa 7", nome.join());
+			Assert.assertEquals(0, pool.getActiveConnections());
+		}
+	}
+
+	@Test
+	public void executeScript() {
+		final String script = QueryFacade.UTF8_BOM + "-- carga; inicial\n" //
+				+ "create table script (id bigint primary key, nome varchar(100));\n" //
+				+ "insert into script values (1, 'a;b'); /* comentário; */\n" //
+				+ "insert into script values (2, 'it''s');;\n" //
+				+ "insert into script values (3, $$x;y$$)";
+		final List<Long> progresso = new ArrayList<>();
+		final long total = query.executeScript(
+				SQLScriptReader.create(new ByteArrayInputStream(script.getBytes(StandardCharsets.UTF_8)),
+						StandardCharsets.UTF_8),
+				2, reader -> progresso.add(reader.getStatementCount()));
+		Assert.assertEquals(4L, total);
+		Assert.assertEquals(Arrays.asList(2L, 4L), progresso);
+		Assert.assertEquals("a;b", JDBCQueryBuilder.create(query, "select nome from script where id = 1").find());
+		Assert.assertEquals("it's", JDBCQueryBuilder.create(query, "select nome from script where id = 2").find());
+		Assert.assertEquals("x;y", JDBCQueryBuilder.create(query, "select nome from script where id = 3").find());
+	}
+
+	@Test
+	public void scriptReaderDialects() {
+		final String script = "select 'it\\'s; ok', E'a\\';b' from dual; select 1 /* a /* b; */ c; */ from dual";
+		final List<String> comandos = new ArrayList<>();
+		try (SQLScriptReader reader = SQLScriptReader
+				.create(new ByteArrayInputStream(script.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8)
+				.setBackslashEscapes(true) //
+				.setNestedComments(true)) {
+			reader.forEachRemaining(comandos::add);
+		}
+		Assert.assertEquals(Arrays.asList("select 'it\\'s; ok', E'a\\';b' from dual", "select 1   from dual"),
+				comandos);
+
+		comandos.clear();
+		try (SQLScriptReader reader = SQLScriptReader.create(
+				new ByteArrayInputStream("select 'c:\\'; select E'\\';'".getBytes(StandardCharsets.UTF_8)),
+				StandardCharsets.UTF_8)) {
+			reader.forEachRemaining(comandos::add);
+		}
+		Assert.assertEquals(Arrays.asList("select 'c:\\'", "select E'\\';'"), comandos);
+	}
+
+	@Test
+	public void queryMetrics() throws SQLException {
+		final QueryMetrics metrics = new QueryMetrics().setSlowQueryThreshold(Duration.ofNanos(1));
+		try (JDBCQuery measured = JDBCQuery
+				.create(DriverManager.getConnection(url, "sa", ""))
+				.setQueryMetrics(metrics)) {
+			JDBCQueryBuilder.create(measured, "select id from pessoa where id <= 3").list();
+			JDBCQueryBuilder.create(measured, "select id from pessoa where id <= 5").list();
+			measured.execute("update pessoa set nome = nome where id = ?", Arrays.asList(1L));
+		}
+		final List<QueryStats> stats = metrics.getQueryStats();
+		Assert.assertEquals(2, stats.size());
+		final QueryStats select = stats.stream()
+				.filter(query -> query.getSignature().equals("select id from pessoa where id <= ?")).findFirst().get();
+		Assert.assertEquals(2, select.getCalls());
+		Assert.assertEquals(8, select.getRows());
+		Assert.assertEquals(3, metrics.getTotalCalls());
+		Assert.assertEquals(3, metrics.getSlowQueries());
+	}
+
+	public static class Pessoa {
+
+		private long id;
+		private String nome;
+		private double valorTotal;
+
+		public long getId() {
+			return id;
+		}
+
+		public void setId(long id) {
+			this.id = id;
+		}
+
+		public String getNome() {
+			return nome;
+		}
+
+		public void setNome(String nome) {
+			this.nome = nome;
+		}
+
+		public double getValorTotal() {
+			return valorTotal;
+		}
+
+		public void setValorTotal(double valorTotal) {
+			this.valorTotal = valorTotal;
+		}
+	}
+}
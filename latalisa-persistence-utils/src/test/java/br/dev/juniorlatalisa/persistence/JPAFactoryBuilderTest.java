@@ -1,5 +1,6 @@
 package br.dev.juniorlatalisa.persistence;
 
+import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.spi.PersistenceUnitTransactionType;
 
@@ -36,4 +37,44 @@ public class JPAFactoryBuilderTest {
 		}
 	}
 
+	@Test
+	public void localCache() {
+		final EntityManagerFactory emf = new JPAFactoryBuilder() //
+				.setProperty(AvailableSettings.JPA_JDBC_URL, //
+						"jdbc:h2:mem:latalisa_cache;IGNORECASE=TRUE;DB_CLOSE_ON_EXIT=TRUE")
+				.setProperty(AvailableSettings.JPA_JDBC_DRIVER, org.h2.Driver.class.getName()) //
+				.setProperty(AvailableSettings.DIALECT, H2Dialect.class.getName()) //
+				.setProperty(AvailableSettings.HBM2DDL_AUTO, "update") //
+				.setPersistenceUnitName("TestCache") //
+				.setPersistenceProviderClassName(HibernatePersistenceProvider.class.getName()) //
+				.setTransactionType(PersistenceUnitTransactionType.RESOURCE_LOCAL) //
+				.setManagedClassNames(EntityTest.class.getName()) //
+				.setLocalCache(100, 0) //
+				.setEntityCache(EntityTest.class, "read-write", null) //
+				.build();
+		try {
+			final EntityTest entity = new EntityTest();
+			entity.setName("Cache");
+			entity.setValue(1.0);
+			EntityManager em = emf.createEntityManager();
+			try {
+				em.getTransaction().begin();
+				em.persist(entity);
+				em.getTransaction().commit();
+			} finally {
+				em.close();
+			}
+			emf.getCache().evictAll();
+			em = emf.createEntityManager();
+			try {
+				Assert.assertNotNull(em.find(EntityTest.class, entity.getId()));
+			} finally {
+				em.close();
+			}
+			Assert.assertTrue(emf.getCache().contains(EntityTest.class, entity.getId()));
+		} finally {
+			emf.close();
+		}
+	}
+
 }
@@ -0,0 +1,323 @@
+package br.dev.juniorlatalisa.persistence;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.LockModeType;
+import javax.persistence.PersistenceException;
+import javax.sql.DataSource;
+
+import org.hibernate.cfg.AvailableSettings;
+import org.h2.jdbcx.JdbcDataSource;
+import org.hibernate.dialect.H2Dialect;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import br.dev.juniorlatalisa.model.Entidade;
+import br.dev.juniorlatalisa.model.ModelEntity;
+import br.dev.juniorlatalisa.persistence.model.ScanEntityTest;
+import br.dev.juniorlatalisa.persistence.JPAQuery.QueryStrategy;
+
+public class JPAQueryMultiDataBaseTest {
+
+	private static final ThreadLocal<String> contexto = new ThreadLocal<>();
+	private static final ThreadLocal<EntityManager> entityManager = new ThreadLocal<>();
+	private static final Map<String, EntityManagerFactory> factories = new HashMap<>();
+	private static final PooledDataSourceLookup lookup = DataSourceLookup.pooled(new DataSourceLookup() {
+
+		@Override
+		public DataSource doLookupDataSource(String contexto) {
+			final JdbcDataSource dataSource = new JdbcDataSource();
+			dataSource.setURL("jdbc:h2:mem:multi_" + contexto + ";DB_CLOSE_DELAY=-1");
+			dataSource.setUser("sa");
+			return dataSource;
+		}
+
+		@Override
+		public List<DataSource> doLookupReplicaDataSources(String contexto) {
+			return "r".equals(contexto) ? List.of(doLookupDataSource("r_replica")) : List.of();
+		}
+	}, 5);
+	/**
+	 * Quantidade de {@link EntityManagerFactory} criados por contexto, os
+	 * contextos iniciados por "falha" não são criados.
+	 */
+	private static final Map<String, AtomicInteger> builds = new ConcurrentHashMap<>();
+	private static JPAQueryMultiDataBase<Entidade> query;
+
+	@BeforeClass
+	public static void beforeClass() {
+		query = createQuery(factories, false);
+	}
+
+	protected static JPAQueryMultiDataBase<Entidade> createQuery(Map<String, EntityManagerFactory> factories,
+			boolean sharedMetadata) {
+		return new JPAQueryMultiDataBase<Entidade>() {
+
+			@Override
+			protected DataSourceLookup getDataSourceLookup() {
+				return lookup;
+			}
+
+			@Override
+			protected Map<Class<? extends Entidade>, Class<? extends Entidade>> getMappedClasses() {
+				return Map.of(ModelEntity.class, ModelEntity.class, ScanEntityTest.class, ScanEntityTest.class);
+			}
+
+			@Override
+			protected ThreadLocal<String> getContextThreadLocal() {
+				return contexto;
+			}
+
+			@Override
+			protected ThreadLocal<EntityManager> getEntityManagerThreadLocal() {
+				return entityManager;
+			}
+
+			@Override
+			protected Map<String, EntityManagerFactory> getFactories() {
+				return factories;
+			}
+
+			@Override
+			protected EntityManagerFactory createEntityManagerFactory(String persistenceUnitName) {
+				builds.computeIfAbsent(persistenceUnitName, key -> new AtomicInteger()).incrementAndGet();
+				if (persistenceUnitName.startsWith("falha")) {
+					throw new PersistenceException("Falha na criação de " + persistenceUnitName);
+				}
+				return super.createEntityManagerFactory(persistenceUnitName);
+			}
+
+			@Override
+			protected JPAFactoryBuilder createJPAFactoryBuilder(DataSource dataSource, String persistenceUnitName) {
+				return super.createJPAFactoryBuilder(dataSource, persistenceUnitName, false, false, false)
+						.setProperty(AvailableSettings.DIALECT, H2Dialect.class.getName()) //
+						.setProperty(AvailableSettings.HBM2DDL_AUTO, "update");
+			}
+
+			@Override
+			protected int getMaxFactories() {
+				return 2;
+			}
+
+			@Override
+			protected boolean isSharedMetadata() {
+				return sharedMetadata;
+			}
+		};
+	}
+
+	@AfterClass
+	public static void afterClass() {
+		factories.values().forEach(EntityManagerFactory::close);
+		lookup.close();
+	}
+
+	@Test
+	public void warmUpAndEviction() {
+		query.warmUp(Arrays.asList("a", "b", "c"), 3).join();
+		Assert.assertTrue(query.getFactoryCount() >= 2);
+
+		query.evictFactories(Duration.ZERO);
+		Assert.assertEquals(2, query.getFactoryCount());
+		Assert.assertEquals(2, factories.size());
+		for (String tenant : Arrays.asList("a", "b", "c")) {
+			Assert.assertEquals(factories.containsKey(tenant), lookup.getPools().containsKey(tenant));
+		}
+
+		contexto.set("a");
+		try {
+			Assert.assertTrue(query.list(QueryStrategy.DEFAULT, "select e from ModelEntity e", null,
+					QueryFacade.START_RESULT_NONE, QueryFacade.MAX_RESULT_NONE).isEmpty());
+		} finally {
+			contexto.remove();
+		}
+	}
+
+	@Test
+	public void concurrentFactoryBuild() throws Exception {
+		final int threads = 8;
+		final CountDownLatch inicio = new CountDownLatch(1);
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			final List<Future<EntityManagerFactory>> futures = new ArrayList<>();
+			for (int i = 0; i < threads; i++) {
+				futures.add(executor.submit(() -> {
+					inicio.await();
+					return query.getEntityManagerFactory("n");
+				}));
+			}
+			inicio.countDown();
+			final EntityManagerFactory factory = futures.get(0).get();
+			for (Future<EntityManagerFactory> future : futures) {
+				Assert.assertSame(factory, future.get());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		Assert.assertEquals(1, builds.get("n").get());
+	}
+
+	@Test
+	public void failedFactoryBuild() {
+		for (int i = 0; i < 2; i++) {
+			try {
+				query.getEntityManagerFactory("falha");
+				Assert.fail();
+			} catch (PersistenceException e) {
+				Assert.assertEquals("Falha na criação de falha", e.getMessage());
+			}
+		}
+		Assert.assertEquals(2, builds.get("falha").get());
+		Assert.assertFalse(factories.containsKey("falha"));
+	}
+
+	@Test
+	public void unitOfWork() {
+		contexto.set("u");
+		try {
+			final ModelEntity entity = new ModelEntity();
+			entity.setCpf("11144477735");
+			try (var unitOfWork = query.begin(true)) {
+				query.create(entity);
+				Assert.assertSame(entity, query.read(ModelEntity.class, entity.getCodigo()));
+				try (var nested = query.begin(true)) {
+					Assert.assertFalse(nested.isOwner());
+					Assert.assertSame(unitOfWork.getEntityManager(), nested.getEntityManager());
+				}
+				unitOfWork.commit();
+			}
+			Assert.assertEquals(1, query.list(QueryStrategy.DEFAULT, "select e from ModelEntity e", null,
+					QueryFacade.START_RESULT_NONE, QueryFacade.MAX_RESULT_NONE).size());
+		} finally {
+			contexto.remove();
+		}
+	}
+
+	@Test
+	public void readReplica() {
+		contexto.set("r");
+		try {
+			final ModelEntity entity = new ModelEntity();
+			entity.setCpf("11144477735");
+			query.create(entity);
+			Assert.assertTrue(query.list(QueryStrategy.DEFAULT, "select e from ModelEntity e", null,
+					QueryFacade.START_RESULT_NONE, QueryFacade.MAX_RESULT_NONE).isEmpty());
+			Assert.assertNull(query.read(ModelEntity.class, entity.getCodigo()));
+			Assert.assertEquals(1, JPAQueryBuilder.create(query, QueryStrategy.DEFAULT, "select e from ModelEntity e")
+					.setLockMode(LockModeType.PESSIMISTIC_WRITE) //
+					.list().size());
+			try (var unitOfWork = query.begin(false)) {
+				Assert.assertNotNull(query.read(ModelEntity.class, entity.getCodigo()));
+			}
+			Assert.assertTrue(JPAQueryBuilder.create(query, QueryStrategy.DEFAULT, "select e from ModelEntity e")
+					.listAsync().join().isEmpty());
+			Assert.assertNotNull(query.async(primary -> primary.read(ModelEntity.class, entity.getCodigo())).join());
+			Assert.assertTrue(factories.containsKey("r" + JPAQueryMultiDataBase.REPLICA_SEPARATOR + 0));
+		} finally {
+			contexto.remove();
+		}
+	}
+
+	@Test
+	public void parallelScan() {
+		contexto.set("s");
+		try {
+			for (long id = 1; id <= 5; id++) {
+				query.create(new ScanEntityTest(id, "Scan " + id));
+			}
+		} finally {
+			contexto.remove();
+		}
+		final Set<Long> lidos = ConcurrentHashMap.newKeySet();
+		final JPAParallelScan<ScanEntityTest> scan = query.parallelScan("s", ScanEntityTest.class) //
+				.setChunkSize(2) //
+				.execute(chunk -> chunk.forEach(lido -> lidos.add(lido.getId())));
+		Assert.assertEquals(Set.of(1L, 2L, 3L, 4L, 5L), lidos);
+		Assert.assertEquals(3, scan.getCompletedChunks());
+	}
+
+	@Test
+	public void queryMetrics() {
+		final QueryMetrics metrics = new QueryMetrics();
+		query.setQueryMetrics(metrics);
+		try {
+			for (String tenant : Arrays.asList("m1", "m2", "m1")) {
+				contexto.set(tenant);
+				try {
+					query.list(QueryStrategy.DEFAULT, "select e from ModelEntity e where e.cpf = '11144477735'", null,
+							QueryFacade.START_RESULT_NONE, QueryFacade.MAX_RESULT_NONE);
+				} finally {
+					contexto.remove();
+				}
+			}
+		} finally {
+			query.setQueryMetrics(null);
+		}
+		final List<QueryStats> m1 = metrics.getQueryStats("m1");
+		Assert.assertEquals(1, m1.size());
+		Assert.assertEquals("select e from ModelEntity e where e.cpf = ?", m1.get(0).getSignature());
+		Assert.assertEquals(2, m1.get(0).getCalls());
+		Assert.assertEquals(1, metrics.getQueryStats("m2").get(0).getCalls());
+		Assert.assertEquals(3, metrics.getTotalCalls());
+	}
+
+	@Test
+	public void sharedMetadata() {
+		final List<String> tenants = Arrays.asList("x", "y", "z");
+		for (String tenant : tenants) {
+			try (JDBCQuery jdbc = JDBCQuery.create(PooledDataSource
+					.create("jdbc:h2:mem:multi_" + tenant + ";DB_CLOSE_DELAY=-1", "sa", ""))) {
+				jdbc.execute("create table entity_test (codigo bigint auto_increment primary key, "
+						+ "cpf varchar(11), email varchar(255))");
+				if ("x".equals(tenant)) {
+					jdbc.execute("insert into entity_test (cpf) values ('11144477735')");
+				}
+			}
+		}
+		final Map<String, EntityManagerFactory> shared = new HashMap<>();
+		final JPAQueryMultiDataBase<Entidade> sharedQuery = createQuery(shared, true);
+		try {
+			for (String tenant : tenants) {
+				Assert.assertEquals("x".equals(tenant) ? 1 : 0, listModelEntities(sharedQuery, tenant));
+			}
+			Assert.assertEquals(1, sharedQuery.getFactoryCount());
+			Assert.assertTrue(shared.containsKey(JPAQueryMultiDataBase.SHARED_FACTORY));
+			tenants.forEach(tenant -> Assert.assertTrue(lookup.getPools().containsKey(tenant)));
+
+			Assert.assertEquals(1, sharedQuery.evictFactories(Duration.ZERO));
+			Assert.assertEquals(1, sharedQuery.getFactoryCount());
+			Assert.assertFalse(lookup.getPools().containsKey("x"));
+			Assert.assertTrue(lookup.getPools().containsKey("z"));
+			Assert.assertEquals(1, listModelEntities(sharedQuery, "x"));
+			Assert.assertTrue(lookup.getPools().containsKey("x"));
+		} finally {
+			shared.values().forEach(EntityManagerFactory::close);
+		}
+	}
+
+	private static int listModelEntities(JPAQueryMultiDataBase<Entidade> query, String tenant) {
+		contexto.set(tenant);
+		try {
+			return query.list(QueryStrategy.DEFAULT, "select e from ModelEntity e", null,
+					QueryFacade.START_RESULT_NONE, QueryFacade.MAX_RESULT_NONE).size();
+		} finally {
+			contexto.remove();
+		}
+	}
+}
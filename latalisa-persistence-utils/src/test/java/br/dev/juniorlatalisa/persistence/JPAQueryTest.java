@@ -1,9 +1,23 @@
 package br.dev.juniorlatalisa.persistence;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
+import javax.persistence.LockModeType;
 import javax.persistence.Persistence;
+import javax.persistence.PersistenceException;
 
+import org.hibernate.Session;
 import org.junit.AfterClass;
 import org.junit.Assert;
 import org.junit.BeforeClass;
@@ -11,12 +25,19 @@ import org.junit.Test;
 
 import br.dev.juniorlatalisa.persistence.JPAQuery.QueryStrategy;
 import br.dev.juniorlatalisa.persistence.model.EntityTest;
+import br.dev.juniorlatalisa.persistence.model.ScanEntityTest;
+import br.dev.juniorlatalisa.persistence.model.VersionedEntityTest;
 
 public class JPAQueryTest {
 
 	private static EntityManagerFactory factory;
 	private static JPAQuery query;
 	private static EntityTest entity;
+	/**
+	 * Ids esparsos da {@link ScanEntityTest}: blocos de 4 entre 1 e 200, apenas 6
+	 * com registros.
+	 */
+	private static final Set<Long> SCAN_IDS = Set.of(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L, 100L, 101L, 200L);
 
 	@BeforeClass
 	public static void beforeClass() {
@@ -30,6 +51,7 @@ public class JPAQueryTest {
 		try {
 			em.getTransaction().begin();
 			em.persist(entity);
+			SCAN_IDS.forEach(id -> em.persist(new ScanEntityTest(id, "Scan " + id)));
 			em.getTransaction().commit();
 			em.detach(entity);
 		} finally {
@@ -65,6 +87,397 @@ public class JPAQueryTest {
 		Assert.assertEquals(entity.getId(), retorno.getId());
 	}
 
+	@Test
+	public void iterator() {
+		boolean encontrado = false;
+		try (CloseableIterator<EntityTest> iterator = createJPAQueryBuilder(QueryStrategy.DEFAULT, //
+				"select e from EntityTest e order by e.id") //
+						.setFetchSize(10) //
+						.setClearInterval(10) //
+						.iterator()) {
+			while (iterator.hasNext()) {
+				encontrado |= entity.getId().equals(iterator.next().getId());
+			}
+		}
+		Assert.assertTrue(encontrado);
+	}
+
+	@Test
+	public void stream() {
+		try (Stream<EntityTest> stream = createJPAQueryBuilder(QueryStrategy.DEFAULT, //
+				"select e from EntityTest e where e.id = :id") //
+						.setParam("id", entity.getId()) //
+						.stream()) {
+			Assert.assertEquals(1, stream.count());
+		}
+	}
+
+	@Test
+	public void createAll() {
+		final List<EntityTest> entities = new ArrayList<>();
+		for (int i = 0; i < 25; i++) {
+			EntityTest entity = new EntityTest();
+			entity.setName("Lote " + i);
+			entity.setValue((double) i);
+			entities.add(entity);
+		}
+		Assert.assertEquals(25, query.createAll(entities, 10));
+		Assert.assertEquals(25L, (long) createJPAQueryBuilder(QueryStrategy.DEFAULT, //
+				"select count(e) from EntityTest e where e.name like 'Lote %'") //
+						.single());
+	}
+
+	@Test
+	public void deleteAll() {
+		final List<EntityTest> entities = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			EntityTest entity = new EntityTest();
+			entity.setName("Excluir " + i);
+			entities.add(entity);
+		}
+		query.createAll(entities, 5);
+		final List<Long> ids = new ArrayList<>();
+		entities.forEach(excluir -> ids.add(excluir.getId()));
+		ids.add(Long.MAX_VALUE);
+		Assert.assertEquals(5, query.deleteAll(EntityTest.class, ids, 2));
+		Assert.assertEquals(0L, (long) createJPAQueryBuilder(QueryStrategy.DEFAULT, //
+				"select count(e) from EntityTest e where e.name like 'Excluir %'") //
+						.single());
+	}
+
+	@Test
+	public void upsertAll() {
+		final List<VersionedEntityTest> entities = new ArrayList<>();
+		for (long i = 1; i <= 3; i++) {
+			entities.add(new VersionedEntityTest(i, "Upsert " + i, "Origem"));
+		}
+		Assert.assertEquals(3, query.upsertAll(entities, 2));
+		for (VersionedEntityTest alterar : entities) {
+			alterar.setName(alterar.getName() + " alterado");
+			alterar.setOrigin("Alterada");
+			alterar.setVersion(10);
+		}
+		entities.add(new VersionedEntityTest(4L, "Upsert 4", "Origem"));
+		Assert.assertEquals(4, query.upsertAll(entities, 2));
+		final EntityManager em = factory.createEntityManager();
+		try {
+			final VersionedEntityTest alterado = em.find(VersionedEntityTest.class, 1L);
+			Assert.assertEquals("Upsert 1 alterado", alterado.getName());
+			Assert.assertEquals("Origem", alterado.getOrigin());
+			Assert.assertEquals(Integer.valueOf(1), alterado.getVersion());
+			final VersionedEntityTest incluido = em.find(VersionedEntityTest.class, 4L);
+			Assert.assertEquals("Upsert 4", incluido.getName());
+			Assert.assertEquals(Integer.valueOf(0), incluido.getVersion());
+		} finally {
+			em.close();
+		}
+	}
+
+	@Test
+	public void parallelScan() {
+		final Set<Long> lidos = ConcurrentHashMap.newKeySet();
+		final JPAParallelScan<ScanEntityTest> scan = query.parallelScan(ScanEntityTest.class) //
+				.setChunkSize(4) //
+				.setParallelism(3) //
+				.execute(chunk -> chunk.forEach(lido -> Assert.assertTrue(lidos.add(lido.getId()))));
+		Assert.assertEquals(SCAN_IDS, lidos);
+		Assert.assertEquals(50, scan.getChunks());
+		Assert.assertEquals(50, scan.getCompletedChunks());
+		Assert.assertEquals(SCAN_IDS.size(), scan.getEntities());
+		Assert.assertEquals(0, scan.getFailedChunks());
+		scan.execute(chunk -> {
+		});
+		Assert.assertEquals(50, scan.getChunks());
+		Assert.assertEquals(50, scan.getCompletedChunks());
+		Assert.assertEquals(SCAN_IDS.size(), scan.getEntities());
+	}
+
+	@Test
+	public void parallelScanConsumerFailure() {
+		final AtomicInteger chamadas = new AtomicInteger();
+		final JPAParallelScan<ScanEntityTest> scan = query.parallelScan(ScanEntityTest.class) //
+				.setChunkSize(4) //
+				.setParallelism(1);
+		try {
+			scan.execute(chunk -> {
+				chamadas.incrementAndGet();
+				throw new IllegalStateException("Falha do consumidor");
+			});
+			Assert.fail();
+		} catch (PersistenceException e) {
+			Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+		Assert.assertEquals(1, chamadas.get());
+		Assert.assertEquals(1, scan.getFailedChunks());
+		Assert.assertEquals(0, scan.getRetries());
+		Assert.assertEquals(0, scan.getCompletedChunks());
+		Assert.assertEquals(50, scan.getChunks());
+	}
+
+	@Test
+	public void readAll() {
+		final EntityTest carregado = query.read(EntityTest.class, entity.getId());
+		final Map<Long, EntityTest> retorno = query.readAll(EntityTest.class,
+				Arrays.asList(Long.MAX_VALUE, entity.getId(), entity.getId()));
+		Assert.assertEquals(Collections.singletonList(entity.getId()), new ArrayList<>(retorno.keySet()));
+		Assert.assertSame(carregado, retorno.get(entity.getId()));
+	}
+
+	@Test
+	public void writeBehind() throws InterruptedException {
+		final JPAWriteBehindQueue<EntityTest> fila = JPAWriteBehindQueue.<EntityTest>create(factory) //
+				.setBatchSize(10) //
+				.setMaxDelay(Duration.ofMillis(50));
+		try {
+			for (int i = 0; i < 25; i++) {
+				EntityTest entity = new EntityTest();
+				entity.setName("Fila " + i);
+				fila.add(entity);
+			}
+			Assert.assertTrue(fila.awaitFlush(Duration.ofSeconds(10)));
+		} finally {
+			fila.close();
+		}
+		Assert.assertEquals(25, fila.getWrittenCount());
+		Assert.assertEquals(0, fila.getQueueDepth());
+		Assert.assertTrue(fila.getFlushLatency().getCount() >= 3);
+		Assert.assertEquals(25L, (long) createJPAQueryBuilder(QueryStrategy.DEFAULT, //
+				"select count(e) from EntityTest e where e.name like 'Fila %'") //
+						.single());
+	}
+
+	@Test
+	public void keyset() {
+		final long total = createJPAQueryBuilder(QueryStrategy.DEFAULT, "select count(e) from EntityTest e").single();
+		final List<EntityTest> lidos = new ArrayList<>();
+		KeysetPage<EntityTest> page = null;
+		do {
+			page = createJPAQueryBuilder(QueryStrategy.DEFAULT, "select e from EntityTest e order by e.name") //
+					.setKeysetCursor("id", page == null ? null : page.getNextCursor()) //
+					.setMaxResults(2) //
+					.page();
+			lidos.addAll(page.getContent());
+		} while (page.hasNext());
+		Assert.assertEquals(total, lidos.size());
+		for (int i = 1; i < lidos.size(); i++) {
+			Assert.assertTrue(lidos.get(i - 1).getId() < lidos.get(i).getId());
+		}
+	}
+
+	@Test
+	public void keysetHints() {
+		final JPAQueryEntityTransaction paged = JPAQueryEntityTransaction.create(factory.createEntityManager());
+		try {
+			final KeysetPage<EntityTest> page = JPAQueryBuilder.create(paged, QueryStrategy.DEFAULT, //
+					"select e from EntityTest e") //
+					.setKeyset("id", null) //
+					.setMaxResults(2) //
+					.setReadOnly(true) //
+					.setDetached(true) //
+					.page();
+			Assert.assertFalse(page.getContent().isEmpty());
+			page.getContent().forEach(lido -> Assert.assertFalse(paged.getEntityManager().contains(lido)));
+		} finally {
+			paged.close();
+		}
+	}
+
+	@Test
+	public void queryCache() {
+		final JPAQueryCache queryCache = new JPAQueryCache(10, Duration.ofMinutes(1));
+		final JPAQueryEntityTransaction cached = JPAQueryEntityTransaction.create(factory.createEntityManager());
+		try {
+			cached.setQueryCache(queryCache);
+			final String jpql = "select e from EntityTest e where e.name like :name";
+			final Map<String, Object> params = Collections.singletonMap("name", "Cache%");
+			Assert.assertTrue(cached.list(QueryStrategy.DEFAULT, jpql, params, -1, -1).isEmpty());
+			Assert.assertTrue(cached.list(QueryStrategy.DEFAULT, jpql, params, -1, -1).isEmpty());
+			Assert.assertEquals(1, queryCache.getHits());
+
+			EntityTest entity = new EntityTest();
+			entity.setName("Cache 1");
+			cached.create(entity);
+			Assert.assertEquals(0, queryCache.size());
+			Assert.assertEquals(1, cached.list(QueryStrategy.DEFAULT, jpql, params, -1, -1).size());
+			Assert.assertEquals(2, queryCache.getMisses());
+		} finally {
+			cached.close();
+		}
+	}
+
+	@Test
+	public void queryCacheEntities() {
+		final JPAQueryCache queryCache = new JPAQueryCache(10, Duration.ofMinutes(1));
+		final JPAQueryEntityTransaction cached = JPAQueryEntityTransaction.create(factory.createEntityManager());
+		try {
+			cached.setQueryCache(queryCache);
+			final String jpql = "select e from EntityTest e where e.id = :id";
+			final Map<String, Object> params = Collections.singletonMap("id", entity.getId());
+			final List<EntityTest> detached = cached.list(QueryStrategy.DEFAULT, jpql, params, -1, -1,
+					JPAQuery.readOnlyHints(true));
+			Assert.assertEquals(1, queryCache.size());
+			Assert.assertFalse(cached.getEntityManager().contains(detached.get(0)));
+			Assert.assertSame(detached, cached.list(QueryStrategy.DEFAULT, jpql, params, -1, -1,
+					JPAQuery.readOnlyHints(true)));
+			Assert.assertEquals(1, queryCache.getHits());
+			final List<EntityTest> managed = cached.list(QueryStrategy.DEFAULT, jpql, params, -1, -1,
+					JPAQuery.readOnlyHints(false));
+			Assert.assertTrue(cached.getEntityManager().contains(managed.get(0)));
+			Assert.assertEquals(1, cached.list(QueryStrategy.DEFAULT, jpql, params, -1, -1).size());
+			Assert.assertEquals(1, queryCache.size());
+			Assert.assertEquals(1, queryCache.getHits());
+		} finally {
+			cached.close();
+		}
+	}
+
+	@Test
+	public void queryCacheCommit() {
+		final JPAQueryCache queryCache = new JPAQueryCache(10, Duration.ofMinutes(1));
+		final JPAQueryEntityTransaction writer = JPAQueryEntityTransaction.create(factory.createEntityManager());
+		final JPAQueryEntityTransaction reader = JPAQueryEntityTransaction.create(factory.createEntityManager());
+		try {
+			writer.setQueryCache(queryCache);
+			reader.setQueryCache(queryCache);
+			final String jpql = "select e from EntityTest e where e.name like :name";
+			final Map<String, Object> params = Collections.singletonMap("name", "Commit%");
+			writer.getEntityManager().getTransaction().begin();
+			EntityTest entity = new EntityTest();
+			entity.setName("Commit 1");
+			writer.create(entity);
+			writer.getEntityManager().flush();
+			Assert.assertTrue(reader.list(QueryStrategy.DEFAULT, jpql, params, -1, -1).isEmpty());
+			Assert.assertEquals(1, queryCache.size());
+			writer.getEntityManager().getTransaction().commit();
+			Assert.assertEquals(0, queryCache.size());
+			Assert.assertEquals(1, reader.list(QueryStrategy.DEFAULT, jpql, params, -1, -1).size());
+		} finally {
+			writer.close();
+			reader.close();
+		}
+	}
+
+	@Test
+	public void lockMode() {
+		final JPAQueryCache queryCache = new JPAQueryCache(10, Duration.ofMinutes(1));
+		final JPAQueryEntityTransaction locked = JPAQueryEntityTransaction.create(factory.createEntityManager());
+		try {
+			locked.setQueryCache(queryCache);
+			final JPAQueryBuilder builder = JPAQueryBuilder.create(locked, QueryStrategy.DEFAULT, //
+					"select e from EntityTest e where e.id = :id") //
+					.setParam("id", entity.getId());
+			Assert.assertEquals(1, builder.list().size());
+			builder.setLockMode(LockModeType.PESSIMISTIC_WRITE);
+			Assert.assertEquals(1, builder.list().size());
+			Assert.assertNotNull(builder.single());
+			Assert.assertEquals(0, queryCache.getHits());
+			Assert.assertFalse(locked.getEntityManager().getTransaction().isActive());
+		} finally {
+			locked.close();
+		}
+	}
+
+	@Test
+	public void readLock() {
+		final JPAQueryEntityTransaction locked = JPAQueryEntityTransaction.create(factory.createEntityManager());
+		final EntityManager other = factory.createEntityManager();
+		try {
+			locked.setDefaultHint(JPAQuery.HINT_LOCK_MODE, LockModeType.PESSIMISTIC_WRITE);
+			locked.getEntityManager().getTransaction().begin();
+			final EntityTest lido = locked.read(EntityTest.class, entity.getId());
+			Assert.assertEquals(LockModeType.PESSIMISTIC_WRITE, locked.getEntityManager().getLockMode(lido));
+			other.getTransaction().begin();
+			other.createNativeQuery("set lock_timeout 100").executeUpdate();
+			try {
+				other.createQuery("update EntityTest e set e.name = e.name where e.id = :id") //
+						.setParameter("id", entity.getId()) //
+						.executeUpdate();
+				Assert.fail("Registro não bloqueado pela leitura");
+			} catch (PersistenceException e) {
+				// Bloqueado pela leitura
+			}
+		} finally {
+			if (other.getTransaction().isActive()) {
+				other.getTransaction().rollback();
+			}
+			other.close();
+			if (locked.getEntityManager().getTransaction().isActive()) {
+				locked.getEntityManager().getTransaction().rollback();
+			}
+			locked.close();
+		}
+	}
+
+	@Test
+	public void namedQueryRegistry() {
+		final JPANamedQueryRegistry registry = new JPANamedQueryRegistry(2, 1);
+		final JPAQueryEntityTransaction named = JPAQueryEntityTransaction.create(factory.createEntityManager());
+		try {
+			named.setNamedQueryRegistry(registry);
+			final String jpql = "select e from EntityTest e where e.id = :id";
+			final Map<String, Object> params = Collections.singletonMap("id", entity.getId());
+			for (int i = 0; i < 4; i++) {
+				Assert.assertEquals(1, named.list(QueryStrategy.DEFAULT, jpql, params, -1, -1).size());
+			}
+			Assert.assertNotNull(registry.getName(jpql));
+			Assert.assertEquals(1, registry.getPromotions());
+			Assert.assertEquals(2, registry.getNamedQueryUses());
+			final String untracked = "select e from EntityTest e where e.id = :id order by e.id";
+			Assert.assertEquals(1, named.list(QueryStrategy.DEFAULT, untracked, params, -1, -1).size());
+			Assert.assertNull(registry.getName(untracked));
+			Assert.assertEquals(1, registry.getUntracked());
+		} finally {
+			named.close();
+		}
+	}
+
+	@Test
+	public void listAsync() {
+		final QueryFuture<List<EntityTest>> retorno = createJPAQueryBuilder(QueryStrategy.DEFAULT, //
+				"select e from EntityTest e where e.id = :id") //
+						.setParam("id", entity.getId()) //
+						.listAsync();
+		Assert.assertEquals(entity.getId(), retorno.join().get(0).getId());
+	}
+
+	@Test
+	public void project() {
+		final JPAQueryBuilder builder = createJPAQueryBuilder(QueryStrategy.DEFAULT, //
+				"select e from EntityTest e where e.id = :id order by e.id") //
+						.setParam("id", entity.getId());
+		final List<Resumo> resumos = builder.project(Resumo.class, "id", "value");
+		Assert.assertEquals(1, resumos.size());
+		Assert.assertEquals(entity.getId(), resumos.get(0).getId());
+		Assert.assertEquals(entity.getValue(), resumos.get(0).getValue());
+		Assert.assertArrayEquals(new long[] { entity.getId() }, builder.projectLongs("id"));
+		Assert.assertArrayEquals(new double[] { entity.getValue() }, builder.projectDoubles("value"), 0.0);
+	}
+
+	@Test
+	public void readOnly() {
+		final JPAQueryEntityTransaction readOnly = JPAQueryEntityTransaction.create(factory.createEntityManager());
+		try {
+			final JPAQueryBuilder builder = JPAQueryBuilder.create(readOnly, QueryStrategy.DEFAULT, //
+					"select e from EntityTest e where e.id = :id") //
+					.setParam("id", entity.getId()) //
+					.setReadOnly(true) //
+					.setDetached(true);
+			final List<EntityTest> retorno = builder.list();
+			Assert.assertEquals(1, retorno.size());
+			Assert.assertFalse(readOnly.getEntityManager().contains(retorno.get(0)));
+
+			final EntityTest lido = readOnly.read(EntityTest.class, entity.getId(), JPAQuery.readOnlyHints(false));
+			Assert.assertTrue(readOnly.getEntityManager().unwrap(Session.class).isReadOnly(lido));
+			final List<EntityTest> gerenciados = builder.list();
+			Assert.assertSame(lido, gerenciados.get(0));
+			Assert.assertTrue(readOnly.getEntityManager().contains(lido));
+			Assert.assertSame(lido, readOnly.read(EntityTest.class, entity.getId(), JPAQuery.readOnlyHints(true)));
+			Assert.assertTrue(readOnly.getEntityManager().contains(lido));
+		} finally {
+			readOnly.close();
+		}
+	}
+
 	@Test
 	public void update1() {
 		Assert.assertEquals(createJPAQueryBuilder(QueryStrategy.NAMED, EntityTest.UPDATE1)//
@@ -91,4 +504,23 @@ public class JPAQueryTest {
 				1);
 	}
 
+	public static class Resumo {
+
+		public Resumo(Long id, Double value) {
+			this.id = id;
+			this.value = value;
+		}
+
+		private final Long id;
+		private final Double value;
+
+		public Long getId() {
+			return id;
+		}
+
+		public Double getValue() {
+			return value;
+		}
+	}
+
 }
@@ -0,0 +1,43 @@
+package br.dev.juniorlatalisa.persistence.model;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+import br.dev.juniorlatalisa.model.PrimaryKeyId;
+
+@Entity
+@SuppressWarnings("serial")
+@Table(name = "scan_entity_test")
+public class ScanEntityTest implements PrimaryKeyId<Long> {
+
+	public ScanEntityTest() {
+	}
+
+	public ScanEntityTest(Long id, String name) {
+		this.id = id;
+		this.name = name;
+	}
+
+	@Id
+	private Long id;
+	private String name;
+
+	@Override
+	public Long getId() {
+		return id;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	@Override
+	public String toString() {
+		return PrimaryKeyId.toString(this);
+	}
+}
@@ -0,0 +1,66 @@
+package br.dev.juniorlatalisa.persistence.model;
+
+import java.io.Serializable;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.Version;
+
+@Entity
+@SuppressWarnings("serial")
+@Table(name = "versioned_entity_test")
+public class VersionedEntityTest implements Serializable {
+
+	public VersionedEntityTest() {
+	}
+
+	public VersionedEntityTest(Long id, String name, String origin) {
+		this.id = id;
+		this.name = name;
+		this.origin = origin;
+	}
+
+	@Id
+	private Long id;
+	private String name;
+	@Column(updatable = false)
+	private String origin;
+	@Version
+	private Integer version;
+
+	public Long getId() {
+		return id;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public String getOrigin() {
+		return origin;
+	}
+
+	public void setOrigin(String origin) {
+		this.origin = origin;
+	}
+
+	public Integer getVersion() {
+		return version;
+	}
+
+	public void setVersion(Integer version) {
+		this.version = version;
+	}
+
+	@Override
+	public String toString() {
+		return "VersionedEntityTest [id=" + id + ", name=" + name + ", origin=" + origin + ", version=" + version
+				+ "]";
+	}
+}